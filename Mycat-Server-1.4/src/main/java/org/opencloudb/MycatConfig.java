@@ -98,6 +98,7 @@ public class MycatConfig {
 			sorcvbuf = system.getFrontsocketsorcvbuf();
 			sosndbuf = system.getFrontsocketsosndbuf();
 			soNoDelay = system.getFrontSocketNoDelay();
+			con.setWriteQueueHighWater(system.getFrontWriteQueueSize());
 		} else {
 			sorcvbuf = system.getBacksocketsorcvbuf();
 			sosndbuf = system.getBacksocketsosndbuf();
@@ -40,6 +40,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.log4j.Logger;
 import org.opencloudb.backend.PhysicalDBPool;
+import org.opencloudb.backend.PhysicalDatasource;
 import org.opencloudb.buffer.BufferPool;
 import org.opencloudb.cache.CacheService;
 import org.opencloudb.classloader.DynaClassLoader;
@@ -55,7 +56,6 @@ import org.opencloudb.net.NIOProcessor;
 import org.opencloudb.net.NIOReactorPool;
 import org.opencloudb.net.SocketAcceptor;
 import org.opencloudb.net.SocketConnector;
-import org.opencloudb.route.MyCATSequnceProcessor;
 import org.opencloudb.route.RouteService;
 import org.opencloudb.server.ServerConnectionFactory;
 import org.opencloudb.statistic.SQLRecorder;
@@ -70,6 +70,7 @@ public class MycatServer {
 	public static final String NAME = "MyCat";
 	private static final long LOG_WATCH_DELAY = 60000L;
 	private static final long TIME_UPDATE_PERIOD = 20L;
+	private static final long WAITER_CHECK_PERIOD = 100L;
 	private static final MycatServer INSTANCE = new MycatServer();
 	private static final Logger LOGGER = Logger.getLogger("MycatServer");
 	private final RouteService routerService;
@@ -77,7 +78,6 @@ public class MycatServer {
 	private Properties dnIndexProperties;
 	private AsynchronousChannelGroup[] asyncChannelGroups;
 	private volatile int channelIndex = 0;
-	private final MyCATSequnceProcessor sequnceProcessor = new MyCATSequnceProcessor();
 	private final DynaClassLoader catletClassLoader;
 	private final SQLInterceptor sqlInterceptor;
 	private volatile int nextProcessor;
@@ -134,10 +134,6 @@ public class MycatServer {
 		return catletClassLoader;
 	}
 
-	public MyCATSequnceProcessor getSequnceProcessor() {
-		return sequnceProcessor;
-	}
-
 	public SQLInterceptor getSqlInterceptor() {
 		return sqlInterceptor;
 	}
@@ -310,6 +306,7 @@ public class MycatServer {
 				dataNodeIldeCheckPeriod);
 		timer.schedule(dataNodeHeartbeat(), 0L,
 				system.getDataNodeHeartbeatPeriod());
+		timer.schedule(dataSourceWaiterCheck(), 0L, WAITER_CHECK_PERIOD);
 		timer.schedule(catletClassClear(), 30000);
 
 	}
@@ -533,6 +530,29 @@ public class MycatServer {
 		};
 	}
 
+	// 后端连接等待超时检查任务
+	private TimerTask dataSourceWaiterCheck() {
+		return new TimerTask() {
+			@Override
+			public void run() {
+				timerExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						Map<String, PhysicalDBPool> nodes = config
+								.getDataHosts();
+						for (PhysicalDBPool node : nodes.values()) {
+							for (PhysicalDatasource ds : node.getAllDataSources()) {
+								if (ds != null) {
+									ds.checkWaiterTimeout();
+								}
+							}
+						}
+					}
+				});
+			}
+		};
+	}
+
 	public boolean isAIO() {
 		return aio;
 	}
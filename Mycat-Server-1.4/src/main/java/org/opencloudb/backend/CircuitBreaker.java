@@ -0,0 +1,130 @@
+package org.opencloudb.backend;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencloudb.config.ErrorCode;
+
+/**
+ * 数据源熔断器, 由真实请求的结果驱动, 不依赖心跳周期。
+ * CLOSED: 正常放行, 连续失败达到阈值后进入 OPEN;
+ * OPEN: 拒绝请求, 到期后只放行一个探测请求并进入 HALF_OPEN;
+ * HALF_OPEN: 探测成功回到 CLOSED, 失败重新 OPEN, 探测无结果超时后再放行一个
+ */
+public class CircuitBreaker {
+
+	public static final int CLOSED = 0;
+	public static final int OPEN = 1;
+	public static final int HALF_OPEN = 2;
+
+	private final AtomicInteger state = new AtomicInteger(CLOSED);
+	private final AtomicInteger failures = new AtomicInteger();
+	// OPEN: 允许探测的时间; HALF_OPEN: 探测超时时间
+	private final AtomicLong retryTime = new AtomicLong();
+	private final AtomicLong openCount = new AtomicLong();
+	private final AtomicLong rejectCount = new AtomicLong();
+
+	/**
+	 * 是否可以选择该数据源, 不占用探测名额
+	 */
+	public boolean isAvailable(long now) {
+		return state.get() == CLOSED || now >= retryTime.get();
+	}
+
+	/**
+	 * 是否放行本次请求, 熔断到期时只有一个调用者拿到探测名额
+	 */
+	public boolean allowRequest(long now, long openTime) {
+		if (state.get() == CLOSED) {
+			return true;
+		}
+		long retry = retryTime.get();
+		if (now >= retry && retryTime.compareAndSet(retry, now + openTime)) {
+			state.compareAndSet(OPEN, HALF_OPEN);
+			return true;
+		}
+		rejectCount.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * OPEN 期间的成功(熔断前发出的请求, 心跳)不恢复, 只由探测请求恢复
+	 *
+	 * @return true 由熔断恢复为正常
+	 */
+	public boolean onSuccess() {
+		if (failures.get() != 0) {
+			failures.set(0);
+		}
+		return state.get() == HALF_OPEN && state.compareAndSet(HALF_OPEN, CLOSED);
+	}
+
+	/**
+	 * @return true 本次失败触发熔断
+	 */
+	public boolean onFailure(long now, int threshold, long openTime) {
+		switch (state.get()) {
+		case CLOSED:
+			if (failures.incrementAndGet() < threshold) {
+				return false;
+			}
+			// 先设置到期时间再切换状态, 避免读到旧的到期时间
+			retryTime.set(now + openTime);
+			if (state.compareAndSet(CLOSED, OPEN)) {
+				openCount.incrementAndGet();
+				return true;
+			}
+			return false;
+		case HALF_OPEN:
+			retryTime.set(now + openTime);
+			if (state.compareAndSet(HALF_OPEN, OPEN)) {
+				openCount.incrementAndGet();
+				return true;
+			}
+			return false;
+		default:
+			// 熔断前发出的请求陆续失败, 不延长熔断时间
+			return false;
+		}
+	}
+
+	/**
+	 * 表示服务端不可用的错误码, SQL语法/约束等业务错误不计入失败
+	 */
+	public static boolean isServerError(int errno) {
+		switch (errno) {
+		case ErrorCode.ER_CON_COUNT_ERROR:
+		case ErrorCode.ER_OUT_OF_RESOURCES:
+		case ErrorCode.ER_SERVER_SHUTDOWN:
+		case ErrorCode.ER_NET_READ_INTERRUPTED:
+		case ErrorCode.ER_NET_WRITE_INTERRUPTED:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * 切换为主节点等场合, 重新开始计数
+	 */
+	public void reset() {
+		failures.set(0);
+		state.set(CLOSED);
+	}
+
+	public int getState() {
+		return state.get();
+	}
+
+	public int getFailures() {
+		return failures.get();
+	}
+
+	public long getOpenCount() {
+		return openCount.get();
+	}
+
+	public long getRejectCount() {
+		return rejectCount.get();
+	}
+}
@@ -5,6 +5,8 @@ import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opencloudb.MycatServer;
 import org.opencloudb.jdbc.JDBCConnection;
@@ -14,6 +16,14 @@ import org.opencloudb.net.NIOProcessor;
 public class ConMap {
 	// key -schema
 	private final ConcurrentHashMap<String, ConQueue> items = new ConcurrentHashMap<String, ConQueue>();
+	// 借出中的连接 -> 借出时的schema, 借出/归还/关闭时维护, 统计活动连接不再遍历所有后端连接
+	private final ConcurrentHashMap<BackendConnection, String> activeCons = new ConcurrentHashMap<BackendConnection, String>();
+	private final ConcurrentHashMap<String, AtomicInteger> activeCountForSchema = new ConcurrentHashMap<String, AtomicInteger>();
+	private final AtomicInteger activeCount = new AtomicInteger();
+	// 取到当前schema连接/借用其他schema连接的次数
+	private final AtomicLong schemaHits = new AtomicLong();
+	private final AtomicLong schemaSwitches = new AtomicLong();
+	private static final int MAX_BORROW_TRIES = 3;
 
 	public ConQueue getSchemaConQueue(String schema) {
 		ConQueue queue = items.get(schema);
@@ -29,16 +39,29 @@ public class ConMap {
 		final ConQueue queue = items.get(schema);
 		BackendConnection con = tryTakeCon(queue, autoCommit);
 		if (con != null) {
+			schemaHits.incrementAndGet();
 			return con;
-		} else {
+		}
+		// 当前schema没有空闲连接, 从空闲连接最多的schema借一个, 执行时再切换schema,
+		// 避免总是掏空同一个schema的连接
+		for (int i = 0; i < MAX_BORROW_TRIES; i++) {
+			ConQueue donor = null;
+			int maxIdle = 0;
 			for (ConQueue queue2 : items.values()) {
-				if (queue != queue2) {
-					con = tryTakeCon(queue2, autoCommit);
-					if (con != null) {
-						return con;
-					}
+				int idle = queue2.getIdleCount();
+				if (queue2 != queue && idle > maxIdle) {
+					donor = queue2;
+					maxIdle = idle;
 				}
 			}
+			if (donor == null) {
+				return null;
+			}
+			con = tryTakeCon(donor, autoCommit);
+			if (con != null) {
+				schemaSwitches.incrementAndGet();
+				return con;
+			}
 		}
 		return null;
 
@@ -55,11 +78,66 @@ public class ConMap {
 
 	}
 
+	public long getSchemaHits() {
+		return schemaHits.get();
+	}
+
+	public long getSchemaSwitches() {
+		return schemaSwitches.get();
+	}
+
 	public Collection<ConQueue> getAllConQueue() {
 		return items.values();
 	}
 
-	public int getActiveCountForSchema(String schema,
+	private AtomicInteger getActiveCounter(String schema) {
+		AtomicInteger counter = activeCountForSchema.get(schema);
+		if (counter == null) {
+			AtomicInteger newCounter = new AtomicInteger();
+			counter = activeCountForSchema.putIfAbsent(schema, newCounter);
+			return (counter == null) ? newCounter : counter;
+		}
+		return counter;
+	}
+
+	/**
+	 * 连接被借出(包括连接心跳占用)
+	 */
+	public void borrowed(BackendConnection con, String schema) {
+		String old = activeCons.put(con, schema);
+		if (old == null) {
+			activeCount.incrementAndGet();
+			getActiveCounter(schema).incrementAndGet();
+		} else if (!old.equals(schema)) {
+			getActiveCounter(old).decrementAndGet();
+			getActiveCounter(schema).incrementAndGet();
+		}
+	}
+
+	/**
+	 * 连接归还或关闭, 可重复调用
+	 */
+	public void returned(BackendConnection con) {
+		String schema = activeCons.remove(con);
+		if (schema != null) {
+			activeCount.decrementAndGet();
+			getActiveCounter(schema).decrementAndGet();
+		}
+	}
+
+	public int getActiveCountForSchema(String schema) {
+		AtomicInteger counter = activeCountForSchema.get(schema);
+		return counter == null ? 0 : counter.get();
+	}
+
+	public int getActiveCountForDs() {
+		return activeCount.get();
+	}
+
+	/**
+	 * 遍历所有后端连接统计, 仅用于校验计数
+	 */
+	public int scanActiveCountForSchema(String schema,
 			PhysicalDatasource dataSouce) {
 		int total = 0;
 		for (NIOProcessor processor : MycatServer.getInstance().getProcessors()) {
@@ -87,7 +165,10 @@ public class ConMap {
         return total;
     }
 
-	public int getActiveCountForDs(PhysicalDatasource dataSouce) {
+	/**
+	 * 遍历所有后端连接统计, 仅用于校验计数
+	 */
+	public int scanActiveCountForDs(PhysicalDatasource dataSouce) {
 		int total = 0;
 		for (NIOProcessor processor : MycatServer.getInstance().getProcessors()) {
 			for (BackendConnection con : processor.getBackends().values()) {
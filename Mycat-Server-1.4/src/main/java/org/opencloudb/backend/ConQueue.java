@@ -2,11 +2,14 @@ package org.opencloudb.backend;
 
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ConQueue {
 	private final ConcurrentLinkedQueue<BackendConnection> autoCommitCons = new ConcurrentLinkedQueue<BackendConnection>();
 	private final ConcurrentLinkedQueue<BackendConnection> manCommitCons = new ConcurrentLinkedQueue<BackendConnection>();
 	private long executeCount;
+	// 两个队列中的连接总数, ConcurrentLinkedQueue.size() 是 O(n)
+	private final AtomicInteger idleCount = new AtomicInteger();
 
 	public BackendConnection takeIdleCon(boolean autoCommit) {
 		ConcurrentLinkedQueue<BackendConnection> f1 = autoCommitCons;
@@ -17,9 +20,9 @@ public class ConQueue {
 			f2 = autoCommitCons;
 
 		}
-		BackendConnection con = f1.poll();
+		BackendConnection con = poll(f1);
 		if (con == null || con.isClosedOrQuit()) {
-			con = f2.poll();
+			con = poll(f2);
 		}
 		if (con == null || con.isClosedOrQuit()) {
 			return null;
@@ -29,6 +32,43 @@ public class ConQueue {
 
 	}
 
+	private BackendConnection poll(ConcurrentLinkedQueue<BackendConnection> queue) {
+		BackendConnection con = queue.poll();
+		if (con != null) {
+			idleCount.decrementAndGet();
+		}
+		return con;
+	}
+
+	/**
+	 * 归还空闲连接
+	 */
+	public boolean offerIdleCon(BackendConnection con) {
+		ConcurrentLinkedQueue<BackendConnection> queue = con.isAutocommit() ? autoCommitCons
+				: manCommitCons;
+		if (queue.offer(con)) {
+			idleCount.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 从指定队列移除连接, 连接已被别人取走时返回false
+	 */
+	public boolean removeIdleCon(ConcurrentLinkedQueue<BackendConnection> queue,
+			BackendConnection con) {
+		if (queue.remove(con)) {
+			idleCount.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	public int getIdleCount() {
+		return idleCount.get();
+	}
+
 	public long getExecuteCount() {
 		return executeCount;
 	}
@@ -38,8 +78,8 @@ public class ConQueue {
 	}
 
 	public void removeCon(BackendConnection con) {
-		if (!autoCommitCons.remove(con)) {
-			manCommitCons.remove(con);
+		if (!removeIdleCon(autoCommitCons, con)) {
+			removeIdleCon(manCommitCons, con);
 		}
 	}
 
@@ -64,13 +104,13 @@ public class ConQueue {
 		ArrayList<BackendConnection> readyCloseCons = new ArrayList<BackendConnection>(
 				count);
 		while (!manCommitCons.isEmpty() && readyCloseCons.size() < count) {
-			BackendConnection theCon = manCommitCons.poll();
+			BackendConnection theCon = poll(manCommitCons);
 			if (theCon != null) {
 				readyCloseCons.add(theCon);
 			}
 		}
 		while (!autoCommitCons.isEmpty() && readyCloseCons.size() < count) {
-			BackendConnection theCon = autoCommitCons.poll();
+			BackendConnection theCon = poll(autoCommitCons);
 			if (theCon != null) {
 				readyCloseCons.add(theCon);
 			}
@@ -0,0 +1,149 @@
+package org.opencloudb.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencloudb.mysql.nio.handler.ResponseHandler;
+
+/**
+ * 等待后端连接的请求队列, 先进先出。
+ * 归还的连接直接交给最早的等待者, 超时的等待者由定时任务取出并回调失败。
+ * 一个等待者只会被 poll 或 pollTimeouts 其中之一取走
+ */
+public class ConWaitQueue {
+
+	public static final class Waiter {
+		private final ResponseHandler handler;
+		private final Object attachment;
+		private final String schema;
+		private final long enqueueTime;
+		private final long deadline;
+		private final AtomicBoolean done = new AtomicBoolean(false);
+
+		Waiter(ResponseHandler handler, Object attachment, String schema,
+				long enqueueTime, long deadline) {
+			this.handler = handler;
+			this.attachment = attachment;
+			this.schema = schema;
+			this.enqueueTime = enqueueTime;
+			this.deadline = deadline;
+		}
+
+		public ResponseHandler getHandler() {
+			return handler;
+		}
+
+		public Object getAttachment() {
+			return attachment;
+		}
+
+		public String getSchema() {
+			return schema;
+		}
+
+		public long getEnqueueTime() {
+			return enqueueTime;
+		}
+	}
+
+	private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+	// 未被取走的等待者数, ConcurrentLinkedQueue.size() 是 O(n)
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong waitCount = new AtomicLong();
+	private final AtomicLong waitTime = new AtomicLong();
+	private final AtomicLong maxWaitTime = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+
+	/**
+	 * @return false 队列已满
+	 */
+	public boolean offer(ResponseHandler handler, Object attachment,
+			String schema, long now, long timeout, int maxWaiters) {
+		if (size.incrementAndGet() > maxWaiters) {
+			size.decrementAndGet();
+			return false;
+		}
+		waiters.offer(new Waiter(handler, attachment, schema, now, now
+				+ timeout));
+		return true;
+	}
+
+	/**
+	 * 取走最早的等待者, 没有时返回null
+	 */
+	public Waiter poll(long now) {
+		Waiter waiter;
+		while ((waiter = waiters.poll()) != null) {
+			if (waiter.done.compareAndSet(false, true)) {
+				size.decrementAndGet();
+				record(now - waiter.enqueueTime);
+				return waiter;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 取走所有已超时的等待者。所有等待者超时时间相同, 从队头开始到第一个未超时的为止
+	 */
+	public List<Waiter> pollTimeouts(long now) {
+		List<Waiter> list = null;
+		Waiter waiter;
+		while ((waiter = waiters.peek()) != null) {
+			if (waiter.deadline > now && !waiter.done.get()) {
+				break;
+			}
+			if (waiters.remove(waiter) && waiter.done.compareAndSet(false, true)) {
+				size.decrementAndGet();
+				timeoutCount.incrementAndGet();
+				record(now - waiter.enqueueTime);
+				if (list == null) {
+					list = new ArrayList<Waiter>();
+				}
+				list.add(waiter);
+			}
+		}
+		return list;
+	}
+
+	private void record(long time) {
+		waitCount.incrementAndGet();
+		waitTime.addAndGet(time);
+		long max;
+		while (time > (max = maxWaitTime.get())) {
+			if (maxWaitTime.compareAndSet(max, time)) {
+				break;
+			}
+		}
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * 已结束等待(拿到连接或超时)的次数
+	 */
+	public long getWaitCount() {
+		return waitCount.get();
+	}
+
+	/**
+	 * 累计等待时间(毫秒)
+	 */
+	public long getWaitTime() {
+		return waitTime.get();
+	}
+
+	public long getMaxWaitTime() {
+		return maxWaitTime.get();
+	}
+
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+}
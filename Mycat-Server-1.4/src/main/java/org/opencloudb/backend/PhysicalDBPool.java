@@ -30,6 +30,9 @@ import java.util.LinkedList;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
@@ -39,6 +42,7 @@ import org.opencloudb.config.model.DataHostConfig;
 import org.opencloudb.heartbeat.DBHeartbeat;
 import org.opencloudb.mysql.nio.handler.GetConnectionHandler;
 import org.opencloudb.mysql.nio.handler.ResponseHandler;
+import org.opencloudb.util.TimeUtil;
 
 public class PhysicalDBPool {
 	
@@ -66,9 +70,13 @@ public class PhysicalDBPool {
 	
 	protected final ReentrantLock switchLock = new ReentrantLock();
 	private final Collection<PhysicalDatasource> allDs;
+	private final PhysicalDatasource[] allDsArray;
+	// 写节点切换次数, 与各节点心跳状态版本一起决定读候选列表是否过期
+	private final AtomicLong switchVersion = new AtomicLong();
+	// 读候选列表缓存, 下标见 candidateKey
+	private final AtomicReferenceArray<ReadCandidates> readCandidates = new AtomicReferenceArray<ReadCandidates>(8);
 	private final int banlance;
 	private final int writeType;
-	private final Random random = new Random();
 	private final Random wnrandom = new Random();
 	private String[] schemas;
 	private final DataHostConfig dataHostConfig;
@@ -94,6 +102,7 @@ public class PhysicalDBPool {
 		
 		this.readSources = readSources;
 		this.allDs = this.genAllDataSources();
+		this.allDsArray = allDs.toArray(new PhysicalDatasource[allDs.size()]);
 		
 		LOGGER.info("total resouces of dataHost " + this.hostName + " is :" + allDs.size());
 		
@@ -210,6 +219,9 @@ public class PhysicalDBPool {
 				
 				// switch index
 				activedIndex = newIndex;
+				switchVersion.incrementAndGet();
+				// 新的写节点已由心跳确认可用, 清除之前的熔断状态
+				this.getSources()[newIndex].getBreaker().reset();
 				
 				// init again
 				this.init(activedIndex);
@@ -261,6 +273,7 @@ public class PhysicalDBPool {
 
 				active = j;
 				activedIndex = active;
+				switchVersion.incrementAndGet();
 				initSuccess = true;
 				LOGGER.info(getMessage(active, " init success"));
 
@@ -423,23 +436,23 @@ public class PhysicalDBPool {
 		switch (banlance) {
 		case BALANCE_ALL_BACK: {			
 			// all read nodes and the standard by masters
-			okSources = getAllActiveRWSources(true, false, checkSlaveSynStatus());
+			okSources = getReadCandidates(true, false, checkSlaveSynStatus());
 			if (okSources.isEmpty()) {
 				theNode = this.getSource();
 				
 			} else {
-				theNode = randomSelect(okSources);
+				theNode = balanceSelect(okSources);
 			}
 			break;
 		}
 		case BALANCE_ALL: {
-			okSources = getAllActiveRWSources(true, true, checkSlaveSynStatus());
-			theNode = randomSelect(okSources);
+			okSources = getReadCandidates(true, true, checkSlaveSynStatus());
+			theNode = balanceSelect(okSources);
 			break;
 		}
         case BALANCE_ALL_READ: {
-            okSources = getAllActiveRWSources(false, false, checkSlaveSynStatus());
-            theNode = randomSelect(okSources);
+            okSources = getReadCandidates(false, false, checkSlaveSynStatus());
+            theNode = balanceSelect(okSources);
             break;
         }
 		case BALANCE_NONE:
@@ -460,6 +473,66 @@ public class PhysicalDBPool {
 	}
 
 	
+	/**
+	 * 两次按权重随机选择(power of two choices), 取负载较低的一个。
+	 * 负载 = (活动连接数 + 1) * 连接占用时间EWMA / 权重, 慢节点和积压多的节点被选中的概率降低。
+	 * 跳过熔断中的节点, 全部熔断时使用当前写节点
+	 */
+	PhysicalDatasource balanceSelect(ArrayList<PhysicalDatasource> okSources) {
+		if (okSources.isEmpty()) {
+			return this.getSource();
+		}
+		PhysicalDatasource first = randomSelect(okSources);
+		PhysicalDatasource second = first;
+		if (okSources.size() > 1) {
+			second = randomSelect(okSources);
+			if (first == second) {
+				second = randomSelect(okSources);
+			}
+			if (load(second) < load(first)) {
+				PhysicalDatasource tmp = first;
+				first = second;
+				second = tmp;
+			}
+		}
+		long now = TimeUtil.currentTimeMillis();
+		if (first.isAvailable(now)) {
+			return first;
+		}
+		if (second.isAvailable(now)) {
+			return second;
+		}
+		for (PhysicalDatasource ds : okSources) {
+			if (ds.isAvailable(now)) {
+				return ds;
+			}
+		}
+		return this.getSource();
+	}
+
+	/**
+	 * 数据源被熔断。当前写节点熔断时立即发起一次心跳, 不等下个心跳周期再判断是否切换
+	 */
+	void breakerOpened(final PhysicalDatasource ds) {
+		if (ds != this.getSource()) {
+			return;
+		}
+		MycatServer.getInstance().getBusinessExecutor().execute(new Runnable() {
+			public void run() {
+				ds.doHeartbeat();
+			}
+		});
+	}
+
+	/**
+	 * 负载 = (活动连接数 + 1) * SQL响应时间的加权平均 / 权重
+	 */
+	private static double load(PhysicalDatasource ds) {
+		int weight = ds.getConfig().getWeight();
+		return (ds.getActiveCount() + 1.0) * (ds.getLatency() + 1)
+				/ (weight > 0 ? weight : 1);
+	}
+
 	/**
 	 * TODO: modify by zhuam
 	 * 
@@ -490,7 +563,7 @@ public class PhysicalDBPool {
 	        if (totalWeight > 0 && !sameWeight ) {
 	            
 	        	// 如果权重不相同且权重大于0则按总权重数随机
-	            int offset = random.nextInt(totalWeight);
+	            int offset = ThreadLocalRandom.current().nextInt(totalWeight);
 	            
 	            // 并确定随机值落在哪个片断上
 	            for (int i = 0; i < length; i++) {
@@ -502,7 +575,7 @@ public class PhysicalDBPool {
 	        }
 	        
 	        // 如果权重相同或权重为0则均等随机
-	        return okSources.get( random.nextInt(length) );	
+	        return okSources.get( ThreadLocalRandom.current().nextInt(length) );	
 	        
 			//int index = Math.abs(random.nextInt()) % okSources.size();
 			//return okSources.get(index);
@@ -529,6 +602,45 @@ public class PhysicalDBPool {
 				&& (theSource.getHeartbeat().getSlaveBehindMaster() < this.dataHostConfig.getSlaveThreshold());
 	}
 
+	/**
+	 * 读候选列表只在心跳状态变化或写节点切换后重建, 返回的列表不可修改
+	 */
+	private ArrayList<PhysicalDatasource> getReadCandidates(
+			boolean includeWriteNode, boolean includeCurWriteNode, boolean filterWithSlaveThreshold) {
+		int key = (includeWriteNode ? 4 : 0) | (includeCurWriteNode ? 2 : 0)
+				| (filterWithSlaveThreshold ? 1 : 0);
+		// 先取版本再读状态, 构建期间的状态变化会在下次调用时重建
+		long version = stateVersion();
+		ReadCandidates candidates = readCandidates.get(key);
+		if (candidates == null || candidates.version != version) {
+			candidates = new ReadCandidates(version, getAllActiveRWSources(
+					includeWriteNode, includeCurWriteNode, filterWithSlaveThreshold));
+			readCandidates.set(key, candidates);
+		}
+		return candidates.sources;
+	}
+
+	/**
+	 * 各计数只增不减, 其和不变即状态未变
+	 */
+	private long stateVersion() {
+		long version = switchVersion.get();
+		for (PhysicalDatasource ds : allDsArray) {
+			version += ds.getHeartbeat().getStateVersion();
+		}
+		return version;
+	}
+
+	private static final class ReadCandidates {
+		private final long version;
+		private final ArrayList<PhysicalDatasource> sources;
+
+		ReadCandidates(long version, ArrayList<PhysicalDatasource> sources) {
+			this.version = version;
+			this.sources = sources;
+		}
+	}
+
 	/**
      * return all backup write sources
      * 
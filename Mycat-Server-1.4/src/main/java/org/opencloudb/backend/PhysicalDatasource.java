@@ -29,12 +29,16 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.opencloudb.MycatServer;
 import org.opencloudb.config.Alarms;
 import org.opencloudb.config.model.DBHostConfig;
 import org.opencloudb.config.model.DataHostConfig;
+import org.opencloudb.config.model.SystemConfig;
 import org.opencloudb.heartbeat.DBHeartbeat;
 import org.opencloudb.mysql.nio.MySQLConnection;
 import org.opencloudb.mysql.nio.handler.ConnectionHeartBeatHandler;
@@ -46,11 +50,29 @@ import org.opencloudb.util.TimeUtil;
 public abstract class PhysicalDatasource {
 	private static final Logger LOGGER = Logger
 			.getLogger(PhysicalDatasource.class);
+	// 测试用: 每次连接心跳检查时遍历后端连接校验活动/空闲计数
+	private static final boolean CHECK_COUNTERS = Boolean
+			.getBoolean("mycat.pool.checkCounters");
+	// 延迟EWMA的平滑系数为 1/2^LATENCY_SHIFT
+	private static final int LATENCY_SHIFT = 3;
+	// 每轮空闲连接心跳最少校验的连接数
+	private static final int MIN_CONS_IN_ONE_CHECK = 5;
 
 	private final String name;
 	private final int size;
 	private final DBHostConfig config;
 	private final ConMap conMap = new ConMap();
+	// 没有空闲连接时的等待队列
+	private final ConWaitQueue waitQueue = new ConWaitQueue();
+	// 正在建立的连接数
+	private final AtomicInteger creatingCount = new AtomicInteger();
+	// 连接借出到归还耗时的指数加权平均(微秒), 供读负载均衡使用
+	private final AtomicLong latency = new AtomicLong();
+	// 按真实请求结果熔断, 心跳判定失败前快速摘除
+	private final CircuitBreaker breaker = new CircuitBreaker();
+	// 最近一次请求成功返回的时间, 有流量时据此省去心跳SQL
+	private volatile long lastSuccessTime;
+	private final AtomicLong heartbeatSkips = new AtomicLong();
 	private DBHeartbeat heartbeat;
 	private final boolean readNode;
 	private volatile long heartbeatRecoveryTime;
@@ -118,15 +140,11 @@ public abstract class PhysicalDatasource {
 	}
 
 	public int getActiveCountForSchema(String schema) {
-		return conMap.getActiveCountForSchema(schema, this);
+		return conMap.getActiveCountForSchema(schema);
 	}
 
 	public int getIdleCountForSchema(String schema) {
-		ConQueue queue = conMap.getSchemaConQueue(schema);
-		int total = 0;
-		total += queue.getAutoCommitCons().size()
-				+ queue.getManCommitCons().size();
-		return total;
+		return conMap.getSchemaConQueue(schema).getIdleCount();
 	}
 
 	public DBHeartbeat getHeartbeat() {
@@ -136,12 +154,36 @@ public abstract class PhysicalDatasource {
 	public int getIdleCount() {
 		int total = 0;
 		for (ConQueue queue : conMap.getAllConQueue()) {
-			total += queue.getAutoCommitCons().size()
-					+ queue.getManCommitCons().size();
+			total += queue.getIdleCount();
 		}
 		return total;
 	}
 
+	/**
+	 * 遍历后端连接校验增量维护的活动/空闲计数, 不一致时打印警告
+	 * 
+	 * @return 计数是否一致
+	 */
+	public boolean checkCounters() {
+		boolean ok = true;
+		int active = conMap.scanActiveCountForDs(this);
+		if (active != getActiveCount()) {
+			LOGGER.warn("active count mismatch for " + name + ", counter "
+					+ getActiveCount() + ", scan " + active);
+			ok = false;
+		}
+		for (ConQueue queue : conMap.getAllConQueue()) {
+			int idle = queue.getAutoCommitCons().size()
+					+ queue.getManCommitCons().size();
+			if (idle != queue.getIdleCount()) {
+				LOGGER.warn("idle count mismatch for " + name + ", counter "
+						+ queue.getIdleCount() + ", scan " + idle);
+				ok = false;
+			}
+		}
+		return ok;
+	}
+
 	private boolean validSchema(String schema) {
 		String theSchema = schema;
 		return theSchema != null & !"".equals(theSchema)
@@ -151,26 +193,26 @@ public abstract class PhysicalDatasource {
 	private void checkIfNeedHeartBeat(
 			LinkedList<BackendConnection> heartBeatCons, ConQueue queue,
 			ConcurrentLinkedQueue<BackendConnection> checkLis,
-			long hearBeatTime, long hearBeatTime2) {
-		int maxConsInOneCheck = 10;
+			long hearBeatTime, long hearBeatTime2, int maxConsInOneCheck) {
 		Iterator<BackendConnection> checkListItor = checkLis.iterator();
 		while (checkListItor.hasNext()) {
 			BackendConnection con = checkListItor.next();
 			if (con.isClosedOrQuit()) {
-				checkListItor.remove();
+				queue.removeIdleCon(checkLis, con);
 				continue;
 			}
             if (validSchema(con.getSchema())) {
-                if (con.getLastTime() < hearBeatTime && heartBeatCons.size() < maxConsInOneCheck) {
-                    checkListItor.remove();
+                if (con.getLastTime() < hearBeatTime && heartBeatCons.size() < maxConsInOneCheck
+                		&& queue.removeIdleCon(checkLis, con)) {
                     // Heart beat check
                     con.setBorrowed(true);
+                    conMap.borrowed(con, con.getSchema());
                     heartBeatCons.add(con);
                 }
-            } else if (con.getLastTime() < hearBeatTime2) {
+            } else if (con.getLastTime() < hearBeatTime2
+            		&& queue.removeIdleCon(checkLis, con)) {
 				    // not valid schema conntion should close for idle
 					// exceed 2*conHeartBeatPeriod
-					checkListItor.remove();
 					con.close(" heart beate idle ");
 			}
 
@@ -198,8 +240,11 @@ public abstract class PhysicalDatasource {
         	}
 
 	public void heatBeatCheck(long timeout, long conHeartBeatPeriod) {
-		int ildeCloseCount = hostConfig.getMinCon() * 3;
-		int maxConsInOneCheck = 5;
+		// 归还连接时会更新 lastTime, 有流量的连接不需要心跳。
+		// 每轮最多校验一半空闲连接(至少 MIN_CONS_IN_ONE_CHECK 个), 空闲连接多时也能轮流校验到;
+		// 有请求在等连接时不占用空闲连接
+		int maxConsInOneCheck = waitQueue.size() > 0 ? 0 : Math.max(
+				MIN_CONS_IN_ONE_CHECK, getIdleCount() / 2);
 		LinkedList<BackendConnection> heartBeatCons = new LinkedList<BackendConnection>();
 
 		long hearBeatTime = TimeUtil.currentTimeMillis() - conHeartBeatPeriod;
@@ -207,13 +252,11 @@ public abstract class PhysicalDatasource {
 				* conHeartBeatPeriod;
 		for (ConQueue queue : conMap.getAllConQueue()) {
 			checkIfNeedHeartBeat(heartBeatCons, queue,
-					queue.getAutoCommitCons(), hearBeatTime, hearBeatTime2);
-			if (heartBeatCons.size() < maxConsInOneCheck) {
-				checkIfNeedHeartBeat(heartBeatCons, queue,
-						queue.getManCommitCons(), hearBeatTime, hearBeatTime2);
-			} else if (heartBeatCons.size() >= maxConsInOneCheck) {
-				break;
-			}
+					queue.getAutoCommitCons(), hearBeatTime, hearBeatTime2,
+					maxConsInOneCheck);
+			checkIfNeedHeartBeat(heartBeatCons, queue,
+					queue.getManCommitCons(), hearBeatTime, hearBeatTime2,
+					maxConsInOneCheck);
 		}
 
 		if (!heartBeatCons.isEmpty()) {
@@ -225,6 +268,9 @@ public abstract class PhysicalDatasource {
 
 		// check if there has timeouted heatbeat cons
 		conHeartBeatHanler.abandTimeOuttedConns();
+		if (CHECK_COUNTERS) {
+			checkCounters();
+		}
 		int idleCons = getIdleCount();
 		int activeCons = this.getActiveCount();
 		int createCount = (hostConfig.getMinCon() - idleCons) / 3;
@@ -272,7 +318,8 @@ public abstract class PhysicalDatasource {
 
         final String[] schemas = dbPool.getSchemas();
         for (int i = 0; i < createCount; i++) {
-        	if (this.getActiveCount() + this.getIdleCount() >= size) {
+        	if (this.getActiveCount() + this.getIdleCount()
+        			+ creatingCount.get() >= size) {
         		break;
         	}
         	try {
@@ -287,11 +334,127 @@ public abstract class PhysicalDatasource {
     }
 
 	public int getActiveCount() {
-		return this.conMap.getActiveCountForDs(this);
+		return this.conMap.getActiveCountForDs();
 	}
 
 	public void clearCons(String reason) {
 		this.conMap.clearConnections(reason, this);
+		failWaiters(Long.MAX_VALUE, "datasource " + name + " cleared: " + reason);
+	}
+
+	/**
+	 * 等待连接超时检查, 由定时任务调用
+	 */
+	public void checkWaiterTimeout() {
+		if (waitQueue.size() > 0) {
+			failWaiters(TimeUtil.currentTimeMillis(),
+					"acquire connection timeout from " + name);
+		}
+	}
+
+	private void failWaiters(long now, String reason) {
+		List<ConWaitQueue.Waiter> timeouts = waitQueue.pollTimeouts(now);
+		if (timeouts == null) {
+			return;
+		}
+		LOGGER.warn(reason + ", waiters " + timeouts.size());
+		for (ConWaitQueue.Waiter waiter : timeouts) {
+			waiter.getHandler().connectionError(new IOException(reason), null);
+		}
+	}
+
+	/**
+	 * 取到已在目标schema上的空闲连接的次数
+	 */
+	public long getSchemaHits() {
+		return conMap.getSchemaHits();
+	}
+
+	/**
+	 * 借用其他schema空闲连接(执行时需切换schema)的次数
+	 */
+	public long getSchemaSwitches() {
+		return conMap.getSchemaSwitches();
+	}
+
+	private void recordLatency(long nanos) {
+		long sample = Math.max(1, nanos / 1000);
+		long old;
+		long ewma;
+		do {
+			old = latency.get();
+			ewma = (old == 0) ? sample : old + ((sample - old) >> LATENCY_SHIFT);
+		} while (!latency.compareAndSet(old, ewma));
+	}
+
+	/**
+	 * SQL响应时间(发出到收到第一个响应包)的指数加权平均(微秒), 0表示还没有采样
+	 */
+	public long getLatency() {
+		return latency.get();
+	}
+
+	/**
+	 * 请求失败(建连失败, 服务端错误, 响应过慢, SQL超时), 连续失败达到阈值时熔断
+	 */
+	public void onFailure(String reason) {
+		SystemConfig system = MycatServer.getInstance().getConfig().getSystem();
+		int threshold = system.getBreakerFailureThreshold();
+		if (threshold <= 0) {
+			return;
+		}
+		if (breaker.onFailure(TimeUtil.currentTimeMillis(), threshold,
+				system.getBreakerOpenTime())) {
+			LOGGER.warn(Alarms.DEFAULT + "circuit breaker open for datasource "
+					+ name + ", last failure: " + reason);
+			if (dbPool != null) {
+				dbPool.breakerOpened(this);
+			}
+		}
+	}
+
+	/**
+	 * 后端对一条SQL的响应时间(发出到收到第一个响应包, 纳秒), 计入延迟统计,
+	 * 超过 breakerSlowThreshold 时计为失败
+	 */
+	public void onResponse(long nanos) {
+		recordLatency(nanos);
+		long slowThreshold = MycatServer.getInstance().getConfig().getSystem()
+				.getBreakerSlowThreshold();
+		if (slowThreshold > 0 && nanos / 1000000 > slowThreshold) {
+			onFailure("slow response " + nanos / 1000000 + "ms");
+		} else {
+			onSuccess();
+		}
+	}
+
+	public void onSuccess() {
+		long now = TimeUtil.currentTimeMillis();
+		if (lastSuccessTime != now) {
+			lastSuccessTime = now;
+		}
+		if (breaker.onSuccess()) {
+			LOGGER.info("circuit breaker closed for datasource " + name);
+		}
+	}
+
+	/**
+	 * 可作为读节点选择, 熔断中且未到探测时间时返回false
+	 */
+	public boolean isAvailable(long now) {
+		return breaker.isAvailable(now);
+	}
+
+	public CircuitBreaker getBreaker() {
+		return breaker;
+	}
+
+	public ConWaitQueue getWaitQueue() {
+		return waitQueue;
+	}
+
+	public int getCreatingCount() {
+		return creatingCount.get();
 	}
 
 	public void startHeartbeat() {
@@ -304,7 +467,12 @@ public abstract class PhysicalDatasource {
 
 	public void doHeartbeat() {
 		// 未到预定恢复时间，不执行心跳检测。
-		if (TimeUtil.currentTimeMillis() < heartbeatRecoveryTime) {
+		long now = TimeUtil.currentTimeMillis();
+		if (now < heartbeatRecoveryTime) {
+			return;
+		}
+		if (isHeartbeatCovered(now)) {
+			heartbeatSkips.incrementAndGet();
 			return;
 		}
 		if (!heartbeat.isStop()) {
@@ -316,6 +484,27 @@ public abstract class PhysicalDatasource {
 		}
 	}
 
+	/**
+	 * 上个心跳周期内有请求成功返回时视为存活, 不再发送心跳SQL。
+	 * 需要心跳结果取主从/集群同步状态时, 或心跳状态不是OK时仍然发送
+	 */
+	private boolean isHeartbeatCovered(long now) {
+		return heartbeat.getStatus() == DBHeartbeat.OK_STATUS
+				&& !heartbeat.isChecking()
+				&& !hostConfig.isShowSlaveSql()
+				&& !hostConfig.isShowClusterSql()
+				&& lastSuccessTime > now
+						- MycatServer.getInstance().getConfig().getSystem()
+								.getDataNodeHeartbeatPeriod();
+	}
+
+	/**
+	 * 因有流量而省去的心跳次数
+	 */
+	public long getHeartbeatSkips() {
+		return heartbeatSkips.get();
+	}
+
 	private BackendConnection takeCon(BackendConnection conn,
 			final ResponseHandler handler, final Object attachment,
 			String schema) {
@@ -325,6 +514,7 @@ public abstract class PhysicalDatasource {
 			// need do schema syn in before sql send
 			conn.setSchema(schema);
 		}
+		conMap.borrowed(conn, schema);
 		ConQueue queue = conMap.getSchemaConQueue(schema);
 		queue.incExecuteCount();
 		conn.setAttachment(attachment);
@@ -335,38 +525,121 @@ public abstract class PhysicalDatasource {
 
 	private void createNewConnection(final ResponseHandler handler,
 			final Object attachment, final String schema) throws IOException {
+		creatingCount.incrementAndGet();
 		//aysn create connection
 		MycatServer.getInstance().getBusinessExecutor().execute(new Runnable() {
 			public void run() {
 				try {
 					createNewConnection(new DelegateResponseHandler(handler) {
+						private final AtomicBoolean finished = new AtomicBoolean(false);
+
 						@Override
 						public void connectionError(Throwable e,
 								BackendConnection conn) {
+							if (finished.compareAndSet(false, true)) {
+								createFinished();
+							}
+							onFailure("create connection error " + e);
 							handler.connectionError(e, conn);
 						}
 
 						@Override
 						public void connectionAcquired(BackendConnection conn) {
-							takeCon(conn, handler, attachment, schema);
+							try {
+								takeCon(conn, handler, attachment, schema);
+							} finally {
+								if (finished.compareAndSet(false, true)) {
+									createFinished();
+								}
+							}
 						}
 					}, schema);
 				} catch (IOException e) {
+					createFinished();
 					handler.connectionError(e, null);
 				}
 			}
 		});
 	}
 
+	/**
+	 * 一个连接建立完成(成功或失败), 有等待者且还有余量时继续为最早的等待者建连接
+	 */
+	private void createFinished() {
+		creatingCount.decrementAndGet();
+		if (waitQueue.size() == 0
+				|| this.getActiveCount() + creatingCount.get() >= size) {
+			return;
+		}
+		ConWaitQueue.Waiter waiter = waitQueue.poll(TimeUtil.currentTimeMillis());
+		if (waiter != null) {
+			try {
+				createNewConnection(waiter.getHandler(), waiter.getAttachment(),
+						waiter.getSchema());
+			} catch (IOException e) {
+				waiter.getHandler().connectionError(e, null);
+			}
+		}
+	}
+
+	/**
+	 * 把连接交给等待者, 在业务线程中回调, 不占用归还连接的线程
+	 */
+	private void handOver(final BackendConnection conn,
+			final ConWaitQueue.Waiter waiter) {
+		MycatServer.getInstance().getBusinessExecutor().execute(new Runnable() {
+			public void run() {
+				takeCon(conn, waiter.getHandler(), waiter.getAttachment(),
+						waiter.getSchema());
+			}
+		});
+	}
+
     public void getConnection(String schema,boolean autocommit, final ResponseHandler handler,
         final Object attachment) throws IOException {
+        if (!breaker.allowRequest(TimeUtil.currentTimeMillis(),
+                MycatServer.getInstance().getConfig().getSystem().getBreakerOpenTime())) {
+            // 熔断中快速失败, 不再等待连接或SQL超时
+            handler.connectionError(new IOException("datasource " + name
+                    + " is ejected by circuit breaker"), null);
+            return;
+        }
+        getProbeConnection(schema, autocommit, handler, attachment);
+    }
+
+    /**
+     * 不受熔断限制取连接, 供心跳使用, 熔断期间仍由心跳判断数据源是否真的不可用
+     */
+    public void getProbeConnection(String schema, boolean autocommit,
+            final ResponseHandler handler, final Object attachment) throws IOException {
         BackendConnection con = this.conMap.tryTakeCon(schema,autocommit);
         if (con != null) {
             takeCon(con, handler, attachment, schema);
             return;
         } else {
-            int activeCons = this.getActiveCount();//当前最大活动连接
-            if(activeCons+1>size){//下一个连接大于最大连接数
+            SystemConfig system = MycatServer.getInstance().getConfig().getSystem();
+            int creating = creatingCount.get();
+            //当前活动连接加上正在建立的连接, 下一个连接大于最大连接数
+            boolean full = this.getActiveCount() + creating + 1 > size;
+            // 连接数已满或同时建立的连接过多时排队, 等待归还的连接
+            if ((full || creating >= system.getBackendMaxPendingCreates())
+                    && system.getBackendAcquireTimeout() > 0
+                    && waitQueue.offer(handler, attachment, schema,
+                            TimeUtil.currentTimeMillis(),
+                            system.getBackendAcquireTimeout(),
+                            system.getBackendMaxWaiters())) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("no idle connection in pool, wait for " + this.name
+                            + " of schema " + schema + ", waiters " + waitQueue.size());
+                }
+                // 入队前可能刚好有连接归还
+                con = this.conMap.tryTakeCon(schema, autocommit);
+                if (con != null) {
+                    returnCon(con);
+                }
+                return;
+            }
+            if(full){
                 LOGGER.error("the max activeConnnections size can not be max than maxconnections");
                 throw new IOException("the max activeConnnections size can not be max than maxconnections");
             }else{            // create connection
@@ -380,17 +653,23 @@ public abstract class PhysicalDatasource {
     }
 
 	private void returnCon(BackendConnection c) {
+		this.conMap.returned(c);
+		// 有等待者时直接交给最早的等待者
+		if (waitQueue.size() > 0 && !c.isClosedOrQuit()) {
+			ConWaitQueue.Waiter waiter = waitQueue.poll(TimeUtil.currentTimeMillis());
+			if (waiter != null) {
+				// 转交期间仍算作活动连接
+				this.conMap.borrowed(c, waiter.getSchema());
+				handOver(c, waiter);
+				return;
+			}
+		}
 		c.setAttachment(null);
 		c.setBorrowed(false);
 		c.setLastTime(TimeUtil.currentTimeMillis());
 		ConQueue queue = this.conMap.getSchemaConQueue(c.getSchema());
 
-		boolean ok = false;
-		if (c.isAutocommit()) {
-			ok = queue.getAutoCommitCons().offer(c);
-		} else {
-			ok = queue.getManCommitCons().offer(c);
-		}
+		boolean ok = queue.offerIdleCon(c);
 		if (!ok) {
 
 			LOGGER.warn("can't return to pool ,so close con " + c);
@@ -407,6 +686,7 @@ public abstract class PhysicalDatasource {
 	}
 
 	public void connectionClosed(BackendConnection conn) {
+		this.conMap.returned(conn);
 		ConQueue queue = this.conMap.getSchemaConQueue(conn.getSchema());
 		if (queue != null) {
 			queue.removeCon(conn);
@@ -27,27 +27,53 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
+import org.opencloudb.util.StripedCounter;
 
 /**
+ * direct buffer pool with size classes of 1, 4, 16 and 256 chunks (4K, 16K,
+ * 64K and 1M with the default chunk). allocate(size) gets a buffer of the
+ * smallest class that fits, only larger requests fall back to heap buffers.
+ * 
+ * every class has a shared depot striped over several queues, reactor
+ * threads (named with {@link #LOCAL_BUF_THREAD_PREX}) also keep a small
+ * magazine of free buffers per class that is used without any locking. a
+ * magazine holds at most threadLocalPercent of the pooled buffers of its
+ * class, so a thread keeps only a few buffers of the large classes.
+ * 
+ * the chunk class is allocated in advance (bufferSize bytes), the larger
+ * classes are created on demand and each keeps at most 1/8 of bufferSize
+ * 
  * @author mycat
  */
 public final class BufferPool {
 	// this value not changed ,isLocalCacheThread use it
 	public static final String LOCAL_BUF_THREAD_PREX = "$_";
-	private  final ThreadLocalBufferPool localBufferPool;
 	private static final Logger LOGGER = Logger.getLogger(BufferPool.class);
+	// size classes in chunks
+	private static final int[] CLASS_CHUNKS = { 1, 4, 16, 256 };
+	private static final int STRIPES = Runtime.getRuntime()
+			.availableProcessors();
+
 	private final int chunkSize;
-	private final ConcurrentLinkedQueue<ByteBuffer> items = new ConcurrentLinkedQueue<ByteBuffer>();
-	private long sharedOptsCount;
-	//private volatile int newCreated;
-        private AtomicInteger newCreated = new AtomicInteger(0);
+	private final SizeClass[] classes;
+	private final ThreadLocal<Magazine[]> magazines;
+	// magazines of all reactor threads, for size() and testIfDuplicate
+	private final List<Magazine[]> allMagazines = new CopyOnWriteArrayList<Magazine[]>();
 	private final long threadLocalCount;
 	private final long capactiy;
-	private long totalBytes = 0;
-	private long totalCounts = 0;
+	private final AtomicInteger newCreated = new AtomicInteger(0);
+	private final StripedCounter sharedOpts = new StripedCounter();
+	private final StripedCounter hits = new StripedCounter();
+	private final StripedCounter misses = new StripedCounter();
+	private final StripedCounter overflows = new StripedCounter();
+	private final StripedCounter outstanding = new StripedCounter();
+	private final AtomicLong totalBytes = new AtomicLong();
+	private final AtomicLong totalCounts = new AtomicLong();
 
 	public BufferPool(long bufferSize, int chunkSize, int threadLocalPercent) {
 		this.chunkSize = chunkSize;
@@ -55,11 +81,33 @@ public final class BufferPool {
 		size = (bufferSize % chunkSize == 0) ? size : size + 1;
 		this.capactiy = size;
 		threadLocalCount = threadLocalPercent * capactiy / 100;
+		classes = new SizeClass[CLASS_CHUNKS.length];
+		for (int i = 0; i < classes.length; i++) {
+			int classSize = chunkSize * CLASS_CHUNKS[i];
+			long maxPooled = i == 0 ? capactiy : Math.max(2, bufferSize / 8
+					/ classSize);
+			// threadLocalPercent is the share of one thread
+			int magazineSize = (int) Math.min(1024,
+					Math.max(1, maxPooled * threadLocalPercent / 100));
+			classes[i] = new SizeClass(i, classSize, maxPooled, magazineSize);
+		}
 		for (long i = 0; i < capactiy; i++) {
-			items.offer(createDirectBuffer(chunkSize));
+			classes[0].offer(createDirectBuffer(chunkSize));
 		}
-		localBufferPool = new ThreadLocalBufferPool(
-				threadLocalCount);
+		magazines = new ThreadLocal<Magazine[]>() {
+			@Override
+			protected Magazine[] initialValue() {
+				if (!isLocalCacheThread() || threadLocalCount <= 0) {
+					return null;
+				}
+				Magazine[] local = new Magazine[classes.length];
+				for (int i = 0; i < local.length; i++) {
+					local[i] = new Magazine(classes[i].magazineSize);
+				}
+				allMagazines.add(local);
+				return local;
+			}
+		};
 	}
 
 	private static final boolean isLocalCacheThread() {
@@ -74,85 +122,168 @@ public final class BufferPool {
 	}
 
 	public long getSharedOptsCount() {
-		return sharedOptsCount;
+		return sharedOpts.get();
 	}
 
+	/**
+	 * @return free buffers in the shared depots and the magazines
+	 */
 	public long size() {
-		return this.items.size();
+		long size = 0;
+		for (SizeClass c : classes) {
+			size += c.pooled.get();
+		}
+		for (Magazine[] local : allMagazines) {
+			for (Magazine magazine : local) {
+				size += magazine.count;
+			}
+		}
+		return size;
 	}
 
 	public long capacity() {
 		return capactiy + newCreated.get();
 	}
 
+	/**
+	 * @return allocations served by a magazine or a depot
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return allocations that created a new direct buffer
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return allocations larger than the biggest size class (heap buffers)
+	 */
+	public long getOverflowCount() {
+		return overflows.get();
+	}
+
+	/**
+	 * @return pooled buffers allocated and not recycled yet
+	 */
+	public long getOutstandingCount() {
+		return outstanding.get();
+	}
+
 	public ByteBuffer allocate() {
-		ByteBuffer node = null;
-		if (isLocalCacheThread()) {
-			// allocate from threadlocal
-			node = localBufferPool.get().poll();
+		return allocate(0, classes[0]);
+	}
+
+	public ByteBuffer allocate(int size) {
+		for (int i = 0; i < classes.length; i++) {
+			if (size <= classes[i].size) {
+				return allocate(i, classes[i]);
+			}
+		}
+		overflows.increment();
+		LOGGER.warn("allocate buffer size large than max size class:"
+				+ classes[classes.length - 1].size + " he want " + size);
+		return createTempBuffer(size);
+	}
+
+	private ByteBuffer allocate(int index, SizeClass sizeClass) {
+		outstanding.increment();
+		Magazine[] local = magazines.get();
+		ByteBuffer node;
+		if (local != null) {
+			node = local[index].pop();
 			if (node != null) {
+				hits.increment();
 				return node;
 			}
 		}
-		node = items.poll();
-		if (node == null) {
-			//newCreated++;
-			newCreated.incrementAndGet();
-			node = this.createDirectBuffer(chunkSize);
+		node = sizeClass.poll();
+		if (node != null) {
+			sharedOpts.increment();
+			hits.increment();
+			return node;
 		}
-		return node;
+		misses.increment();
+		newCreated.incrementAndGet();
+		return createDirectBuffer(sizeClass.size);
 	}
 
-	private boolean checkValidBuffer(ByteBuffer buffer) {
-		// 拒绝回收null和容量大于chunkSize的缓存
+	private SizeClass getSizeClass(ByteBuffer buffer) {
+		// 拒绝回收null和非池中大小的缓存
 		if (buffer == null || !buffer.isDirect()) {
-			return false;
-		} else if (buffer.capacity() > chunkSize) {
-			LOGGER.warn("cant' recycle  a buffer large than my pool chunksize "
-					+ buffer.capacity());
-			return false;
-		}
-		totalCounts++;
-		totalBytes += buffer.limit();
-		buffer.clear();
-		return true;
+			return null;
+		}
+		int capacity = buffer.capacity();
+		for (SizeClass c : classes) {
+			if (c.size == capacity) {
+				return c;
+			}
+		}
+		LOGGER.warn("cant' recycle a buffer not of my size classes "
+				+ capacity);
+		return null;
 	}
 
 	public void recycle(ByteBuffer buffer) {
-		if (!checkValidBuffer(buffer)) {
+		SizeClass sizeClass = getSizeClass(buffer);
+		if (sizeClass == null) {
 			return;
 		}
-		if (isLocalCacheThread()) {
-			BufferQueue localQueue = localBufferPool.get();
-			if (localQueue.snapshotSize() < threadLocalCount) {
-				localQueue.put(buffer);
-			} else {
-				// recyle 3/4 thread local buffer
-				items.addAll(localQueue.removeItems(threadLocalCount * 3 / 4));
-				items.offer(buffer);
-				sharedOptsCount++;
+		outstanding.decrement();
+		totalCounts.incrementAndGet();
+		totalBytes.addAndGet(buffer.limit());
+		buffer.clear();
+		Magazine[] local = magazines.get();
+		if (local != null) {
+			Magazine magazine = local[sizeClass.index];
+			if (!magazine.isFull()) {
+				magazine.push(buffer);
+				return;
 			}
-		} else {
-			sharedOptsCount++;
-			items.offer(buffer);
+			// give half of the magazine back to the depot
+			for (int i = Math.max(1, magazine.items.length / 2); i > 0; i--) {
+				sizeClass.offer(magazine.pop());
+			}
+			magazine.push(buffer);
+			sharedOpts.increment();
+			return;
 		}
-
+		sharedOpts.increment();
+		sizeClass.offer(buffer);
 	}
 
 	public int getAvgBufSize() {
-		if (this.totalBytes < 0) {
-			totalBytes = 0;
-			this.totalCounts = 0;
+		long counts = totalCounts.get();
+		long bytes = totalBytes.get();
+		if (bytes < 0 || counts == 0) {
+			totalBytes.set(0);
+			totalCounts.set(0);
 			return 0;
 		} else {
-			return (int) (totalBytes / totalCounts);
+			return (int) (bytes / counts);
 		}
 	}
 
 	public boolean testIfDuplicate(ByteBuffer buffer) {
-		for (ByteBuffer exists : items) {
-			if (exists == buffer) {
-				return true;
+		for (SizeClass c : classes) {
+			for (ConcurrentLinkedQueue<ByteBuffer> stripe : c.depot) {
+				for (ByteBuffer exists : stripe) {
+					if (exists == buffer) {
+						return true;
+					}
+				}
+			}
+		}
+		for (Magazine[] local : allMagazines) {
+			for (Magazine magazine : local) {
+				for (ByteBuffer exists : magazine.items) {
+					if (exists == buffer) {
+						return true;
+					}
+				}
 			}
 		}
 		return false;
@@ -168,13 +299,87 @@ public final class BufferPool {
 		return ByteBuffer.allocateDirect(size);
 	}
 
-	public ByteBuffer allocate(int size) {
-		if (size <= this.chunkSize) {
-			return allocate();
-		} else {
-			LOGGER.warn("allocate buffer size large than default chunksize:"
-					+ this.chunkSize + " he want " + size);
-			return createTempBuffer(size);
+	private static int stripe() {
+		return (int) (Thread.currentThread().getId() % STRIPES);
+	}
+
+	/**
+	 * free buffers of one size, shared by all threads
+	 */
+	private static final class SizeClass {
+		final int index;
+		final int size;
+		final long maxPooled;
+		final int magazineSize;
+		final ConcurrentLinkedQueue<ByteBuffer>[] depot;
+		final AtomicLong pooled = new AtomicLong();
+
+		@SuppressWarnings("unchecked")
+		SizeClass(int index, int size, long maxPooled, int magazineSize) {
+			this.index = index;
+			this.size = size;
+			this.maxPooled = maxPooled;
+			this.magazineSize = magazineSize;
+			depot = new ConcurrentLinkedQueue[STRIPES];
+			for (int i = 0; i < STRIPES; i++) {
+				depot[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			}
+		}
+
+		/**
+		 * poll the stripe of this thread first, then the others
+		 */
+		ByteBuffer poll() {
+			int start = stripe();
+			for (int i = 0; i < STRIPES; i++) {
+				ByteBuffer buffer = depot[(start + i) % STRIPES].poll();
+				if (buffer != null) {
+					pooled.decrementAndGet();
+					return buffer;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * buffers over maxPooled are left to the gc
+		 */
+		void offer(ByteBuffer buffer) {
+			if (pooled.get() >= maxPooled) {
+				return;
+			}
+			pooled.incrementAndGet();
+			depot[stripe()].offer(buffer);
+		}
+	}
+
+	/**
+	 * free buffers of one size class kept by one reactor thread, other
+	 * threads only read it for statistics
+	 */
+	private static final class Magazine {
+		final ByteBuffer[] items;
+		int count;
+
+		Magazine(int size) {
+			items = new ByteBuffer[size];
+		}
+
+		boolean isFull() {
+			return count == items.length;
+		}
+
+		void push(ByteBuffer buffer) {
+			items[count++] = buffer;
+		}
+
+		ByteBuffer pop() {
+			if (count == 0) {
+				return null;
+			}
+			ByteBuffer buffer = items[--count];
+			items[count] = null;
+			return buffer;
 		}
 	}
 
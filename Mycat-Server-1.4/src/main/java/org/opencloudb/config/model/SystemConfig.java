@@ -66,6 +66,7 @@ public final class SystemConfig {
 	private static final String DEFAULT_CLUSTER_HEARTBEAT_PASS = "_HEARTBEAT_PASS_";
 	private static final int DEFAULT_PARSER_COMMENT_VERSION = 50148;
 	private static final int DEFAULT_SQL_RECORD_COUNT = 10;
+	private static final long DEFAULT_MERGE_MEMORY_BUDGET = 64 * 1024 * 1024L;
 	private int maxStringLiteralLength = 65535;
 	private int frontWriteQueueSize = 2048;
 	private String bindIp = "0.0.0.0";
@@ -94,10 +95,30 @@ public final class SystemConfig {
 	private long processorBufferPool;
 	private int processorBufferChunk;
 	private int defaultMaxLimit = DEFAULT_MAX_LIMIT;
+	// 单分片的简单增删改查不建AST直接路由, 0=关闭
+	private int fastPathRoute = 1;
+	// 多节点合并(group by/order by)每个查询可用的内存(字节),超过后写入临时文件,<=0不限制
+	private long mergeMemoryBudget = DEFAULT_MERGE_MEMORY_BUDGET;
+	// 后端没有空闲连接时排队等待的超时(毫秒), <=0 不排队, 直接新建或失败
+	private long backendAcquireTimeout = 3000;
+	// 每个物理数据源最多排队等待的请求数
+	private int backendMaxWaiters = 1024;
+	// 每个物理数据源同时在建立的连接数上限, 超过后新请求排队等待
+	private int backendMaxPendingCreates = 16;
+	// 熔断: 连续失败次数达到该值时暂时摘除数据源, 0表示不启用
+	private int breakerFailureThreshold = 5;
+	// 熔断后多久(毫秒)放行一个探测请求
+	private long breakerOpenTime = 10000;
+	// SQL发出到收到第一个响应包超过该时间(毫秒)时计为失败, 0表示不启用
+	private long breakerSlowThreshold = 0;
 	public static final int SEQUENCEHANDLER_LOCALFILE = 0;
 	public static final int SEQUENCEHANDLER_MYSQLDB = 1;
 	public static final int SEQUENCEHANDLER_LOCAL_TIME = 2;
 	private int sequnceHandlerType = SEQUENCEHANDLER_LOCALFILE;
+	// 数据库序列: 当前号段用到该比例时异步预取下一批号段
+	private double sequencePrefetchRatio = 0.5;
+	// 数据库序列: 每次最多取回的号段数, 按消耗速度在 1 到该值之间调整
+	private int sequenceMaxSegments = 16;
 	private String sqlInterceptor = "org.opencloudb.interceptor.impl.DefaultSqlInterceptor";
 	private String sqlInterceptorType = "select";
 	private String sqlInterceptorFile = System.getProperty("user.dir")+"/logs/sql.txt";
@@ -167,6 +188,30 @@ public final class SystemConfig {
 		this.sequnceHandlerType = sequnceHandlerType;
 	}
 
+	public double getSequencePrefetchRatio() {
+		return sequencePrefetchRatio;
+	}
+
+	public void setSequencePrefetchRatio(double sequencePrefetchRatio) {
+		this.sequencePrefetchRatio = sequencePrefetchRatio;
+	}
+
+	public int getFastPathRoute() {
+		return fastPathRoute;
+	}
+
+	public void setFastPathRoute(int fastPathRoute) {
+		this.fastPathRoute = fastPathRoute;
+	}
+
+	public int getSequenceMaxSegments() {
+		return sequenceMaxSegments;
+	}
+
+	public void setSequenceMaxSegments(int sequenceMaxSegments) {
+		this.sequenceMaxSegments = sequenceMaxSegments;
+	}
+
 	public int getPacketHeaderSize() {
 		return packetHeaderSize;
 	}
@@ -191,6 +236,62 @@ public final class SystemConfig {
 		this.maxPacketSize = maxPacketSize;
 	}
 
+	public long getMergeMemoryBudget() {
+		return mergeMemoryBudget;
+	}
+
+	public void setMergeMemoryBudget(long mergeMemoryBudget) {
+		this.mergeMemoryBudget = mergeMemoryBudget;
+	}
+
+	public long getBackendAcquireTimeout() {
+		return backendAcquireTimeout;
+	}
+
+	public void setBackendAcquireTimeout(long backendAcquireTimeout) {
+		this.backendAcquireTimeout = backendAcquireTimeout;
+	}
+
+	public int getBackendMaxWaiters() {
+		return backendMaxWaiters;
+	}
+
+	public void setBackendMaxWaiters(int backendMaxWaiters) {
+		this.backendMaxWaiters = backendMaxWaiters;
+	}
+
+	public int getBackendMaxPendingCreates() {
+		return backendMaxPendingCreates;
+	}
+
+	public void setBackendMaxPendingCreates(int backendMaxPendingCreates) {
+		this.backendMaxPendingCreates = backendMaxPendingCreates;
+	}
+
+	public int getBreakerFailureThreshold() {
+		return breakerFailureThreshold;
+	}
+
+	public void setBreakerFailureThreshold(int breakerFailureThreshold) {
+		this.breakerFailureThreshold = breakerFailureThreshold;
+	}
+
+	public long getBreakerOpenTime() {
+		return breakerOpenTime;
+	}
+
+	public void setBreakerOpenTime(long breakerOpenTime) {
+		this.breakerOpenTime = breakerOpenTime;
+	}
+
+	public long getBreakerSlowThreshold() {
+		return breakerSlowThreshold;
+	}
+
+	public void setBreakerSlowThreshold(long breakerSlowThreshold) {
+		this.breakerSlowThreshold = breakerSlowThreshold;
+	}
+
 	public int getFrontWriteQueueSize() {
 		return frontWriteQueueSize;
 	}
@@ -596,7 +697,16 @@ public final class SystemConfig {
 				+ ", processorBufferPool=" + processorBufferPool
 				+ ", processorBufferChunk=" + processorBufferChunk
 				+ ", defaultMaxLimit=" + defaultMaxLimit
+				+ ", mergeMemoryBudget=" + mergeMemoryBudget
+				+ ", backendAcquireTimeout=" + backendAcquireTimeout
+				+ ", backendMaxWaiters=" + backendMaxWaiters
+				+ ", backendMaxPendingCreates=" + backendMaxPendingCreates
+				+ ", breakerFailureThreshold=" + breakerFailureThreshold
+				+ ", breakerOpenTime=" + breakerOpenTime
+				+ ", breakerSlowThreshold=" + breakerSlowThreshold
 				+ ", sequnceHandlerType=" + sequnceHandlerType
+				+ ", sequencePrefetchRatio=" + sequencePrefetchRatio
+				+ ", sequenceMaxSegments=" + sequenceMaxSegments
 				+ ", sqlInterceptor=" + sqlInterceptor
 				+ ", sqlInterceptorType=" + sqlInterceptorType
 				+ ", sqlInterceptorFile=" + sqlInterceptorFile
@@ -41,6 +41,7 @@ import org.opencloudb.response.ShowDatasourceSynDetail;
 import org.opencloudb.response.ShowHeartbeat;
 import org.opencloudb.response.ShowHeartbeatDetail;
 import org.opencloudb.response.ShowHelp;
+import org.opencloudb.response.ShowMetrics;
 import org.opencloudb.response.ShowParser;
 import org.opencloudb.response.ShowProcessor;
 import org.opencloudb.response.ShowRouter;
@@ -130,6 +131,9 @@ public final class ShowHandler {
 		case ManagerParseShow.PROCESSOR:
 			ShowProcessor.execute(c);
 			break;
+		case ManagerParseShow.METRICS:
+			ShowMetrics.execute(c);
+			break;
 		case ManagerParseShow.ROUTER:
 			ShowRouter.execute(c);
 			break;
@@ -24,6 +24,7 @@
 package org.opencloudb.heartbeat;
 
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opencloudb.statistic.DataSourceSyncRecorder;
 import org.opencloudb.statistic.HeartbeatRecorder;
@@ -51,6 +52,8 @@ public abstract class DBHeartbeat {
 
 	private volatile Integer slaveBehindMaster;
 	private volatile int dbSynStatus = DB_SYN_NORMAL;
+	// 心跳状态/同步状态/主从延迟的变化次数, 读负载均衡据此判断是否重建候选列表
+	private final AtomicLong stateVersion = new AtomicLong();
 
 	public Integer getSlaveBehindMaster() {
 		return slaveBehindMaster;
@@ -61,17 +64,38 @@ public abstract class DBHeartbeat {
 	}
 
 	public void setDbSynStatus(int dbSynStatus) {
-		this.dbSynStatus = dbSynStatus;
+		if (this.dbSynStatus != dbSynStatus) {
+			this.dbSynStatus = dbSynStatus;
+			stateVersion.incrementAndGet();
+		}
 	}
 
 	public void setSlaveBehindMaster(Integer slaveBehindMaster) {
-		this.slaveBehindMaster = slaveBehindMaster;
+		Integer old = this.slaveBehindMaster;
+		if (old == null ? slaveBehindMaster != null : !old.equals(slaveBehindMaster)) {
+			this.slaveBehindMaster = slaveBehindMaster;
+			stateVersion.incrementAndGet();
+		}
 	}
 
 	public int getStatus() {
 		return status;
 	}
 
+	protected void setStatus(int status) {
+		if (this.status != status) {
+			this.status = status;
+			stateVersion.incrementAndGet();
+		}
+	}
+
+	/**
+	 * 只增不减, 先修改状态再递增
+	 */
+	public long getStateVersion() {
+		return stateVersion.get();
+	}
+
 	public boolean isChecking() {
 		return isChecking.get();
 	}
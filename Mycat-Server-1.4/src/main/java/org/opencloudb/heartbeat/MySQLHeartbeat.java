@@ -52,7 +52,7 @@ public class MySQLHeartbeat extends DBHeartbeat {
 		this.source = source;
 		this.lock = new ReentrantLock(false);
 		this.maxRetryCount = MAX_RETRY_COUNT;
-		this.status = INIT_STATUS;
+		setStatus(INIT_STATUS);
 		this.heartbeatSQL = source.getHostConfig().getHearbeatSQL();
 	}
 
@@ -87,7 +87,7 @@ public class MySQLHeartbeat extends DBHeartbeat {
 		lock.lock();
 		try {
 			isStop.compareAndSet(true, false);
-			super.status = DBHeartbeat.OK_STATUS;
+			setStatus(DBHeartbeat.OK_STATUS);
 		} finally {
 			lock.unlock();
 		}
@@ -171,7 +171,7 @@ public class MySQLHeartbeat extends DBHeartbeat {
 	private void setOk(MySQLDetector detector) {
 		switch (status) {
 		case DBHeartbeat.TIMEOUT_STATUS:
-			this.status = DBHeartbeat.INIT_STATUS;
+			setStatus(DBHeartbeat.INIT_STATUS);
 			this.errorCount = 0;
 			if (isStop.get()) {
 				detector.quit();
@@ -182,7 +182,7 @@ public class MySQLHeartbeat extends DBHeartbeat {
 		case DBHeartbeat.OK_STATUS:
 			break;
 		default:
-			this.status = OK_STATUS;
+			setStatus(OK_STATUS);
 			this.errorCount = 0;
 		}
 		if (isStop.get()) {
@@ -203,14 +203,14 @@ public class MySQLHeartbeat extends DBHeartbeat {
             if (detector != null ) {
                 detector.quit();
             }
-            this.status = ERROR_STATUS;
+            setStatus(ERROR_STATUS);
             this.errorCount = 0;
         }
 	}
 
 	private void setTimeout(MySQLDetector detector) {
 		this.isChecking.set(false);
-		status = DBHeartbeat.TIMEOUT_STATUS;
+		setStatus(DBHeartbeat.TIMEOUT_STATUS);
 	}
 
 	/**
@@ -90,6 +90,9 @@ public class JDBCConnection implements BackendConnection {
 			
 		} catch (SQLException e) {
 		}
+		if(pool!=null){
+		    pool.connectionClosed(this);
+		}
 
 	}
 
@@ -366,7 +369,9 @@ public class JDBCConnection implements BackendConnection {
 		Statement stmt = null;
 		try {
 			stmt = con.createStatement();
+			long start = System.nanoTime();
 			int count = stmt.executeUpdate(sql);
+			pool.onResponse(System.nanoTime() - start);
 			OkPacket okPck = new OkPacket();
 			okPck.affectedRows = count;
 			okPck.insertId = 0;
@@ -391,7 +396,9 @@ public class JDBCConnection implements BackendConnection {
 
 		try {
 			stmt = con.createStatement();
+			long start = System.nanoTime();
 			rs = stmt.executeQuery(sql);
+			pool.onResponse(System.nanoTime() - start);
 
 			List<FieldPacket> fieldPks = new LinkedList<FieldPacket>();
 			ResultSetUtil.resultSetToFieldPacket(sc.getCharset(), fieldPks, rs,
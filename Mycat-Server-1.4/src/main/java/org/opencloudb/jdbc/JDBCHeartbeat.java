@@ -25,7 +25,7 @@ public class JDBCHeartbeat extends DBHeartbeat{
 	{
 		this.source = source;
 		lock = new ReentrantLock(false);
-		this.status = INIT_STATUS;
+		setStatus(INIT_STATUS);
 		this.heartbeatSQL = source.getHostConfig().getHearbeatSQL().trim();
 		this.heartbeatnull= heartbeatSQL.length()==0;
 	}
@@ -41,7 +41,7 @@ public class JDBCHeartbeat extends DBHeartbeat{
 		try
 		{
 			isStop.compareAndSet(true, false);
-			this.status = DBHeartbeat.OK_STATUS;
+			setStatus(DBHeartbeat.OK_STATUS);
 		} finally
 		{
 			lock.unlock();
@@ -102,7 +102,7 @@ public class JDBCHeartbeat extends DBHeartbeat{
 					s.execute(heartbeatSQL);
 				}
 			}
-			status = OK_STATUS;
+			setStatus(OK_STATUS);
 			if(logger.isDebugEnabled()){
 			    logger.debug("JDBCHeartBeat con query sql: "+heartbeatSQL);
 			}
@@ -110,7 +110,7 @@ public class JDBCHeartbeat extends DBHeartbeat{
 		} catch (Exception ex)
 		{
 		    logger.error("JDBCHeartBeat error",ex);
-			status = ERROR_STATUS;
+			setStatus(ERROR_STATUS);
 		} finally
 		{
 			lock.unlock();
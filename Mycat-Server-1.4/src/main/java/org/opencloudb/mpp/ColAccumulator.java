@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.mpp;
+
+import java.math.BigDecimal;
+
+import org.opencloudb.util.ByteUtil;
+import org.opencloudb.util.LongUtil;
+
+/**
+ * typed accumulator of one merge column in one group. the value is decoded
+ * from MySQL text only when the second row of the group arrives, updated in
+ * place for every following row, and encoded back to text once in
+ * {@link #getResult()}
+ * 
+ * @see RowDataPacketGrouper
+ */
+public abstract class ColAccumulator {
+
+	protected final int mergeType;
+	private byte[] first;
+	private boolean decoded;
+
+	protected ColAccumulator(int mergeType, byte[] first) {
+		this.mergeType = mergeType;
+		this.first = first;
+	}
+
+	/**
+	 * choose accumulator by merge type and column type
+	 * 
+	 * @param first
+	 *            value of the first row in the group
+	 */
+	public static ColAccumulator create(MergeCol mergeCol, byte[] first) {
+		int mergeType = mergeCol.mergeType;
+		int colType = mergeCol.colMeta.colType;
+		if (mergeType == MergeCol.MERGE_COUNT) {
+			return new LongAccumulator(mergeType, first);
+		}
+		switch (colType) {
+		case ColMeta.COL_TYPE_INT:
+		case ColMeta.COL_TYPE_SHORT:
+		case ColMeta.COL_TYPE_LONG:
+		case ColMeta.COL_TYPE_LONGLONG:
+		case ColMeta.COL_TYPE_INT24:
+			return new LongAccumulator(mergeType, first);
+		case ColMeta.COL_TYPE_FLOAT:
+		case ColMeta.COL_TYPE_DOUBLE:
+			return new DoubleAccumulator(mergeType, first);
+		case ColMeta.COL_TYPE_DECIMAL:
+		case ColMeta.COL_TYPE_NEWDECIMAL:
+			return new DecimalAccumulator(mergeType, first);
+		default:
+			if (mergeType == MergeCol.MERGE_SUM) {
+				return new DecimalAccumulator(mergeType, first);
+			}
+			// dates and strings, compared as text like before
+			return new BytesAccumulator(mergeType, first);
+		}
+	}
+
+	/**
+	 * merge the column value of a new row, null or empty values are ignored
+	 */
+	public void merge(byte[] value) {
+		if (value == null || value.length == 0) {
+			return;
+		}
+		if (!decoded) {
+			if (first == null || first.length == 0) {
+				first = value;
+				return;
+			}
+			decoded = true;
+			init(first);
+			first = null;
+		}
+		add(value);
+	}
+
+	/**
+	 * @return merged value as MySQL text
+	 */
+	public byte[] getResult() {
+		return decoded ? encode() : first;
+	}
+
+	protected abstract void init(byte[] value);
+
+	protected abstract void add(byte[] value);
+
+	protected abstract byte[] encode();
+
+	/**
+	 * parse ascii digits without creating a String, fall back to
+	 * Long.parseLong for anything unusual
+	 * 
+	 * @throws NumberFormatException
+	 *             if the value does not fit in long
+	 */
+	static long parseLong(byte[] bytes) {
+		int len = bytes.length;
+		int i = 0;
+		boolean negative = false;
+		if (bytes[0] == '-' || bytes[0] == '+') {
+			negative = bytes[0] == '-';
+			i = 1;
+		}
+		if (len - i == 0 || len - i > 18) {
+			return Long.parseLong(new String(bytes));
+		}
+		long v = 0;
+		for (; i < len; i++) {
+			int d = bytes[i] - '0';
+			if (d < 0 || d > 9) {
+				return Long.parseLong(new String(bytes));
+			}
+			v = v * 10 + d;
+		}
+		return negative ? -v : v;
+	}
+
+	static BigDecimal parseDecimal(byte[] bytes) {
+		char[] chars = new char[bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i] = (char) bytes[i];
+		}
+		return new BigDecimal(chars);
+	}
+
+	static class LongAccumulator extends ColAccumulator {
+		private long value;
+		// only used after a value does not fit in long (BIGINT UNSIGNED) or
+		// a sum overflows
+		private BigDecimal big;
+
+		LongAccumulator(int mergeType, byte[] first) {
+			super(mergeType, first);
+		}
+
+		@Override
+		protected void init(byte[] bytes) {
+			try {
+				value = parseLong(bytes);
+			} catch (NumberFormatException e) {
+				big = parseDecimal(bytes);
+			}
+		}
+
+		@Override
+		protected void add(byte[] bytes) {
+			if (big != null) {
+				addBig(parseDecimal(bytes));
+				return;
+			}
+			long v;
+			try {
+				v = parseLong(bytes);
+			} catch (NumberFormatException e) {
+				big = BigDecimal.valueOf(value);
+				addBig(parseDecimal(bytes));
+				return;
+			}
+			switch (mergeType) {
+			case MergeCol.MERGE_MAX:
+				value = Math.max(value, v);
+				break;
+			case MergeCol.MERGE_MIN:
+				value = Math.min(value, v);
+				break;
+			default:
+				long r = value + v;
+				if (((value ^ r) & (v ^ r)) < 0) {
+					big = BigDecimal.valueOf(value).add(BigDecimal.valueOf(v));
+				} else {
+					value = r;
+				}
+			}
+		}
+
+		private void addBig(BigDecimal v) {
+			switch (mergeType) {
+			case MergeCol.MERGE_MAX:
+				if (v.compareTo(big) > 0) {
+					big = v;
+				}
+				break;
+			case MergeCol.MERGE_MIN:
+				if (v.compareTo(big) < 0) {
+					big = v;
+				}
+				break;
+			default:
+				big = big.add(v);
+			}
+		}
+
+		@Override
+		protected byte[] encode() {
+			if (big != null) {
+				return big.toPlainString().getBytes();
+			}
+			return LongUtil.toBytes(value);
+		}
+	}
+
+	static class DoubleAccumulator extends ColAccumulator {
+		private double value;
+
+		DoubleAccumulator(int mergeType, byte[] first) {
+			super(mergeType, first);
+		}
+
+		@Override
+		protected void init(byte[] bytes) {
+			value = ByteUtil.getDouble(bytes);
+		}
+
+		@Override
+		protected void add(byte[] bytes) {
+			double v = ByteUtil.getDouble(bytes);
+			switch (mergeType) {
+			case MergeCol.MERGE_MAX:
+				value = Math.max(value, v);
+				break;
+			case MergeCol.MERGE_MIN:
+				value = Math.min(value, v);
+				break;
+			default:
+				value += v;
+			}
+		}
+
+		@Override
+		protected byte[] encode() {
+			return Double.toString(value).getBytes();
+		}
+	}
+
+	static class DecimalAccumulator extends ColAccumulator {
+		private BigDecimal value;
+
+		DecimalAccumulator(int mergeType, byte[] first) {
+			super(mergeType, first);
+		}
+
+		@Override
+		protected void init(byte[] bytes) {
+			value = parseDecimal(bytes);
+		}
+
+		@Override
+		protected void add(byte[] bytes) {
+			BigDecimal v = parseDecimal(bytes);
+			switch (mergeType) {
+			case MergeCol.MERGE_MAX:
+				if (v.compareTo(value) > 0) {
+					value = v;
+				}
+				break;
+			case MergeCol.MERGE_MIN:
+				if (v.compareTo(value) < 0) {
+					value = v;
+				}
+				break;
+			default:
+				value = value.add(v);
+			}
+		}
+
+		@Override
+		protected byte[] encode() {
+			return value.toPlainString().getBytes();
+		}
+	}
+
+	/**
+	 * MIN/MAX of non numeric columns, keeps the winning bytes
+	 */
+	static class BytesAccumulator extends ColAccumulator {
+		private byte[] value;
+
+		BytesAccumulator(int mergeType, byte[] first) {
+			super(mergeType, first);
+		}
+
+		@Override
+		protected void init(byte[] bytes) {
+			value = bytes;
+		}
+
+		@Override
+		protected void add(byte[] bytes) {
+			int compare = ByteUtil.compareNumberByte(value, bytes);
+			if (mergeType == MergeCol.MERGE_MAX ? compare < 0 : compare > 0) {
+				value = bytes;
+			}
+		}
+
+		@Override
+		protected byte[] encode() {
+			return value;
+		}
+	}
+}
@@ -25,25 +25,32 @@ package org.opencloudb.mpp;
  */
 
 import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.opencloudb.MycatServer;
+import org.opencloudb.backend.BackendConnection;
 import org.opencloudb.mpp.tmp.RowDataSorter;
 import org.opencloudb.mysql.BufferUtil;
+import org.opencloudb.mysql.nio.MySQLConnection;
 import org.opencloudb.mysql.nio.handler.MultiNodeQueryHandler;
 import org.opencloudb.net.mysql.EOFPacket;
 import org.opencloudb.net.mysql.RowDataPacket;
 import org.opencloudb.route.RouteResultset;
+import org.opencloudb.route.RouteResultsetNode;
 import org.opencloudb.server.NonBlockingSession;
 import org.opencloudb.server.ServerConnection;
 import org.opencloudb.util.StringUtil;
@@ -60,14 +67,49 @@ public class DataMergeService implements Runnable {
 	class PackWraper {
 		public byte[] data;
 		public String node;
+		public ConnFlow flow;
 
 	}
 
+	/**
+	 * rows of a backend connection not yet consumed by the merge, reading
+	 * from the connection is paused while there are too many, so packs stays
+	 * bounded when the merge falls behind, e.g. while spilling or while the
+	 * merge output waits for the write queue of the client
+	 */
+	static final class ConnFlow {
+		final MySQLConnection conn;
+		final AtomicInteger pending = new AtomicInteger();
+		final AtomicBoolean paused = new AtomicBoolean();
+
+		ConnFlow(MySQLConnection conn) {
+			this.conn = conn;
+		}
+
+		void resume() {
+			if (paused.compareAndSet(true, false)) {
+				conn.resumeRead(MySQLConnection.READ_PAUSE_MERGE_QUEUE);
+			}
+		}
+	}
+
+	// rows buffered for one connection before reading from it is paused
+	static final int MAX_PENDING_ROWS = 2048;
+
+	// order by ... limit with at most so many rows (offset+size) is sorted
+	// in a bounded heap, larger results are streamed
+	private static final int TOP_N_MAX_ROWS = 10000;
+
 	private int fieldCount;
 	private RouteResultset rrs;
 	private RowDataSorter sorter;
 	private RowDataPacketGrouper grouper;
+	// order by without group, rows are merged and output while reading
+	private volatile StreamMergeSorter streamSorter;
 	private volatile boolean hasOrderBy = false;
+	private volatile boolean closed = false;
+	// every data node is routed once, its rows are sorted as a whole
+	private boolean distinctNodes;
 	private MultiNodeQueryHandler multiQueryHandler;
 	public PackWraper END_FLAG_PACK = new PackWraper();
 	private AtomicInteger areadyAdd = new AtomicInteger();
@@ -75,6 +117,7 @@ public class DataMergeService implements Runnable {
 	private static Logger LOGGER = Logger.getLogger(DataMergeService.class);
 	private BlockingQueue<PackWraper> packs = new LinkedBlockingQueue<PackWraper>();
 	private ConcurrentHashMap<String, Boolean> canDiscard = new ConcurrentHashMap<String, Boolean>();
+	private final ConcurrentHashMap<BackendConnection, ConnFlow> flows = new ConcurrentHashMap<BackendConnection, ConnFlow>();
 
 	public DataMergeService(MultiNodeQueryHandler handler, RouteResultset rrs) {
 		this.rrs = rrs;
@@ -95,6 +138,8 @@ public class DataMergeService implements Runnable {
 		}
 		int[] groupColumnIndexs = null;
 		this.fieldCount = fieldCount;
+		long memoryBudget = MycatServer.getInstance().getConfig().getSystem()
+				.getMergeMemoryBudget();
 		if (rrs.getGroupByCols() != null) {
 			groupColumnIndexs = toColumnIndex(rrs.getGroupByCols(), columToIndx);
 		}
@@ -144,6 +189,7 @@ public class DataMergeService implements Runnable {
 			grouper = new RowDataPacketGrouper(groupColumnIndexs,
 					mergCols.toArray(new MergeCol[mergCols.size()]),
 					rrs.getHavingCols());
+			grouper.setMemoryBudget(memoryBudget);
 		}
 		if (rrs.getOrderByCols() != null) {
 			LinkedHashMap<String, Integer> orders = rrs.getOrderByCols();
@@ -160,11 +206,28 @@ public class DataMergeService implements Runnable {
 				}
 				orderCols[i++] = new OrderCol(colMeta, entry.getValue());
 			}
-			// sorter = new RowDataPacketSorter(orderCols);
-			RowDataSorter tmp = new RowDataSorter(orderCols);
-			tmp.setLimit(rrs.getLimitStart(), rrs.getLimitSize());
 			hasOrderBy = true;
-			sorter = tmp;
+			String[] dataNodes = getDistinctDataNodes();
+			distinctNodes = dataNodes != null;
+			int limitSize = rrs.getLimitSize();
+			boolean topN = limitSize >= 0
+					&& Math.max(0, rrs.getLimitStart()) + (long) limitSize <= TOP_N_MAX_ROWS;
+			if (grouper == null && distinctNodes && !topN) {
+				streamSorter = new StreamMergeSorter(orderCols, dataNodes);
+			} else {
+				// sorter = new RowDataPacketSorter(orderCols);
+				RowDataSorter tmp = new RowDataSorter(orderCols);
+				tmp.setLimit(rrs.getLimitStart(), rrs.getLimitSize());
+				if (grouper != null && memoryBudget > 0) {
+					// group by 和 order by 同时存在时两者平分每个查询的内存上限
+					long groupBudget = Math.max(1, memoryBudget / 2);
+					grouper.setMemoryBudget(groupBudget);
+					tmp.setMemoryBudget(Math.max(1, memoryBudget - groupBudget));
+				} else {
+					tmp.setMemoryBudget(memoryBudget);
+				}
+				sorter = tmp;
+			}
 		} else {
 			hasOrderBy = false;
 		}
@@ -172,16 +235,19 @@ public class DataMergeService implements Runnable {
 	}
 
 	/**
-	 * process new record (mysql binary data),if data can output to client
-	 * ,return true
+	 * process new record (mysql binary data), return true if the rows of the
+	 * data node are not needed any more, the caller can then cancel the query
+	 * on the node
 	 * 
 	 * @param dataNode
 	 *            DN's name (data from this dataNode)
 	 * @param rowData
 	 *            raw data
 	 * @param conn
+	 *            the connection of the rows, paused if the merge falls behind
 	 */
-	public boolean onNewRecord(String dataNode, byte[] rowData) {
+	public boolean onNewRecord(String dataNode, byte[] rowData,
+			BackendConnection conn) {
 		// 对于无需排序的SQL,取前getLimitSize条就足够
         //可能有聚合函数等场景会误判，所有先注释
 //		if (!hasOrderBy && areadyAdd.get() >= rrs.getLimitSize()&& rrs.getLimitSize()!=-1) {
@@ -189,22 +255,106 @@ public class DataMergeService implements Runnable {
 //		}
 		// 对于需要排序的数据,由于mysql传递过来的数据是有序的,
 		// 如果某个节点的当前数据已经不会进入,后续的数据也不会入堆
-		if (canDiscard.size() == rrs.getNodes().length) {
-			LOGGER.error("now we output to client");
-			packs.add(END_FLAG_PACK);
-			return true;
-		}
+		// 结果在所有节点结束后输出, 被丢弃节点的查询由调用者取消
 		if (canDiscard.get(dataNode) != null) {
 			return true;
 		}
 		PackWraper data = new PackWraper();
 		data.node = dataNode;
 		data.data = rowData;
+		data.flow = getFlow(conn);
 		packs.add(data);
 		areadyAdd.getAndIncrement();
+		if (data.flow != null) {
+			checkPending(data.flow);
+		}
 		return false;
 	}
 
+	/**
+	 * called under the lock of the query handler, pending is counted before
+	 * the row is queued
+	 */
+	private ConnFlow getFlow(BackendConnection conn) {
+		if (!(conn instanceof MySQLConnection)) {
+			return null;
+		}
+		ConnFlow flow = flows.get(conn);
+		if (flow == null) {
+			flow = new ConnFlow((MySQLConnection) conn);
+			flows.put(conn, flow);
+		}
+		flow.pending.incrementAndGet();
+		return flow;
+	}
+
+	private static void checkPending(ConnFlow flow) {
+		if (flow.pending.get() > MAX_PENDING_ROWS
+				&& flow.paused.compareAndSet(false, true)) {
+			flow.conn.pauseRead(MySQLConnection.READ_PAUSE_MERGE_QUEUE);
+			// the merge may have drained the rows meanwhile
+			if (flow.pending.get() <= MAX_PENDING_ROWS / 2) {
+				flow.resume();
+			}
+		}
+	}
+
+	/**
+	 * the merge consumed a row of the connection
+	 */
+	private static void consumed(ConnFlow flow) {
+		if (flow != null && flow.pending.decrementAndGet() <= MAX_PENDING_ROWS / 2) {
+			flow.resume();
+		}
+	}
+
+	/**
+	 * let every paused connection go on, its rows are discarded or the merge
+	 * ends
+	 */
+	private void resumeAll() {
+		for (ConnFlow flow : flows.values()) {
+			flow.resume();
+		}
+	}
+
+	/**
+	 * the rows of a data node are finished, only needed by the stream merge
+	 * to know that no smaller row can come from the node
+	 * 
+	 * @param dataNode
+	 *            DN's name
+	 * @param conn
+	 *            the connection goes back to the pool, it must not be
+	 *            resumed by the merge any more
+	 */
+	public void onNodeEof(String dataNode, BackendConnection conn) {
+		ConnFlow flow = flows.remove(conn);
+		if (flow != null) {
+			flow.paused.set(false);
+		}
+		if (streamSorter != null) {
+			PackWraper data = new PackWraper();
+			data.node = dataNode;
+			packs.add(data);
+		}
+	}
+
+	/**
+	 * @return data node names, or null if a data node is routed more than
+	 *         once, then the rows of one node are not sorted as a whole
+	 */
+	private String[] getDistinctDataNodes() {
+		RouteResultsetNode[] nodes = rrs.getNodes();
+		Set<String> names = new HashSet<String>(nodes.length);
+		for (RouteResultsetNode node : nodes) {
+			if (!names.add(node.getName())) {
+				return null;
+			}
+		}
+		return names.toArray(new String[names.size()]);
+	}
+
 	private static int[] toColumnIndex(String[] columns,
 			Map<String, ColMeta> toIndexMap) {
 		int[] result = new int[columns.length];
@@ -225,10 +375,13 @@ public class DataMergeService implements Runnable {
 	 * release resources
 	 */
 	public void clear() {
+		closed = true;
 		result.clear();
 		hasOrderBy = false;
 		grouper = null;
 		sorter = null;
+		// wake up the merge thread if it still waits for rows
+		packs.add(END_FLAG_PACK);
 	}
 
 	@Override
@@ -243,6 +396,10 @@ public class DataMergeService implements Runnable {
 		BufferUtil.writeUB2(eof, warningCount);
 		BufferUtil.writeUB2(eof, eofp.status);
 		ServerConnection source = multiQueryHandler.getSession().getSource();
+		if (streamSorter != null) {
+			new StreamMerge(source, eof.array()).run();
+			return;
+		}
 
 		while (!Thread.interrupted()) {
 			try {
@@ -250,12 +407,17 @@ public class DataMergeService implements Runnable {
 				if (pack == END_FLAG_PACK) {
 					break;
 				}
+				// the row is copied into the grouper or sorter, which spill
+				// within the memory budget
+				consumed(pack.flow);
 				RowDataPacket row = new RowDataPacket(fieldCount);
 				row.read(pack.data);
 				if (grouper != null) {
 					grouper.addRow(row);
 				} else if (sorter != null) {
-					if (!sorter.addRow(row)) {
+					// rows of the node after this one can not be in the top
+					// n either
+					if (!sorter.addRow(row) && distinctNodes) {
 						canDiscard.put(pack.node, true);
 					}
 				} else {
@@ -265,31 +427,171 @@ public class DataMergeService implements Runnable {
 				LOGGER.error("Merge multi data error", e);
 			}
 		}
+		// the merge output owns the spilled files until it is done, grouper
+		// and sorter are cleared by the other threads
+		final RowDataPacketGrouper tmpGrouper = grouper;
+		final RowDataSorter tmpSorter = sorter;
+		Runnable done = new Runnable() {
+			@Override
+			public void run() {
+				if (tmpGrouper != null) {
+					tmpGrouper.close();
+				}
+				if (tmpSorter != null) {
+					tmpSorter.close();
+				}
+			}
+		};
+		if (closed) {
+			done.run();
+			return;
+		}
+		Iterator<RowDataPacket> results;
 		byte[] array = eof.array();
-		multiQueryHandler.outputMergeResult(source, array, getResults(array));
+		try {
+			results = getResults(array);
+		} catch (RuntimeException e) {
+			done.run();
+			throw e;
+		}
+		multiQueryHandler.outputMergeResult(source, array, results, done);
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * output rows of the k-way merge as soon as they are known, limit is
+	 * applied here, after that the rest rows of every node are discarded.
+	 * the merge stops while the write queue of the client is full and goes on
+	 * when it is available again, the backend reads are paused meanwhile by
+	 * {@link ConnFlow}
+	 */
+	private final class StreamMerge implements Runnable {
+		private final ServerConnection source;
+		private final byte[] eof;
+		private final StreamMergeSorter merger = streamSorter;
+		// every node is routed once, its rows come from one connection
+		private final Map<String, ConnFlow> nodeFlows = new HashMap<String, ConnFlow>();
+		private int skip = Math.max(0, rrs.getLimitStart());
+		private int remain = rrs.getLimitSize();
+		private ByteBuffer buffer;
+
+		StreamMerge(ServerConnection source, byte[] eof) {
+			this.source = source;
+			this.eof = eof;
+		}
+
+		@Override
+		public void run() {
+			try {
+				// rows merged before waiting for the write queue
+				if (!output()) {
+					return;
+				}
+				while (!closed && !Thread.interrupted()) {
+					PackWraper pack = packs.poll();
+					if (pack == null) {
+						// no more rows now, send what we have to the client
+						flush();
+						pack = packs.take();
+					}
+					if (pack == END_FLAG_PACK) {
+						break;
+					}
+					if (remain == 0) {
+						continue;
+					}
+					if (pack.data == null) {
+						merger.nodeEnd(pack.node);
+					} else {
+						RowDataPacket row = new RowDataPacket(fieldCount);
+						row.read(pack.data);
+						merger.addRow(pack.node, row);
+						if (pack.flow != null) {
+							nodeFlows.put(pack.node, pack.flow);
+						}
+					}
+					if (!output()) {
+						return;
+					}
+				}
+			} catch (Exception e) {
+				LOGGER.error("Merge multi data error", e);
+				resumeAll();
+			}
+			if (closed) {
+				if (buffer != null) {
+					source.recycle(buffer);
+					buffer = null;
+				}
+				return;
+			}
+			multiQueryHandler.outputStreamMergeEnd(source, eof, buffer);
+		}
+
+		/**
+		 * write the rows known by the merger
+		 * 
+		 * @return false if the merge waits for the write queue
+		 */
+		private boolean output() {
+			if (closed || source.isClosed()) {
+				return true;
+			}
+			RowDataPacket row;
+			while (remain != 0 && (row = merger.next()) != null) {
+				consumed(nodeFlows.get(merger.getLastNode()));
+				if (skip > 0) {
+					skip--;
+					continue;
+				}
+				buffer = multiQueryHandler.writeMergedRow(source, row.value,
+						buffer);
+				if (remain > 0 && --remain == 0) {
+					for (RouteResultsetNode node : rrs.getNodes()) {
+						canDiscard.put(node.getName(), true);
+					}
+					// the rest rows are read and the queries cancelled
+					resumeAll();
+				}
+				if (remain != 0 && source.isWriteQueueFull()) {
+					flush();
+					multiQueryHandler.getSession().waitWriteQueue(this);
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void flush() {
+			if (buffer != null) {
+				source.write(buffer);
+				buffer = null;
+			}
+		}
 	}
 
 	/**
-	 * return merged data
+	 * return merged data, read from the spilled files while iterating if
+	 * the rows did not fit in the memory budget
 	 * 
 	 * @return (最多i*(offset+size)行数据)
 	 */
-	private List<RowDataPacket> getResults(byte[] eof) {
-		List<RowDataPacket> tmpResult = result;
+	private Iterator<RowDataPacket> getResults(byte[] eof) {
+		Iterator<RowDataPacket> tmpResult = result.iterator();
 		if (this.grouper != null) {
-			tmpResult = grouper.getResult();
+			tmpResult = grouper.getResultIterator();
 			grouper = null;
 		}
 		if (sorter != null) {
 			// 处理grouper处理后的数据
-			if (tmpResult != null) {
-				Iterator<RowDataPacket> itor = tmpResult.iterator();
-				while (itor.hasNext()) {
-					sorter.addRow(itor.next());
-					itor.remove();
-				}
+			while (tmpResult.hasNext()) {
+				sorter.addRow(tmpResult.next());
 			}
-			tmpResult = sorter.getSortedResult();
+			result.clear();
+			tmpResult = sorter.getSortedIterator();
 			sorter = null;
 		}
 		if (LOGGER.isDebugEnabled()) {
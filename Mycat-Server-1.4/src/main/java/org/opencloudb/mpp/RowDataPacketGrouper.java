@@ -23,30 +23,57 @@
  */
 package org.opencloudb.mpp;
 
+import org.apache.log4j.Logger;
+import org.opencloudb.mpp.tmp.RowRunFile;
+import org.opencloudb.mpp.tmp.RowRunMerger;
 import org.opencloudb.net.mysql.RowDataPacket;
 import org.opencloudb.util.ByteUtil;
-import org.opencloudb.util.LongUtil;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * implement group function select a,count(*),sum(*) from A group by a
  * 
+ * rows are grouped by a hash map keyed on the raw bytes of the group columns,
+ * so merging costs O(1) per row instead of a scan over all existing groups.
+ * aggregate columns are merged by typed {@link ColAccumulator}s and encoded
+ * to text once in getResult. only called from the merge thread of
+ * DataMergeService
+ * 
+ * when the groups take more than the memory budget they are sorted by group
+ * key and spilled to a {@link RowRunFile}, the runs are merged back and the
+ * equal groups aggregated again by {@link #getResultIterator()}
+ * 
  * @author wuzhih
  * 
  */
 public class RowDataPacketGrouper {
 
-	private List<RowDataPacket> result = Collections.synchronizedList(new ArrayList<RowDataPacket>());
+	private static final Logger LOGGER = Logger
+			.getLogger(RowDataPacketGrouper.class);
+
+	private final Map<GroupKey, GroupRow> groups = new LinkedHashMap<GroupKey, GroupRow>();
+	private List<RowDataPacket> result;
 	private final MergeCol[] mergCols;
 	private final int[] groupColumnIndexs;
 	private boolean isMergAvg=false;
 	private HavingCols havingCols;
+	// bytes, <= 0 means never spill
+	private long memoryBudget = -1;
+	private long memoryUsed;
+	private RowRunFile runFile;
 
 	public RowDataPacketGrouper(int[] groupColumnIndexs, MergeCol[] mergCols,HavingCols havingCols) {
 		super();
@@ -55,13 +82,28 @@ public class RowDataPacketGrouper {
 		this.havingCols = havingCols;
 	}
 
+	/**
+	 * spill the groups to disk when they take more than so many bytes
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @return all groups in memory, use {@link #getResultIterator()} when
+	 *         groups may have been spilled
+	 */
 	public List<RowDataPacket> getResult() {
 		if(!isMergAvg)
 		{
-			for (RowDataPacket row : result)
+			result = new ArrayList<RowDataPacket>(groups.size());
+			for (GroupRow group : groups.values())
 			{
-				mergAvg(row);
+				group.flush();
+				mergAvg(group.row);
+				result.add(group.row);
 			}
+			groups.clear();
 			isMergAvg=true;
 		}
 
@@ -76,48 +118,46 @@ public class RowDataPacketGrouper {
 		if (havingCols.getColMeta() == null || result == null) {
 			return;
 		}
-		Iterator<RowDataPacket> it = result.iterator();
 		byte[] right = havingCols.getRight().getBytes(
 				StandardCharsets.UTF_8);
 		int index = havingCols.getColMeta().getColIndex();
-		while (it.hasNext()){
-			RowDataPacket rowDataPacket = it.next();
-			switch (havingCols.getOperator()) {
-			case "=":
-				if (eq(rowDataPacket.fieldValues.get(index),right)) {
-					it.remove();
-				}
-				break;
-			case ">":
-				if (gt(rowDataPacket.fieldValues.get(index),right)) {
-					it.remove();
-				}
-				break;
-			case "<":
-				if (lt(rowDataPacket.fieldValues.get(index),right)) {
-					it.remove();
-				}
-				break;
-			case ">=":
-				if (gt(rowDataPacket.fieldValues.get(index),right) && eq(rowDataPacket.fieldValues.get(index),right)) {
-					it.remove();
-				}
-				break;
-			case "<=":
-				if (lt(rowDataPacket.fieldValues.get(index),right) && eq(rowDataPacket.fieldValues.get(index),right)) {
-					it.remove();
-				}
-				break;
-			case "!=":
-				if (neq(rowDataPacket.fieldValues.get(index),right)) {
-					it.remove();
-				}
-				break;
+		// copy the kept rows instead of ArrayList.remove, which is O(n) per row
+		List<RowDataPacket> kept = new ArrayList<RowDataPacket>(result.size());
+		for (RowDataPacket rowDataPacket : result) {
+			if (!isFiltered(rowDataPacket, right, index)) {
+				kept.add(rowDataPacket);
 			}
 		}
+		result = kept;
 
 	}
 
+	private boolean isFiltered(RowDataPacket row, byte[] right, int index) {
+		byte[] left = row.fieldValues.get(index);
+		boolean remove = false;
+		switch (havingCols.getOperator()) {
+		case "=":
+			remove = eq(left, right);
+			break;
+		case ">":
+			remove = gt(left, right);
+			break;
+		case "<":
+			remove = lt(left, right);
+			break;
+		case ">=":
+			remove = gt(left, right) && eq(left, right);
+			break;
+		case "<=":
+			remove = lt(left, right) && eq(left, right);
+			break;
+		case "!=":
+			remove = neq(left, right);
+			break;
+		}
+		return remove;
+	}
+
 	private boolean lt(byte[] l, byte[] r) {
 		return -1 != ByteUtil.compareNumberByte(l, r);
 	}
@@ -135,40 +175,246 @@ public class RowDataPacketGrouper {
 	}
 
 	public void addRow(RowDataPacket rowDataPkg) {
-		for (RowDataPacket row : result) {
-			if (sameGropuColums(rowDataPkg, row)) {
-				aggregateRow(row, rowDataPkg);
-				return;
-			}
+		GroupKey key = new GroupKey(rowDataPkg, groupColumnIndexs);
+		GroupRow group = groups.get(key);
+		if (group != null) {
+			group.aggregate(rowDataPkg);
+			return;
 		}
 
 		// not aggreated ,insert new
-		result.add(rowDataPkg);
+		groups.put(key, new GroupRow(rowDataPkg));
+		if (memoryBudget > 0) {
+			memoryUsed += RowRunFile.estimateSize(rowDataPkg);
+			if (memoryUsed > memoryBudget) {
+				spill();
+			}
+		}
+	}
 
+	/**
+	 * write the groups in memory as a run sorted by group key, the values are
+	 * partial aggregates and are merged again when the runs are read back
+	 */
+	private void spill() {
+		try {
+			if (runFile == null) {
+				runFile = new RowRunFile();
+			}
+			runFile.writeRun(sortedGroups());
+			memoryUsed = 0;
+		} catch (IOException e) {
+			LOGGER.error("spill groups error, keep them in memory", e);
+			memoryBudget = -1;
+		}
 	}
 
-	private void aggregateRow(RowDataPacket toRow, RowDataPacket newRow) {
-		if (mergCols == null) {
-			return;
+	// flush and remove the groups in memory ordered by group key
+	private Iterator<RowDataPacket> sortedGroups() {
+		List<Map.Entry<GroupKey, GroupRow>> entries = new ArrayList<Map.Entry<GroupKey, GroupRow>>(
+				groups.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<GroupKey, GroupRow>>() {
+			@Override
+			public int compare(Map.Entry<GroupKey, GroupRow> o1,
+					Map.Entry<GroupKey, GroupRow> o2) {
+				return GroupKey.compare(o1.getKey(), o2.getKey());
+			}
+		});
+		List<RowDataPacket> rows = new ArrayList<RowDataPacket>(entries.size());
+		for (Map.Entry<GroupKey, GroupRow> entry : entries) {
+			entry.getValue().flush();
+			rows.add(entry.getValue().row);
 		}
-		for (MergeCol merg : mergCols) {
-             if(merg.mergeType!=MergeCol.MERGE_AVG)
-             {
-                 byte[] result = mertFields(
-                         toRow.fieldValues.get(merg.colMeta.colIndex),
-                         newRow.fieldValues.get(merg.colMeta.colIndex),
-                         merg.colMeta.colType, merg.mergeType);
-                 if (result != null)
-                 {
-                     toRow.fieldValues.set(merg.colMeta.colIndex, result);
-                 }
-             }
+		groups.clear();
+		return rows.iterator();
+	}
+
+	/**
+	 * @return the merged groups, read from the spilled runs one at a time if
+	 *         the groups did not fit in the memory budget
+	 */
+	public Iterator<RowDataPacket> getResultIterator() {
+		if (runFile == null) {
+			return getResult().iterator();
+		}
+		RowRunFile.RunMerge merge = new RowRunFile.RunMerge() {
+			@Override
+			public Iterator<RowDataPacket> merge(
+					List<Iterator<RowDataPacket>> sources) {
+				// equal groups stay separate rows until the final merge
+				return newMerger(sources);
+			}
+		};
+		List<Iterator<RowDataPacket>> sources;
+		try {
+			sources = runFile.openRuns(merge, 1);
+		} catch (IOException e) {
+			throw new IllegalStateException("merge spilled runs error", e);
+		}
+		sources.add(sortedGroups());
+		memoryUsed = 0;
+		return new SpilledGroupIterator(newMerger(sources));
+	}
+
+	private Iterator<RowDataPacket> newMerger(
+			List<Iterator<RowDataPacket>> sources) {
+		return new RowRunMerger<GroupKey>(sources) {
+			@Override
+			protected GroupKey key(RowDataPacket row) {
+				return new GroupKey(row, groupColumnIndexs);
+			}
+
+			@Override
+			protected int compareKey(GroupKey l, GroupKey r) {
+				return GroupKey.compare(l, r);
+			}
+		};
+	}
+
+	/**
+	 * delete the spilled runs
+	 */
+	public void close() {
+		if (runFile != null) {
+			runFile.close();
+			runFile = null;
+		}
+	}
+
+	/**
+	 * aggregates the rows of equal group keys coming together from the merged
+	 * runs, then computes avg and applies having
+	 */
+	private final class SpilledGroupIterator implements Iterator<RowDataPacket> {
+		private final Iterator<RowDataPacket> merged;
+		private final byte[] right;
+		private final int havingIndex;
+		private RowDataPacket pending;
+		private GroupKey pendingKey;
+		private RowDataPacket next;
+
+		SpilledGroupIterator(Iterator<RowDataPacket> merged) {
+			this.merged = merged;
+			if (havingCols != null && havingCols.getColMeta() != null) {
+				right = havingCols.getRight().getBytes(StandardCharsets.UTF_8);
+				havingIndex = havingCols.getColMeta().getColIndex();
+			} else {
+				right = null;
+				havingIndex = -1;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null) {
+				RowDataPacket row = nextGroup();
+				if (row == null) {
+					return false;
+				}
+				mergAvg(row);
+				if (right == null || !isFiltered(row, right, havingIndex)) {
+					next = row;
+				}
+			}
+			return true;
+		}
+
+		private RowDataPacket nextGroup() {
+			if (pending == null) {
+				if (!merged.hasNext()) {
+					return null;
+				}
+				pending = merged.next();
+				pendingKey = new GroupKey(pending, groupColumnIndexs);
+			}
+			GroupRow group = new GroupRow(pending);
+			GroupKey key = pendingKey;
+			pending = null;
+			while (merged.hasNext()) {
+				RowDataPacket row = merged.next();
+				GroupKey rowKey = new GroupKey(row, groupColumnIndexs);
+				if (!key.equals(rowKey)) {
+					pending = row;
+					pendingKey = rowKey;
+					break;
+				}
+				group.aggregate(row);
+			}
+			group.flush();
+			return group.row;
 		}
 
+		@Override
+		public RowDataPacket next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			RowDataPacket row = next;
+			next = null;
+			return row;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
 
+	/**
+	 * number of distinct groups merged so far
+	 */
+	public int getGroupCount() {
+		return result != null ? result.size() : groups.size();
+	}
 
+	/**
+	 * first row of a group and the accumulators of its merge columns, which
+	 * are created when the second row of the group arrives
+	 */
+	private final class GroupRow {
+		final RowDataPacket row;
+		ColAccumulator[] accumulators;
 
-    }
+		GroupRow(RowDataPacket row) {
+			this.row = row;
+		}
+
+		void aggregate(RowDataPacket newRow) {
+			if (mergCols == null) {
+				return;
+			}
+			if (accumulators == null) {
+				accumulators = new ColAccumulator[mergCols.length];
+				for (int i = 0; i < mergCols.length; i++) {
+					MergeCol merg = mergCols[i];
+					if (merg.mergeType != MergeCol.MERGE_AVG
+							&& merg.colMeta != null) {
+						accumulators[i] = ColAccumulator.create(merg,
+								row.fieldValues.get(merg.colMeta.colIndex));
+					}
+				}
+			}
+			for (int i = 0; i < mergCols.length; i++) {
+				if (accumulators[i] != null) {
+					accumulators[i].merge(newRow.fieldValues
+							.get(mergCols[i].colMeta.colIndex));
+				}
+			}
+		}
+
+		void flush() {
+			if (accumulators == null) {
+				return;
+			}
+			for (int i = 0; i < mergCols.length; i++) {
+				if (accumulators[i] != null) {
+					row.fieldValues.set(mergCols[i].colMeta.colIndex,
+							accumulators[i].getResult());
+				}
+			}
+			accumulators = null;
+		}
+	}
 
 	private void mergAvg(RowDataPacket toRow) {
 		if (mergCols == null) {
@@ -179,16 +425,14 @@ public class RowDataPacketGrouper {
 		for (MergeCol merg : mergCols) {
 			if(merg.mergeType==MergeCol.MERGE_AVG)
 			{
-				byte[] result = mertFields(
+				byte[] result = mergAvgField(
 						toRow.fieldValues.get(merg.colMeta.avgSumIndex),
 						toRow.fieldValues.get(merg.colMeta.avgCountIndex),
-						merg.colMeta.colType, merg.mergeType);
-				if (result != null)
-				{
-					toRow.fieldValues.set(merg.colMeta.avgSumIndex, result);
-					toRow.fieldValues.remove(merg.colMeta.avgCountIndex) ;
-					toRow.fieldCount=toRow.fieldCount-1;
-				}
+						merg.colMeta.colType);
+				// the count column is always dropped, it is not in the header
+				toRow.fieldValues.set(merg.colMeta.avgSumIndex, result);
+				toRow.fieldValues.remove(merg.colMeta.avgCountIndex) ;
+				toRow.fieldCount=toRow.fieldCount-1;
 			}
 		}
 
@@ -196,82 +440,106 @@ public class RowDataPacketGrouper {
 
 	}
 
-	private byte[] mertFields(byte[] bs, byte[] bs2, int colType, int mergeType) {
-		// System.out.println("mergeType:"+ mergeType+" colType "+colType+
-		// " field:"+Arrays.toString(bs)+ " ->  "+Arrays.toString(bs2));
-		if(bs2==null || bs2.length==0)
-		{
-			return bs;
-		}else if(bs==null || bs.length==0)
-		{
-			return bs2;
-		}
-		switch (mergeType) {
-		case MergeCol.MERGE_SUM:
-			if (colType == ColMeta.COL_TYPE_NEWDECIMAL
-					|| colType == ColMeta.COL_TYPE_DOUBLE
-					|| colType == ColMeta.COL_TYPE_FLOAT
-					|| colType == ColMeta.COL_TYPE_DECIMAL) {
-
-				Double vale = ByteUtil.getDouble(bs) + ByteUtil.getDouble(bs2);
-				return vale.toString().getBytes();
-				// return String.valueOf(vale).getBytes();
-			}
-			// continue to count case
-		case MergeCol.MERGE_COUNT: {
-			long s1 = Long.parseLong(new String(bs));
-			long s2 = Long.parseLong(new String(bs2));
-			long total = s1 + s2;
-			return LongUtil.toBytes(total);
-		}
-		case MergeCol.MERGE_MAX: {
-			// System.out.println("value:"+
-			// ByteUtil.getNumber(bs).doubleValue());
-			// System.out.println("value2:"+
-			// ByteUtil.getNumber(bs2).doubleValue());
-			// int compare = CompareUtil.compareDouble(ByteUtil.getNumber(bs)
-			// .doubleValue(), ByteUtil.getNumber(bs2).doubleValue());
-			// return ByteUtil.compareNumberByte(bs, bs2);
-			int compare = ByteUtil.compareNumberByte(bs, bs2);
-			return (compare > 0) ? bs : bs2;
-
+	/**
+	 * avg = sum / count, exact for DECIMAL sums with the scale MySQL uses
+	 * (sum scale + 4)
+	 */
+	private byte[] mergAvgField(byte[] sum, byte[] count, int colType) {
+		if (sum == null || sum.length == 0 || count == null
+				|| count.length == 0) {
+			return sum;
 		}
-		case MergeCol.MERGE_MIN: {
-			// int compare = CompareUtil.compareDouble(ByteUtil.getNumber(bs)
-			// .doubleValue(), ByteUtil.getNumber(bs2).doubleValue());
-			// int compare = ByteUtil.compareNumberArray(bs, bs2);
-			//return (compare > 0) ? bs2 : bs;
-			int compare = ByteUtil.compareNumberByte(bs, bs2);
-			return (compare > 0) ? bs2 : bs;
-			// return ByteUtil.compareNumberArray2(bs, bs2, 2);
+		long n = ColAccumulator.parseLong(count);
+		if (n == 0) {
+			return sum;
 		}
-            case MergeCol.MERGE_AVG: {
-                double aDouble = ByteUtil.getDouble(bs);
-                long s2 = Long.parseLong(new String(bs2));
-                Double vale = aDouble / s2;
-                return vale.toString().getBytes();
-            }
-		default:
-			return null;
+		if (colType == ColMeta.COL_TYPE_DOUBLE
+				|| colType == ColMeta.COL_TYPE_FLOAT) {
+			return Double.toString(ByteUtil.getDouble(sum) / n).getBytes();
 		}
-
+		BigDecimal total = ColAccumulator.parseDecimal(sum);
+		return total.divide(BigDecimal.valueOf(n), total.scale() + 4,
+				RoundingMode.HALF_UP).toPlainString().getBytes();
 	}
 
-	// private static final
-
-	private boolean sameGropuColums(RowDataPacket newRow, RowDataPacket existRow) {
-		if (groupColumnIndexs == null) {// select count(*) from aaa , or group
-										// column
-			return true;
+	/**
+	 * hash key over the raw group column values of a row, no charset decoding.
+	 * select count(*) from aaa (no group column) has a single empty key
+	 */
+	static final class GroupKey {
+		private final byte[][] values;
+		private final int hash;
+
+		GroupKey(RowDataPacket row, int[] groupColumnIndexs) {
+			if (groupColumnIndexs == null) {
+				values = new byte[0][];
+				hash = 0;
+				return;
+			}
+			values = new byte[groupColumnIndexs.length][];
+			int h = 1;
+			for (int i = 0; i < groupColumnIndexs.length; i++) {
+				byte[] v = row.fieldValues.get(groupColumnIndexs[i]);
+				values[i] = v;
+				h = 31 * h + Arrays.hashCode(v);
+			}
+			hash = h;
 		}
-		for (int i = 0; i < groupColumnIndexs.length; i++) {
-			if (!Arrays.equals(newRow.fieldValues.get(groupColumnIndexs[i]),
-					existRow.fieldValues.get(groupColumnIndexs[i]))) {
-				return false;
+
+		/**
+		 * byte order of the values, NULL first. only used to sort spilled
+		 * runs, so equal groups meet when the runs are merged
+		 */
+		static int compare(GroupKey l, GroupKey r) {
+			for (int i = 0; i < l.values.length; i++) {
+				byte[] a = l.values[i];
+				byte[] b = r.values[i];
+				if (a == b) {
+					continue;
+				}
+				if (a == null) {
+					return -1;
+				}
+				if (b == null) {
+					return 1;
+				}
+				int len = Math.min(a.length, b.length);
+				for (int j = 0; j < len; j++) {
+					int c = (a[j] & 0xff) - (b[j] & 0xff);
+					if (c != 0) {
+						return c;
+					}
+				}
+				if (a.length != b.length) {
+					return a.length - b.length;
+				}
 			}
+			return 0;
+		}
 
+		@Override
+		public int hashCode() {
+			return hash;
 		}
-		return true;
 
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof GroupKey)) {
+				return false;
+			}
+			GroupKey other = (GroupKey) obj;
+			if (hash != other.hash || values.length != other.values.length) {
+				return false;
+			}
+			for (int i = 0; i < values.length; i++) {
+				if (!Arrays.equals(values[i], other.values[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
 	}
 }
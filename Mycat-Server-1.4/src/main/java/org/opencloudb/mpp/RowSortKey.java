@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.mpp;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import org.opencloudb.net.mysql.RowDataPacket;
+import org.opencloudb.util.ByteUtil;
+
+/**
+ * a row with the values of its order by columns decoded once, so sorting
+ * and merging compare typed values instead of parsing the text columns on
+ * every comparison. NULL is smaller than any value like in MySQL
+ */
+public final class RowSortKey {
+
+	public final RowDataPacket row;
+	private final Object[] keys;
+
+	private RowSortKey(RowDataPacket row, Object[] keys) {
+		this.row = row;
+		this.keys = keys;
+	}
+
+	public static RowSortKey create(RowDataPacket row, OrderCol[] orderCols) {
+		Object[] keys = new Object[orderCols.length];
+		for (int i = 0; i < orderCols.length; i++) {
+			ColMeta colMeta = orderCols[i].colMeta;
+			keys[i] = decode(row.fieldValues.get(colMeta.colIndex),
+					colMeta.colType);
+		}
+		return new RowSortKey(row, keys);
+	}
+
+	public static int compare(RowSortKey l, RowSortKey r, OrderCol[] orderCols) {
+		for (int i = 0; i < orderCols.length; i++) {
+			int result = compareKey(l.keys[i], r.keys[i]);
+			if (result != 0) {
+				return orderCols[i].orderType == OrderCol.COL_ORDER_TYPE_ASC ? result
+						: -result;
+			}
+		}
+		return 0;
+	}
+
+	private static Object decode(byte[] value, int colType) {
+		if (value == null) {
+			return null;
+		}
+		switch (colType) {
+		case ColMeta.COL_TYPE_INT:
+		case ColMeta.COL_TYPE_SHORT:
+		case ColMeta.COL_TYPE_LONG:
+		case ColMeta.COL_TYPE_LONGLONG:
+		case ColMeta.COL_TYPE_INT24:
+			if (value.length == 0) {
+				return null;
+			}
+			try {
+				return ColAccumulator.parseLong(value);
+			} catch (NumberFormatException e) {
+				// bigint unsigned
+				return ColAccumulator.parseDecimal(value);
+			}
+		case ColMeta.COL_TYPE_FLOAT:
+		case ColMeta.COL_TYPE_DOUBLE:
+			return value.length == 0 ? null : ByteUtil.getDouble(value);
+		case ColMeta.COL_TYPE_DECIMAL:
+		case ColMeta.COL_TYPE_NEWDECIMAL:
+			return value.length == 0 ? null : ColAccumulator
+					.parseDecimal(value);
+		// 因为mysql的日期也是数字字符串方式表达，按字节比较即可
+		case ColMeta.COL_TYPE_DATE:
+		case ColMeta.COL_TYPE_TIMSTAMP:
+		case ColMeta.COL_TYPE_TIME:
+		case ColMeta.COL_TYPE_YEAR:
+		case ColMeta.COL_TYPE_DATETIME:
+		case ColMeta.COL_TYPE_NEWDATE:
+		case ColMeta.COL_TYPE_BIT:
+			return value;
+		case ColMeta.COL_TYPE_VAR_STRING:
+		case ColMeta.COL_TYPE_STRING:
+		case ColMeta.COL_TYPE_ENUM:
+		case ColMeta.COL_TYPE_SET:
+			return new String(value, StandardCharsets.UTF_8);
+		default:
+			// BLOB相关类型和GEOMETRY类型不支持排序
+			return null;
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compareKey(Object l, Object r) {
+		if (l == null || r == null) {
+			return l == r ? 0 : (l == null ? -1 : 1);
+		}
+		if (l instanceof byte[]) {
+			return ByteUtil.compareNumberByte((byte[]) l, (byte[]) r);
+		}
+		if (l.getClass() != r.getClass()) {
+			// long and decimal of the same integer column
+			return toDecimal(l).compareTo(toDecimal(r));
+		}
+		return ((Comparable) l).compareTo(r);
+	}
+
+	private static BigDecimal toDecimal(Object v) {
+		if (v instanceof BigDecimal) {
+			return (BigDecimal) v;
+		}
+		return new BigDecimal(v.toString());
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.mpp;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.opencloudb.net.mysql.RowDataPacket;
+
+/**
+ * k-way merge of order by results, every data node already returns its rows
+ * sorted, so the smallest head of all nodes can be output as soon as every
+ * unfinished node has a head. keeps one cursor per node and a heap of the
+ * heads, rows are only buffered while some node is slower than the others.
+ * the buffered rows of a node are bounded by the caller, it pauses reading
+ * from the node's connection (see {@link DataMergeService}).
+ * 
+ * not thread safe, used by the merge thread of DataMergeService
+ */
+public class StreamMergeSorter {
+
+	private static class NodeCursor {
+		final String node;
+		final ArrayDeque<RowSortKey> rows = new ArrayDeque<RowSortKey>();
+		RowSortKey head;
+		boolean waiting;
+		boolean finished;
+
+		NodeCursor(String node) {
+			this.node = node;
+		}
+	}
+
+	private final OrderCol[] orderCols;
+	private final Map<String, NodeCursor> cursors = new HashMap<String, NodeCursor>();
+	private final PriorityQueue<NodeCursor> heads;
+	// unfinished nodes without a head, nothing can be output while > 0
+	private int waitingCount;
+	private String lastNode;
+
+	public StreamMergeSorter(OrderCol[] orderCols, String[] dataNodes) {
+		this.orderCols = orderCols;
+		for (String dataNode : dataNodes) {
+			NodeCursor cursor = new NodeCursor(dataNode);
+			cursor.waiting = true;
+			cursors.put(dataNode, cursor);
+		}
+		this.waitingCount = cursors.size();
+		this.heads = new PriorityQueue<NodeCursor>(Math.max(1, cursors.size()),
+				new Comparator<NodeCursor>() {
+					@Override
+					public int compare(NodeCursor o1, NodeCursor o2) {
+						return RowSortKey.compare(o1.head, o2.head,
+								StreamMergeSorter.this.orderCols);
+					}
+				});
+	}
+
+	public void addRow(String dataNode, RowDataPacket rowData) {
+		NodeCursor cursor = getCursor(dataNode);
+		RowSortKey row = RowSortKey.create(rowData, orderCols);
+		if (cursor.head == null) {
+			cursor.head = row;
+			if (cursor.waiting) {
+				cursor.waiting = false;
+				waitingCount--;
+			}
+			heads.add(cursor);
+		} else {
+			cursor.rows.add(row);
+		}
+	}
+
+	/**
+	 * no more rows from the node
+	 */
+	public void nodeEnd(String dataNode) {
+		NodeCursor cursor = getCursor(dataNode);
+		cursor.finished = true;
+		if (cursor.waiting) {
+			cursor.waiting = false;
+			waitingCount--;
+		}
+	}
+
+	/**
+	 * @return next row in order, or null if it is unknown until more rows
+	 *         arrive (or all rows are output)
+	 */
+	public RowDataPacket next() {
+		if (waitingCount > 0 || heads.isEmpty()) {
+			return null;
+		}
+		NodeCursor cursor = heads.poll();
+		lastNode = cursor.node;
+		RowSortKey row = cursor.head;
+		cursor.head = cursor.rows.poll();
+		if (cursor.head != null) {
+			heads.add(cursor);
+		} else if (!cursor.finished) {
+			cursor.waiting = true;
+			waitingCount++;
+		}
+		return row.row;
+	}
+
+	/**
+	 * the node of the row returned by the last {@link #next()}
+	 */
+	public String getLastNode() {
+		return lastNode;
+	}
+
+	/**
+	 * all nodes ended and every row is output
+	 */
+	public boolean isFinished() {
+		return waitingCount == 0 && heads.isEmpty();
+	}
+
+	private NodeCursor getCursor(String dataNode) {
+		NodeCursor cursor = cursors.get(dataNode);
+		if (cursor == null) {
+			cursor = new NodeCursor(dataNode);
+			cursors.put(dataNode, cursor);
+		}
+		return cursor;
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.mpp.tmp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+import org.opencloudb.mpp.OrderCol;
+import org.opencloudb.mpp.RowDataPacketSorter;
+import org.opencloudb.mpp.RowSortKey;
+import org.opencloudb.net.mysql.RowDataPacket;
+
+/**
+ * order by sorter, with limit only the first offset+size rows are kept in a
+ * bounded max heap (the root is the last row of the result). order columns
+ * are decoded once per row, see {@link RowSortKey}
+ * 
+ * when the rows take more than the memory budget they are sorted and spilled
+ * to a {@link RowRunFile} as a run, {@link #getSortedIterator()} merges the
+ * runs back. a limit heap over the budget falls back to the unlimited mode,
+ * the limit is applied again when the result is written
+ * 
+ * not thread safe, used by the merge thread of DataMergeService
+ */
+public class RowDataSorter extends RowDataPacketSorter {
+
+	private static final Logger LOGGER = Logger.getLogger(RowDataSorter.class);
+	private final Comparator<RowSortKey> cmp;
+	// heap size, -1 means no limit
+	private int capacity = -1;
+	private PriorityQueue<RowSortKey> heap;
+	private List<RowSortKey> rows = new ArrayList<RowSortKey>();
+	// bytes, <= 0 means never spill
+	private long memoryBudget = -1;
+	private long memoryUsed;
+	private RowRunFile runFile;
+
+	public RowDataSorter(OrderCol[] orderCols) {
+		super(orderCols);
+		final OrderCol[] cols = orderCols;
+		this.cmp = new Comparator<RowSortKey>() {
+			@Override
+			public int compare(RowSortKey o1, RowSortKey o2) {
+				return RowSortKey.compare(o1, o2, cols);
+			}
+		};
+	}
+
+	/**
+	 * keep only the first start+size rows, size < 0 means no limit
+	 */
+	public void setLimit(int start, int size) {
+		if (size < 0) {
+			capacity = -1;
+			heap = null;
+			return;
+		}
+		capacity = Math.max(0, start) + size;
+		heap = new PriorityQueue<RowSortKey>(Math.max(1, capacity),
+				Collections.reverseOrder(cmp));
+	}
+
+	/**
+	 * spill the rows to disk when they take more than so many bytes
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @return false if the row can not be in the result, rows of a data node
+	 *         are sorted, so the following rows of the node can be discarded
+	 *         too
+	 */
+	@Override
+	public boolean addRow(RowDataPacket row) {
+		if (capacity < 0) {
+			rows.add(RowSortKey.create(row, orderCols));
+			if (memoryBudget > 0) {
+				memoryUsed += RowRunFile.estimateSize(row);
+				if (memoryUsed > memoryBudget) {
+					spill();
+				}
+			}
+			return true;
+		}
+		if (capacity == 0) {
+			return false;
+		}
+		RowSortKey key = RowSortKey.create(row, orderCols);
+		if (heap.size() < capacity) {
+			heap.add(key);
+			if (memoryBudget > 0) {
+				memoryUsed += RowRunFile.estimateSize(row);
+				if (memoryUsed > memoryBudget) {
+					// too big for a heap, sort all rows and spill
+					rows.addAll(heap);
+					heap = null;
+					capacity = -1;
+					spill();
+				}
+			}
+			return true;
+		}
+		if (cmp.compare(key, heap.peek()) >= 0) {
+			return false;
+		}
+		RowSortKey removed = heap.poll();
+		heap.add(key);
+		if (memoryBudget > 0) {
+			memoryUsed += RowRunFile.estimateSize(row)
+					- RowRunFile.estimateSize(removed.row);
+		}
+		return true;
+	}
+
+	private RowSortKey[] sortRows() {
+		RowSortKey[] sorted = rows.toArray(new RowSortKey[rows.size()]);
+		rows.clear();
+		Arrays.sort(sorted, cmp);
+		return sorted;
+	}
+
+	/**
+	 * write the rows in memory as a sorted run
+	 */
+	private void spill() {
+		try {
+			if (runFile == null) {
+				runFile = new RowRunFile();
+			}
+			runFile.writeRun(new RowIterator(sortRows()));
+			memoryUsed = 0;
+		} catch (IOException e) {
+			LOGGER.error("spill sorted rows error, keep them in memory", e);
+			memoryBudget = -1;
+		}
+	}
+
+	/**
+	 * @return sorted rows, merged from the spilled runs one at a time if the
+	 *         rows did not fit in the memory budget
+	 */
+	public Iterator<RowDataPacket> getSortedIterator() {
+		if (runFile == null) {
+			return getSortedResult().iterator();
+		}
+		RowRunFile.RunMerge merge = new RowRunFile.RunMerge() {
+			@Override
+			public Iterator<RowDataPacket> merge(
+					List<Iterator<RowDataPacket>> sources) {
+				return newMerger(sources);
+			}
+		};
+		List<Iterator<RowDataPacket>> sources;
+		try {
+			sources = runFile.openRuns(merge, 1);
+		} catch (IOException e) {
+			throw new IllegalStateException("merge spilled runs error", e);
+		}
+		sources.add(new RowIterator(sortRows()));
+		memoryUsed = 0;
+		return newMerger(sources);
+	}
+
+	private Iterator<RowDataPacket> newMerger(
+			List<Iterator<RowDataPacket>> sources) {
+		return new RowRunMerger<RowSortKey>(sources) {
+			@Override
+			protected RowSortKey key(RowDataPacket row) {
+				return RowSortKey.create(row, orderCols);
+			}
+
+			@Override
+			protected int compareKey(RowSortKey l, RowSortKey r) {
+				return cmp.compare(l, r);
+			}
+		};
+	}
+
+	/**
+	 * delete the spilled runs
+	 */
+	public void close() {
+		if (runFile != null) {
+			runFile.close();
+			runFile = null;
+		}
+	}
+
+	/**
+	 * @return sorted rows in memory, at most start+size with limit
+	 */
+	@Override
+	public List<RowDataPacket> getSortedResult() {
+		RowSortKey[] sorted;
+		if (heap != null) {
+			sorted = new RowSortKey[heap.size()];
+			for (int i = sorted.length - 1; i >= 0; i--) {
+				sorted[i] = heap.poll();
+			}
+		} else {
+			sorted = sortRows();
+		}
+		List<RowDataPacket> result = new ArrayList<RowDataPacket>(
+				sorted.length);
+		for (RowSortKey key : sorted) {
+			result.add(key.row);
+		}
+		return result;
+	}
+
+	private static final class RowIterator implements Iterator<RowDataPacket> {
+		private final RowSortKey[] keys;
+		private int index;
+
+		RowIterator(RowSortKey[] keys) {
+			this.keys = keys;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return index < keys.length;
+		}
+
+		@Override
+		public RowDataPacket next() {
+			RowDataPacket row = keys[index].row;
+			keys[index++] = null;
+			return row;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
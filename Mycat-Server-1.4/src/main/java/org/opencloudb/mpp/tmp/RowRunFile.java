@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.mpp.tmp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+import org.opencloudb.config.model.SystemConfig;
+import org.opencloudb.net.mysql.RowDataPacket;
+
+/**
+ * temp file of sorted runs, used when the rows of a merge do not fit in the
+ * memory budget. a run is written in one go and read back by a cursor with
+ * its own buffer. at most MAX_FAN_IN runs are merged at the same time, more
+ * runs are first merged into longer runs in the same file, so the memory of
+ * the final merge does not grow with the result.
+ * 
+ * row format: int length, int fieldCount, then int length (-1 for NULL) and
+ * bytes of every field
+ * 
+ * files are under MYCAT_HOME/temp and deleted on close
+ */
+public class RowRunFile {
+
+	private static final Logger LOGGER = Logger.getLogger(RowRunFile.class);
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// runs merged at the same time, every one holds a read buffer
+	public static final int MAX_FAN_IN = 16;
+	// rough heap cost of a row and of a field besides the field bytes
+	private static final int ROW_OVERHEAD = 64;
+	private static final int FIELD_OVERHEAD = 24;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private List<long[]> runs = new ArrayList<long[]>();
+	private long position;
+	// reused by every run, grown only for a single oversized row
+	private final ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	/**
+	 * merges sorted sources in the order of the caller
+	 */
+	public interface RunMerge {
+		Iterator<RowDataPacket> merge(List<Iterator<RowDataPacket>> sources);
+	}
+
+	public RowRunFile() throws IOException {
+		File dir = getTempDir();
+		this.file = File.createTempFile("merge-", ".run", dir);
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+	}
+
+	private static File getTempDir() {
+		String home = SystemConfig.getHomePath();
+		File dir = home != null ? new File(home, "temp") : new File(
+				System.getProperty("java.io.tmpdir"));
+		if (!dir.exists() && !dir.mkdirs() && !dir.isDirectory()) {
+			LOGGER.warn("can't create temp dir " + dir);
+		}
+		return dir;
+	}
+
+	/**
+	 * heap bytes held by a row, only an estimate to check the memory budget
+	 */
+	public static long estimateSize(RowDataPacket row) {
+		long size = ROW_OVERHEAD;
+		for (byte[] v : row.fieldValues) {
+			size += FIELD_OVERHEAD + (v == null ? 0 : v.length);
+		}
+		return size;
+	}
+
+	/**
+	 * append the rows as a new run, they must already be sorted
+	 */
+	public void writeRun(Iterator<RowDataPacket> rows) throws IOException {
+		runs.add(write(rows));
+	}
+
+	private long[] write(Iterator<RowDataPacket> rows) throws IOException {
+		long start = position;
+		ByteBuffer buffer = writeBuffer;
+		while (rows.hasNext()) {
+			RowDataPacket row = rows.next();
+			int len = 4;
+			for (byte[] v : row.fieldValues) {
+				len += 4 + (v == null ? 0 : v.length);
+			}
+			if (buffer.remaining() < len + 4) {
+				flush(buffer);
+				buffer = buffer.capacity() < len + 4 ? ByteBuffer
+						.allocate(len + 4) : writeBuffer;
+			}
+			buffer.putInt(len);
+			buffer.putInt(row.fieldValues.size());
+			for (byte[] v : row.fieldValues) {
+				if (v == null) {
+					buffer.putInt(-1);
+				} else {
+					buffer.putInt(v.length);
+					buffer.put(v);
+				}
+			}
+		}
+		flush(buffer);
+		return new long[] { start, position };
+	}
+
+	private void flush(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		buffer.clear();
+	}
+
+	public int getRunCount() {
+		return runs.size();
+	}
+
+	/**
+	 * @param merge
+	 *            merges runs into a longer run while there are more sources
+	 *            than MAX_FAN_IN
+	 * @param reserved
+	 *            sources the caller merges together with the runs, e.g. the
+	 *            rows still in memory
+	 * @return a cursor for every run, reading by position so they don't
+	 *         disturb each other
+	 */
+	public List<Iterator<RowDataPacket>> openRuns(RunMerge merge, int reserved)
+			throws IOException {
+		int fanIn = Math.max(2, MAX_FAN_IN - reserved);
+		while (runs.size() > fanIn) {
+			List<long[]> merged = new ArrayList<long[]>(
+					(runs.size() + MAX_FAN_IN - 1) / MAX_FAN_IN);
+			for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+				List<long[]> group = runs.subList(i,
+						Math.min(i + MAX_FAN_IN, runs.size()));
+				if (group.size() == 1) {
+					merged.add(group.get(0));
+				} else {
+					merged.add(write(merge.merge(openRuns(group))));
+				}
+			}
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("merged " + runs.size() + " runs into "
+						+ merged.size() + " " + file);
+			}
+			runs = merged;
+		}
+		return openRuns(runs);
+	}
+
+	private List<Iterator<RowDataPacket>> openRuns(List<long[]> list) {
+		List<Iterator<RowDataPacket>> cursors = new ArrayList<Iterator<RowDataPacket>>(
+				list.size() + 1);
+		for (long[] run : list) {
+			cursors.add(new RunCursor(run[0], run[1]));
+		}
+		return cursors;
+	}
+
+	/**
+	 * close and delete the file
+	 */
+	public void close() {
+		try {
+			raf.close();
+		} catch (IOException e) {
+			LOGGER.warn("close temp file error " + file, e);
+		}
+		if (!file.delete() && file.exists()) {
+			LOGGER.warn("can't delete temp file " + file);
+		}
+	}
+
+	private final class RunCursor implements Iterator<RowDataPacket> {
+		private long position;
+		private final long end;
+		private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		RunCursor(long start, long end) {
+			this.position = start;
+			this.end = end;
+			buffer.flip();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return buffer.hasRemaining() || position < end;
+		}
+
+		@Override
+		public RowDataPacket next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			try {
+				fill(4);
+				int len = buffer.getInt();
+				fill(len);
+				int fieldCount = buffer.getInt();
+				RowDataPacket row = new RowDataPacket(fieldCount);
+				for (int i = 0; i < fieldCount; i++) {
+					int flen = buffer.getInt();
+					if (flen < 0) {
+						row.add(null);
+					} else {
+						byte[] v = new byte[flen];
+						buffer.get(v);
+						row.add(v);
+					}
+				}
+				return row;
+			} catch (IOException e) {
+				throw new IllegalStateException("read temp file error " + file,
+						e);
+			}
+		}
+
+		// make sure at least n bytes are in the buffer
+		private void fill(int n) throws IOException {
+			if (buffer.remaining() >= n) {
+				return;
+			}
+			if (buffer.capacity() < n) {
+				ByteBuffer bigger = ByteBuffer.allocate(n);
+				bigger.put(buffer);
+				buffer = bigger;
+			} else {
+				buffer.compact();
+			}
+			while (buffer.position() < n) {
+				int max = (int) Math.min(buffer.remaining(), end - position);
+				if (max <= 0) {
+					throw new IOException("unexpected end of run");
+				}
+				ByteBuffer dst = buffer.duplicate();
+				dst.limit(dst.position() + max);
+				int read = channel.read(dst, position);
+				if (read < 0) {
+					throw new IOException("unexpected end of file");
+				}
+				position += read;
+				buffer.position(buffer.position() + read);
+			}
+			buffer.flip();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.mpp.tmp;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.opencloudb.net.mysql.RowDataPacket;
+
+/**
+ * k-way merge of sorted row sources (spilled runs and the rows still in
+ * memory), rows are read one at a time so the whole result is never loaded.
+ * the sort key of a source head is built once, see {@link #key}
+ * 
+ * @param <K>
+ *            sort key of a row
+ */
+public abstract class RowRunMerger<K> implements Iterator<RowDataPacket> {
+
+	private final PriorityQueue<Head<K>> heads;
+
+	public RowRunMerger(List<Iterator<RowDataPacket>> sources) {
+		heads = new PriorityQueue<Head<K>>(Math.max(1, sources.size()),
+				new Comparator<Head<K>>() {
+					@Override
+					public int compare(Head<K> o1, Head<K> o2) {
+						return compareKey(o1.key, o2.key);
+					}
+				});
+		for (Iterator<RowDataPacket> source : sources) {
+			if (source.hasNext()) {
+				RowDataPacket row = source.next();
+				heads.add(new Head<K>(source, row, key(row)));
+			}
+		}
+	}
+
+	protected abstract K key(RowDataPacket row);
+
+	protected abstract int compareKey(K l, K r);
+
+	@Override
+	public boolean hasNext() {
+		return !heads.isEmpty();
+	}
+
+	@Override
+	public RowDataPacket next() {
+		Head<K> head = heads.poll();
+		if (head == null) {
+			throw new NoSuchElementException();
+		}
+		RowDataPacket row = head.row;
+		if (head.source.hasNext()) {
+			head.row = head.source.next();
+			head.key = key(head.row);
+			heads.add(head);
+		}
+		return row;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	private static final class Head<K> {
+		final Iterator<RowDataPacket> source;
+		RowDataPacket row;
+		K key;
+
+		Head(Iterator<RowDataPacket> source, RowDataPacket row, K key) {
+			this.source = source;
+			this.row = row;
+			this.key = key;
+		}
+	}
+}
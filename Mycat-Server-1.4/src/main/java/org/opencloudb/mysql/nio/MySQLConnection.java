@@ -56,6 +56,8 @@ public class MySQLConnection extends BackendAIOConnection {
 			.getLogger(MySQLConnection.class);
 	private static final long CLIENT_FLAGS = initClientFlags();
 	private volatile long lastTime; 
+	// 最近一次发出SQL的时间(纳秒), 取走响应时间后清零
+	private volatile long queryStartTime;
 	private volatile String schema = null;
 	private volatile String oldSchema;
 	private volatile boolean borrowed = false;
@@ -278,9 +280,24 @@ public class MySQLConnection extends BackendAIOConnection {
 			throw new RuntimeException(e);
 		}
 		lastTime = TimeUtil.currentTimeMillis();
+		queryStartTime = System.nanoTime();
 		packet.write(this);
 	}
 
+	/**
+	 * 收到第一个响应包时调用
+	 * 
+	 * @return 最近一次SQL发出到现在的时间(纳秒), 已经取过时返回-1
+	 */
+	public long takeQueryTime() {
+		long start = queryStartTime;
+		if (start == 0) {
+			return -1;
+		}
+		queryStartTime = 0;
+		return System.nanoTime() - start;
+	}
+
 	private static void getCharsetCommand(StringBuilder sb, int clientCharIndex) {
 		sb.append("SET names ").append(CharsetUtil.getCharset(clientCharIndex))
 				.append(";");
@@ -419,11 +436,10 @@ public class MySQLConnection extends BackendAIOConnection {
 			sendQueryCmd(rrn.getStatement());
 			return;
 		}
-		CommandPacket schemaCmd = null;
 		StringBuilder sb = new StringBuilder();
 		if (schemaSyn == 1) {
-			schemaCmd = getChangeSchemaCommand(conSchema);
-			// getChangeSchemaCommand(sb, conSchema);
+			// 切换schema和其他同步命令合并在一个多语句包中, 不再单独发送 COM_INIT_DB
+			getChangeSchemaCommand(sb, conSchema);
 		}
 
 		if (charsetSyn == 1) {
@@ -441,16 +457,12 @@ public class MySQLConnection extends BackendAIOConnection {
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("con need syn ,total syn cmd " + synCount
 					+ " commands " + sb.toString() + "schema change:"
-					+ (schemaCmd != null) + " con:" + this);
+					+ (schemaSyn == 1) + " con:" + this);
 		}
 		metaDataSyned = false;
 		statusSync = new StatusSync(xaCmd != null, conSchema,
 				clientCharSetIndex, clientTxIsoLation, expectAutocommit,
 				synCount);
-		// syn schema
-		if (schemaCmd != null) {
-			schemaCmd.write(this);
-		}
 		// and our query sql to multi command at last
 		sb.append(rrn.getStatement());
 		// syn and execute others
@@ -459,12 +471,8 @@ public class MySQLConnection extends BackendAIOConnection {
 
 	}
 
-	private static CommandPacket getChangeSchemaCommand(String schema) {
-		CommandPacket cmd = new CommandPacket();
-		cmd.packetId = 0;
-		cmd.command = MySQLPacket.COM_INIT_DB;
-		cmd.arg = schema.getBytes();
-		return cmd;
+	private static void getChangeSchemaCommand(StringBuilder sb, String schema) {
+		sb.append("USE `").append(schema.replace("`", "``")).append("`;");
 	}
 
 	/**
@@ -558,6 +566,8 @@ public class MySQLConnection extends BackendAIOConnection {
 		statusSync = null;
 		modifiedSQLExecuted = false;
 		setResponseHandler(null);
+		// paused by the flow control of the last front connection
+		resumeRead(READ_PAUSE_WRITE_QUEUE | READ_PAUSE_MERGE_QUEUE);
 		pool.releaseChannel(this);
 	}
 
@@ -577,6 +587,7 @@ public class MySQLConnection extends BackendAIOConnection {
 	 * 写队列为空，可以继续写数据
 	 */
 	public void writeQueueAvailable() {
+		resumeRead(READ_PAUSE_WRITE_QUEUE);
 		if (respHandler != null) {
 			respHandler.writeQueueAvailable();
 		}
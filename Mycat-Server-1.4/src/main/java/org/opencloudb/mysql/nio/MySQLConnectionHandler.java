@@ -23,13 +23,17 @@
  */
 package org.opencloudb.mysql.nio;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.log4j.Logger;
+import org.opencloudb.backend.CircuitBreaker;
 import org.opencloudb.mysql.ByteUtil;
 import org.opencloudb.mysql.nio.handler.LoadDataResponseHandler;
 import org.opencloudb.mysql.nio.handler.ResponseHandler;
+import org.opencloudb.mysql.nio.handler.RowPassThroughHandler;
+import org.opencloudb.net.PassThroughHandler;
 import org.opencloudb.net.handler.BackendAsyncHandler;
 import org.opencloudb.net.mysql.EOFPacket;
 import org.opencloudb.net.mysql.ErrorPacket;
@@ -41,7 +45,8 @@ import org.opencloudb.net.mysql.RequestFilePacket;
  * 
  * @author mycat
  */
-public class MySQLConnectionHandler extends BackendAsyncHandler {
+public class MySQLConnectionHandler extends BackendAsyncHandler implements
+		PassThroughHandler {
 	private static final Logger logger = Logger
 			.getLogger(MySQLConnectionHandler.class);
 	private static final int RESULT_STATUS_INIT = 0;
@@ -79,6 +84,29 @@ public class MySQLConnectionHandler extends BackendAsyncHandler {
 		offerData(data, source.getProcessor().getExecutor());
 	}
 
+	/**
+	 * row packets go to the response handler without a copy if it forwards
+	 * them as they are
+	 */
+	@Override
+	public boolean handle(ByteBuffer buffer, int offset, int length) {
+		if (resultStatus != RESULT_STATUS_FIELD_EOF) {
+			return false;
+		}
+		byte type = buffer.get(offset + 4);
+		if (type == ErrorPacket.FIELD_COUNT || type == EOFPacket.FIELD_COUNT) {
+			return false;
+		}
+		ResponseHandler respHand = responseHandler;
+		if (respHand instanceof RowPassThroughHandler
+				&& ((RowPassThroughHandler) respHand).isRowPassThrough()) {
+			((RowPassThroughHandler) respHand).rowResponse(buffer, offset,
+					length, source);
+			return true;
+		}
+		return false;
+	}
+
 	@Override
 	protected void offerDataError() {
 		resultStatus = RESULT_STATUS_INIT;
@@ -89,6 +117,11 @@ public class MySQLConnectionHandler extends BackendAsyncHandler {
 	protected void handleData(byte[] data) {
 		switch (resultStatus) {
 		case RESULT_STATUS_INIT:
+			long queryTime = source.takeQueryTime();
+			// 错误包是否计为失败由 handleErrorPacket 判断
+			if (queryTime >= 0 && data[4] != ErrorPacket.FIELD_COUNT) {
+				source.getPool().onResponse(queryTime);
+			}
 			switch (data[4]) {
 			case OkPacket.FIELD_COUNT:
 				handleOkPacket(data);
@@ -161,6 +194,11 @@ public class MySQLConnectionHandler extends BackendAsyncHandler {
 	 * ERROR数据包处理
 	 */
 	private void handleErrorPacket(byte[] data) {
+		// 4字节包头 + 1字节0xff之后是错误码
+		int errno = ByteUtil.readUB2(data, 5);
+		if (CircuitBreaker.isServerError(errno)) {
+			source.getPool().onFailure("error packet " + errno);
+		}
 		ResponseHandler respHand = responseHandler;
 		if (respHand != null) {
 			respHand.errorResponse(data, source);
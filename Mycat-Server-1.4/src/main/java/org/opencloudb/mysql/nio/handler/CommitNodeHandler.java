@@ -51,9 +51,11 @@ public class CommitNodeHandler implements ResponseHandler {
 		   MySQLConnection mysqlCon = (MySQLConnection) conn;
 		   if (mysqlCon.getXaStatus() == 1)
 		   {
+			   // 只有这一个参与者, 一阶段提交, 省去 XA PREPARE 的往返
 			   String xaTxId = session.getXaTXID();
 			   String[] cmds = new String[]{"XA END " + xaTxId,
-					   "XA PREPARE " + xaTxId};
+					   "XA COMMIT " + xaTxId + " ONE PHASE"};
+			   mysqlCon.setXaStatus(2);
 			   mysqlCon.execBatchCmd(cmds);
 		   } else
 		   {
@@ -76,21 +78,14 @@ public class CommitNodeHandler implements ResponseHandler {
 		if(conn instanceof MySQLConnection)
 		{
 			MySQLConnection mysqlCon = (MySQLConnection) conn;
-			switch (mysqlCon.getXaStatus())
+			if (mysqlCon.getXaStatus() == 2)
 			{
-				case 1:
-					if (mysqlCon.batchCmdFinished())
-					{
-						String xaTxId = session.getXaTXID();
-						mysqlCon.execCmd("XA COMMIT " + xaTxId);
-						mysqlCon.setXaStatus(2);
-					}
-					return;
-				case 2:
+				// XA END, XA COMMIT ONE PHASE 各返回一个OK
+				if (!mysqlCon.batchCmdFinished())
 				{
-					mysqlCon.setXaStatus(0);
-					break;
+					return;
 				}
+				mysqlCon.setXaStatus(0);
 			}
 		}
 		session.clearResources(false);
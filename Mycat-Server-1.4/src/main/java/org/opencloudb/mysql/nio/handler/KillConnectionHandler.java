@@ -35,6 +35,10 @@ import org.opencloudb.net.mysql.MySQLPacket;
 import org.opencloudb.server.NonBlockingSession;
 
 /**
+ * kill a backend connection, or with killQuery only the statement running on
+ * it (KILL QUERY), then the killee stays open and can be reused after its
+ * query ends
+ * 
  * @author mycat
  */
 public class KillConnectionHandler implements ResponseHandler {
@@ -43,11 +47,34 @@ public class KillConnectionHandler implements ResponseHandler {
 
 	private final MySQLConnection killee;
 	private final NonBlockingSession session;
+	private final boolean killQuery;
+	private volatile boolean finished;
 
 	public KillConnectionHandler(BackendConnection killee,
 			NonBlockingSession session) {
+		this(killee, session, false);
+	}
+
+	public KillConnectionHandler(BackendConnection killee,
+			NonBlockingSession session, boolean killQuery) {
 		this.killee = (MySQLConnection) killee;
 		this.session = session;
+		this.killQuery = killQuery;
+	}
+
+	/**
+	 * the kill command got its response (or failed), after that the thread id
+	 * of the killee can not be killed by this handler any more
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	private void onKillEnd(String reason) {
+		finished = true;
+		if (!killQuery) {
+			killee.close(reason);
+		}
 	}
 
 	@Override
@@ -57,24 +84,24 @@ public class KillConnectionHandler implements ResponseHandler {
 		CommandPacket packet = new CommandPacket();
 		packet.packetId = 0;
 		packet.command = MySQLPacket.COM_QUERY;
-		packet.arg = new StringBuilder("KILL ").append(killee.getThreadId())
-				.toString().getBytes();
+		packet.arg = new StringBuilder(killQuery ? "KILL QUERY " : "KILL ")
+				.append(killee.getThreadId()).toString().getBytes();
 		packet.write(mysqlCon);
 	}
 
 	@Override
 	public void connectionError(Throwable e, BackendConnection conn) {
-		killee.close("exception:" + e.toString());
+		onKillEnd("exception:" + e.toString());
 	}
 
 	@Override
 	public void okResponse(byte[] ok, BackendConnection conn) {
 		if (LOGGER.isDebugEnabled()) {
-			LOGGER.debug("kill connection success connection id:"
-					+ killee.getThreadId());
+			LOGGER.debug("kill " + (killQuery ? "query" : "connection")
+					+ " success connection id:" + killee.getThreadId());
 		}
 		conn.release();
-		killee.close("killed");
+		onKillEnd("killed");
 
 	}
 
@@ -84,7 +111,7 @@ public class KillConnectionHandler implements ResponseHandler {
 				.append(conn).append(" bound by ").append(session.getSource())
 				.append(": field's eof").toString());
 		conn.quit();
-		killee.close("killed");
+		onKillEnd("killed");
 	}
 
 	@Override
@@ -100,7 +127,7 @@ public class KillConnectionHandler implements ResponseHandler {
 		LOGGER.warn("kill backend connection " + killee + " failed: " + msg
 				+ " con:" + conn);
 		conn.release();
-		killee.close("exception:" + msg);
+		onKillEnd("exception:" + msg);
 	}
 
 	@Override
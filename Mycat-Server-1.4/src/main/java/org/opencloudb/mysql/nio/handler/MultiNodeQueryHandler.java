@@ -29,10 +29,13 @@ import org.opencloudb.MycatServer;
 import org.opencloudb.backend.BackendConnection;
 import org.opencloudb.backend.PhysicalDBNode;
 import org.opencloudb.cache.LayerCachePool;
+import org.opencloudb.config.ErrorCode;
 import org.opencloudb.mpp.ColMeta;
 import org.opencloudb.mpp.DataMergeService;
 import org.opencloudb.mpp.MergeCol;
+import org.opencloudb.mysql.ByteUtil;
 import org.opencloudb.mysql.LoadDataUtil;
+import org.opencloudb.mysql.nio.MySQLConnection;
 import org.opencloudb.net.mysql.*;
 import org.opencloudb.route.RouteResultset;
 import org.opencloudb.route.RouteResultsetNode;
@@ -45,6 +48,7 @@ import org.opencloudb.stat.QueryResultDispatcher;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -71,6 +75,8 @@ public class MultiNodeQueryHandler extends MultiNodeHandler implements
 	private final boolean isCallProcedure;
 	private long startTime;
 	private int execCount = 0;
+	// backend queries cancelled because the merge needs no more rows
+	private final Map<BackendConnection, KillConnectionHandler> cancelledQuerys = new ConcurrentHashMap<BackendConnection, KillConnectionHandler>();
 
 	public MultiNodeQueryHandler(int sqlType, RouteResultset rrs,
 			boolean autocommit, NonBlockingSession session) {
@@ -245,6 +251,24 @@ public class MultiNodeQueryHandler extends MultiNodeHandler implements
 			return;
 		}
 
+		KillConnectionHandler kill = cancelledQuerys.remove(conn);
+		if (kill != null && !kill.isFinished()) {
+			// a late KILL QUERY must not hit the next query on this connection
+			conn.close("discard rows, kill query not finished");
+		}
+
+		if (dataMergeSvr != null) {
+			// under lock, after the rows of the node and the field metadata
+			lock.lock();
+			try {
+				RouteResultsetNode rNode = (RouteResultsetNode) conn
+						.getAttachment();
+				dataMergeSvr.onNodeEof(rNode.getName(), conn);
+			} finally {
+				lock.unlock();
+			}
+		}
+
 		final ServerConnection source = session.getSource();
 		if (!isCallProcedure) {
 			if (clearIfSessionClosed(session)) {
@@ -288,43 +312,137 @@ public class MultiNodeQueryHandler extends MultiNodeHandler implements
 		}
 	}
 
+	/**
+	 * write the merged rows with the limit applied. the output stops while the
+	 * write queue of the client is full and goes on in the business executor,
+	 * see {@link NonBlockingSession#waitWriteQueue(Runnable)}
+	 * 
+	 * @param done
+	 *            called once the eof is written or the output is given up
+	 */
 	public void outputMergeResult(final ServerConnection source,
-			final byte[] eof, List<RowDataPacket> results) {
+			final byte[] eof, Iterator<RowDataPacket> results, Runnable done) {
+		final RouteResultset rrs = this.dataMergeSvr.getRrs();
 		try {
-			lock.lock();
-			ByteBuffer buffer = session.getSource().allocate();
-			final RouteResultset rrs = this.dataMergeSvr.getRrs();
-
 			// 处理limit语句
 			int start = rrs.getLimitStart();
-			int end = start + rrs.getLimitSize();
-
-                        if (start < 0)
+			if (start < 0)
 				start = 0;
 
-			if (rrs.getLimitSize() < 0)
-				end = results.size();
-				
-//			// 对于不需要排序的语句,返回的数据只有rrs.getLimitSize()
-//			if (rrs.getOrderByCols() == null) {
-//				end = results.size();
-//				start = 0;
-//			}
-			if (end > results.size())
-				end = results.size();
-
-			for (int i = start; i < end; i++) {
-				RowDataPacket row = results.get(i);
-				row.packetId = ++packetId;
-				buffer = row.write(buffer, source, true);
+			for (int i = 0; i < start && results.hasNext(); i++) {
+				results.next();
+			}
+		} catch (Exception e) {
+			handleDataProcessException(e);
+			try {
+				done.run();
+			} finally {
+				dataMergeSvr.clear();
+			}
+			return;
+		}
+		new MergeOutput(source, eof, results, rrs.getLimitSize(), done).run();
+	}
+
+	private final class MergeOutput implements Runnable {
+		private final ServerConnection source;
+		private final byte[] eof;
+		private final Iterator<RowDataPacket> results;
+		private final Runnable done;
+		// size < 0 means no limit
+		private int size;
+
+		MergeOutput(ServerConnection source, byte[] eof,
+				Iterator<RowDataPacket> results, int size, Runnable done) {
+			this.source = source;
+			this.eof = eof;
+			this.results = results;
+			this.size = size;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			boolean finished = true;
+			lock.lock();
+			try {
+				if (source.isClosed() || dataMergeSvr.isClosed()) {
+					return;
+				}
+				ByteBuffer buffer = source.allocate();
+				while (size != 0 && results.hasNext()) {
+					RowDataPacket row = results.next();
+					row.packetId = ++packetId;
+					buffer = row.write(buffer, source, true);
+					size--;
+					if (source.isWriteQueueFull()) {
+						if (buffer.position() > 0) {
+							source.write(buffer);
+						} else {
+							source.recycle(buffer);
+						}
+						finished = false;
+						session.waitWriteQueue(this);
+						return;
+					}
+				}
+
+				eof[3] = ++packetId;
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("last packet id:" + packetId);
+				}
+				source.write(source.writeToBuffer(eof, buffer));
+			} catch (Exception e) {
+				handleDataProcessException(e);
+			} finally {
+				lock.unlock();
+				if (finished) {
+					try {
+						done.run();
+					} finally {
+						dataMergeSvr.clear();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * write a row of the streaming order by merge, called by the merge thread
+	 * 
+	 * @param buffer
+	 *            current buffer, null to allocate a new one
+	 * @return buffer to write the next row to
+	 */
+	public ByteBuffer writeMergedRow(final ServerConnection source,
+			byte[] row, ByteBuffer buffer) {
+		lock.lock();
+		try {
+			if (buffer == null) {
+				buffer = source.allocate();
 			}
+			row[3] = ++packetId;
+			return source.writeToBuffer(row, buffer);
+		} finally {
+			lock.unlock();
+		}
+	}
 
+	/**
+	 * finish the streaming order by merge with the eof packet
+	 */
+	public void outputStreamMergeEnd(final ServerConnection source,
+			final byte[] eof, ByteBuffer buffer) {
+		try {
+			lock.lock();
+			if (buffer == null) {
+				buffer = source.allocate();
+			}
 			eof[3] = ++packetId;
 			if (LOGGER.isDebugEnabled()) {
 				LOGGER.debug("last packet id:" + packetId);
 			}
 			source.write(source.writeToBuffer(eof, buffer));
-
 		} catch (Exception e) {
 			handleDataProcessException(e);
 		} finally {
@@ -342,7 +460,8 @@ public class MultiNodeQueryHandler extends MultiNodeHandler implements
 			//TODO: add by zhuam
 			//查询结果派发
 			QueryResult queryResult = new QueryResult(session.getSource().getUser(), 
-					rrs.getSqlType(), rrs.getStatement(), startTime);
+					rrs.getSqlType(), rrs.getStatement(), startTime,
+					rrs.getTables(), rrs.getSqlTemplate());
 			QueryResultDispatcher.dispatchQuery( queryResult );
 		}
 		if (fieldsReturned) {
@@ -478,11 +597,9 @@ public class MultiNodeQueryHandler extends MultiNodeHandler implements
 					.getAttachment();
 			String dataNode = rNode.getName();
 			if (dataMergeSvr != null) {
-				if (dataMergeSvr.onNewRecord(dataNode, row)) {
+				if (dataMergeSvr.onNewRecord(dataNode, row, conn)) {
 					isClosedByDiscard.set(true);
-					// canClose(conn, false);
-					// conn.discardClose("discard data");
-					// LOGGER.warn(conn);
+					cancelQuery(conn, rNode);
 				}
 			} else {
 				// cache primaryKey-> dataNode
@@ -497,6 +614,7 @@ public class MultiNodeQueryHandler extends MultiNodeHandler implements
 				}
 				row[3] = ++packetId;
 				session.getSource().write(row);
+				session.checkWriteQueue(conn);
 			}
 
 		} catch (Exception e) {
@@ -506,6 +624,50 @@ public class MultiNodeQueryHandler extends MultiNodeHandler implements
 		}
 	}
 
+	/**
+	 * the merge needs no more rows from the node, send KILL QUERY for it
+	 * through another connection of the same datasource, the query ends with
+	 * ER_QUERY_INTERRUPTED (or eof) and the connection goes back to the pool
+	 */
+	private void cancelQuery(BackendConnection conn, RouteResultsetNode node) {
+		if (!(conn instanceof MySQLConnection)
+				|| cancelledQuerys.containsKey(conn)) {
+			return;
+		}
+		KillConnectionHandler kill = new KillConnectionHandler(conn, session,
+				true);
+		cancelledQuerys.put(conn, kill);
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("cancel query of " + conn + " ,rows are discarded");
+		}
+		PhysicalDBNode dn = MycatServer.getInstance().getConfig()
+				.getDataNodes().get(node.getName());
+		try {
+			dn.getConnectionFromSameSource(null, true, conn, kill, node);
+		} catch (Exception e) {
+			LOGGER.warn("get killer connection failed for " + node, e);
+			kill.connectionError(e, null);
+		}
+	}
+
+	@Override
+	public void errorResponse(byte[] data, BackendConnection conn) {
+		if (cancelledQuerys.containsKey(conn)) {
+			if (ByteUtil.readUB2(data, 5) == ErrorCode.ER_QUERY_INTERRUPTED) {
+				// the cancelled query ended, the node is finished as if the
+				// eof came (eof is not used by the merge output)
+				rowEofResponse(null, conn);
+				return;
+			}
+			// a real failure before the kill took effect
+			KillConnectionHandler kill = cancelledQuerys.remove(conn);
+			if (!kill.isFinished()) {
+				conn.close("query failed, kill query not finished");
+			}
+		}
+		super.errorResponse(data, conn);
+	}
+
 	@Override
 	public void clearResources() {
 		if (dataMergeSvr != null) {
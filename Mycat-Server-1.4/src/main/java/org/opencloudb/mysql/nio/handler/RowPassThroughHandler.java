@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.mysql.nio.handler;
+
+import java.nio.ByteBuffer;
+
+import org.opencloudb.backend.BackendConnection;
+
+/**
+ * response handler that forwards row packets as they are, they are given in
+ * the read buffer of the backend connection instead of a new byte[]
+ */
+public interface RowPassThroughHandler extends ResponseHandler {
+
+	/**
+	 * @return true if the rows now can be taken from the read buffer, false
+	 *         if they must be inspected by {@link #rowResponse(byte[], BackendConnection)}
+	 */
+	boolean isRowPassThrough();
+
+	/**
+	 * 收到行数据包的响应处理, the packet is only valid during the call
+	 */
+	void rowResponse(ByteBuffer buffer, int offset, int length,
+			BackendConnection conn);
+
+}
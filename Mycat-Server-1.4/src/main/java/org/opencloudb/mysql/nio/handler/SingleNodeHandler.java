@@ -56,7 +56,7 @@ import org.opencloudb.util.StringUtil;
 /**
  * @author mycat
  */
-public class SingleNodeHandler implements ResponseHandler, Terminatable,
+public class SingleNodeHandler implements RowPassThroughHandler, Terminatable,
 		LoadDataResponseHandler {
 	private static final Logger LOGGER = Logger
 			.getLogger(SingleNodeHandler.class);
@@ -257,7 +257,8 @@ public class SingleNodeHandler implements ResponseHandler, Terminatable,
 			//TODO: add by zhuam
 			//查询结果派发
 			QueryResult queryResult = new QueryResult(session.getSource().getUser(), 
-					rrs.getSqlType(), rrs.getStatement(), startTime);
+					rrs.getSqlType(), rrs.getStatement(), startTime,
+					rrs.getTables(), rrs.getSqlTemplate());
 			QueryResultDispatcher.dispatchQuery( queryResult );
  
 		}
@@ -301,7 +302,8 @@ public class SingleNodeHandler implements ResponseHandler, Terminatable,
 			//TODO: add by zhuam
 			//查询结果派发
 			QueryResult queryResult = new QueryResult(session.getSource().getUser(), 
-					rrs.getSqlType(), rrs.getStatement(), startTime);
+					rrs.getSqlType(), rrs.getStatement(), startTime,
+					rrs.getTables(), rrs.getSqlTemplate());
 			QueryResultDispatcher.dispatchQuery( queryResult );
 
             header[3] = ++packetId;
@@ -338,9 +340,24 @@ public class SingleNodeHandler implements ResponseHandler, Terminatable,
 
             row[3] = ++packetId;
             buffer = session.getSource().writeToBuffer(row, allocBuffer());
+            session.checkWriteQueue(conn);
 
 	}
 
+	@Override
+	public boolean isRowPassThrough() {
+		// show tables of the default node filters the rows
+		return !isDefaultNodeShowTable;
+	}
+
+	@Override
+	public void rowResponse(ByteBuffer src, int offset, int length,
+			BackendConnection conn) {
+		buffer = session.getSource().writeToBuffer(src, offset, length,
+				++packetId, allocBuffer());
+		session.checkWriteQueue(conn);
+	}
+
 	@Override
 	public void writeQueueAvailable() {
 
@@ -98,7 +98,7 @@ public class AIOSocketWR extends SocketWR
 
             }
             // poll again
-            ByteBuffer buffer = con.writeQueue.poll();
+            ByteBuffer buffer = con.pollWriteQueue();
             // more data
             if (buffer != null)
             {
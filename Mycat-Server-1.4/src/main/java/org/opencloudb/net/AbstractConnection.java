@@ -30,6 +30,7 @@ import java.nio.channels.NetworkChannel;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.Strings;
 import org.apache.log4j.Logger;
@@ -59,6 +60,16 @@ public abstract class AbstractConnection implements NIOConnection {
 	protected volatile ByteBuffer writeBuffer;
 	// private volatile boolean writing = false;
 	protected final ConcurrentLinkedQueue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+	// buffers in writeQueue, ConcurrentLinkedQueue.size() is O(n)
+	protected final AtomicInteger writeQueueSize = new AtomicInteger();
+	// 写队列流控: 超过high water时暂停写入者, 降到一半以下时通知 writeQueueAvailable
+	private int writeQueueHighWater;
+	private final AtomicBoolean writeQueueBlocked = new AtomicBoolean(false);
+	// 暂停读的原因, 每个原因各自暂停和恢复, 全部清除后才恢复读
+	public static final int READ_PAUSE_WRITE_QUEUE = 1;
+	public static final int READ_PAUSE_MERGE_QUEUE = 2;
+	private final Object readPauseLock = new Object();
+	private int readPauses;
 	protected volatile int readBufferOffset;
 	protected final AtomicBoolean isClosed;
 	protected boolean isSocketClosed;
@@ -243,6 +254,105 @@ public abstract class AbstractConnection implements NIOConnection {
 		this.processor.getBufferPool().recycle(buffer);
 	}
 
+	/**
+	 * @param writeQueueHighWater
+	 *            buffers in the write queue to pause the writers, 0 means no
+	 *            flow control
+	 */
+	public void setWriteQueueHighWater(int writeQueueHighWater) {
+		this.writeQueueHighWater = writeQueueHighWater;
+	}
+
+	public int getWriteQueueSize() {
+		return writeQueueSize.get();
+	}
+
+	/**
+	 * @return true if the peer reads slower than we write, the writer should
+	 *         pause its source and call {@link #waitWriteQueueAvailable()}
+	 */
+	public boolean isWriteQueueFull() {
+		return writeQueueHighWater > 0
+				&& writeQueueSize.get() >= writeQueueHighWater;
+	}
+
+	/**
+	 * the writer has paused, {@link #writeQueueAvailable()} is called once
+	 * the queue is below the low water mark. the queued data is sent now,
+	 * buffers are only queued while rows are written
+	 */
+	public void waitWriteQueueAvailable() {
+		writeQueueBlocked.set(true);
+		this.socketWR.doNextWriteCheck();
+		// the queue may have drained before the flag was set
+		if (writeQueueSize.get() <= writeQueueHighWater / 2
+				&& writeQueueBlocked.compareAndSet(true, false)) {
+			writeQueueAvailable();
+		}
+	}
+
+	/**
+	 * the write queue is below the low water mark after the writers were
+	 * paused
+	 */
+	protected void writeQueueAvailable() {
+
+	}
+
+	final ByteBuffer pollWriteQueue() {
+		ByteBuffer buffer = writeQueue.poll();
+		if (buffer != null) {
+			int size = writeQueueSize.decrementAndGet();
+			processor.addWriteQueueSize(-1);
+			if (size <= writeQueueHighWater / 2
+					&& writeQueueBlocked.compareAndSet(true, false)) {
+				writeQueueAvailable();
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * stop reading from the socket for the reason, only for NIO connections
+	 * 
+	 * @param reason
+	 *            READ_PAUSE_WRITE_QUEUE or READ_PAUSE_MERGE_QUEUE
+	 */
+	public void pauseRead(int reason) {
+		if (!(socketWR instanceof NIOSocketWR)) {
+			return;
+		}
+		synchronized (readPauseLock) {
+			int old = readPauses;
+			readPauses = old | reason;
+			if (old == 0) {
+				((NIOSocketWR) socketWR).disableRead();
+			}
+		}
+	}
+
+	/**
+	 * clear the given pause reasons, reading goes on when no reason is left
+	 */
+	public void resumeRead(int reasons) {
+		synchronized (readPauseLock) {
+			int old = readPauses;
+			if ((old & reasons) == 0) {
+				return;
+			}
+			readPauses = old & ~reasons;
+			if (readPauses == 0) {
+				((NIOSocketWR) socketWR).enableRead();
+			}
+		}
+	}
+
+	public boolean isReadPaused() {
+		synchronized (readPauseLock) {
+			return readPauses != 0;
+		}
+	}
+
 	public void setHandler(NIOHandler handler) {
 		this.handler = handler;
 	}
@@ -298,6 +408,7 @@ public abstract class AbstractConnection implements NIOConnection {
 
 		// 循环处理字节信息
 		int offset = readBufferOffset, length = 0, position = buffer.position();
+		int packets = 0;
 		for (;;) {
 			length = getPacketLength(buffer, offset);
 			if (length == -1) {
@@ -307,10 +418,18 @@ public abstract class AbstractConnection implements NIOConnection {
 				break;
 			}
 			if (position >= offset + length) {
-				buffer.position(offset);
-				byte[] data = new byte[length];
-				buffer.get(data, 0, length);
-				handle(data);
+				// 透传的包直接从读缓冲区写出, 不复制到byte[]
+				NIOHandler theHandler = handler;
+				if (isSupportCompress()
+						|| !(theHandler instanceof PassThroughHandler)
+						|| !((PassThroughHandler) theHandler).handle(buffer,
+								offset, length)) {
+					buffer.position(offset);
+					byte[] data = new byte[length];
+					buffer.get(data, 0, length);
+					handle(data);
+				}
+				packets++;
 
 				offset += length;
 				if (position == offset) {
@@ -331,6 +450,9 @@ public abstract class AbstractConnection implements NIOConnection {
 				break;
 			}
 		}
+		if (packets > 0) {
+			processor.addNetInPackets(packets);
+		}
 	}
 
 	private ByteBuffer checkReadBuffer(ByteBuffer buffer, int offset,
@@ -372,6 +494,8 @@ public abstract class AbstractConnection implements NIOConnection {
         {
             writeQueue.offer(buffer);
         }
+        writeQueueSize.incrementAndGet();
+        processor.addWriteQueueSize(1);
 	}
 
 
@@ -386,6 +510,8 @@ public abstract class AbstractConnection implements NIOConnection {
         {
             writeQueue.offer(buffer);
         }
+        writeQueueSize.incrementAndGet();
+        processor.addWriteQueueSize(1);
 
 		// if ansyn write finishe event got lock before me ,then writing
 		// flag is set false but not start a write request
@@ -440,6 +566,38 @@ public abstract class AbstractConnection implements NIOConnection {
 		return buffer;
 	}
 
+	/**
+	 * copy a packet from the buffer of another connection with a new packet
+	 * id, no byte[] is created. the position and limit of src are not changed
+	 */
+	public ByteBuffer writeToBuffer(ByteBuffer src, int offset, int length,
+			byte packetId, ByteBuffer buffer) {
+		if (buffer.remaining() < 4) {
+			writeNotSend(buffer);
+			buffer = allocate();
+		}
+		buffer.put(src.get(offset));
+		buffer.put(src.get(offset + 1));
+		buffer.put(src.get(offset + 2));
+		buffer.put(packetId);
+		ByteBuffer packet = src.duplicate();
+		int pos = offset + 4;
+		int end = offset + length;
+		while (pos < end) {
+			if (!buffer.hasRemaining()) {
+				writeNotSend(buffer);
+				buffer = allocate();
+			}
+			int n = Math.min(buffer.remaining(), end - pos);
+			packet.clear();
+			packet.limit(pos + n);
+			packet.position(pos);
+			buffer.put(packet);
+			pos += n;
+		}
+		return buffer;
+	}
+
 	@Override
 	public void close(String reason) {
 		if (!isClosed.get()) {
@@ -496,8 +654,11 @@ public abstract class AbstractConnection implements NIOConnection {
         {
             compressUnfinishedDataQueue.clear();
         }
+		// counted per buffer like write(), a concurrent write stays in step
 		ByteBuffer buffer = null;
 		while ((buffer = writeQueue.poll()) != null) {
+			writeQueueSize.decrementAndGet();
+			processor.addWriteQueueSize(-1);
 			recycle(buffer);
 		}
 	}
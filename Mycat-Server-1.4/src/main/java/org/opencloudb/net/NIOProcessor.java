@@ -34,8 +34,10 @@ import org.apache.log4j.Logger;
 import org.opencloudb.MycatServer;
 import org.opencloudb.backend.BackendConnection;
 import org.opencloudb.buffer.BufferPool;
+import org.opencloudb.mysql.nio.MySQLConnection;
 import org.opencloudb.statistic.CommandCount;
 import org.opencloudb.util.NameableExecutor;
+import org.opencloudb.util.StripedCounter;
 import org.opencloudb.util.TimeUtil;
 
 /**
@@ -43,14 +45,19 @@ import org.opencloudb.util.TimeUtil;
  */
 public final class NIOProcessor {
 	private static final Logger LOGGER = Logger.getLogger("NIOProcessor");
+	private static final int STRIPES = 4;
 	private final String name;
 	private final BufferPool bufferPool;
 	private final NameableExecutor executor;
 	private final ConcurrentMap<Long, FrontendConnection> frontends;
 	private final ConcurrentMap<Long, BackendConnection> backends;
 	private final CommandCount commands;
-	private long netInBytes;
-	private long netOutBytes;
+	// 多个reactor和AIO线程同时更新, 使用分段计数器, 读取时汇总
+	private final StripedCounter netInBytes = new StripedCounter(STRIPES);
+	private final StripedCounter netOutBytes = new StripedCounter(STRIPES);
+	private final StripedCounter netInPackets = new StripedCounter(STRIPES);
+	// 本处理器下所有连接写队列中的buffer数, 入队出队时增量维护
+	private final StripedCounter writeQueueSize = new StripedCounter(STRIPES);
 	
 	//前端已连接数
 	private AtomicInteger frontendsLength = new AtomicInteger(0);
@@ -74,17 +81,11 @@ public final class NIOProcessor {
 	}
 
 	public int getWriteQueueSize() {
-		int total = 0;
-		for (FrontendConnection fron : frontends.values()) {
-			total += fron.getWriteQueue().size();
-		}
-		for (BackendConnection back : backends.values()) {
-			if (back instanceof BackendAIOConnection) {
-				total += ((BackendAIOConnection) back).getWriteQueue().size();
-			}
-		}
-		return total;
+		return (int) writeQueueSize.get();
+	}
 
+	void addWriteQueueSize(int delta) {
+		writeQueueSize.add(delta);
 	}
 
 	public NameableExecutor getExecutor() {
@@ -96,19 +97,31 @@ public final class NIOProcessor {
 	}
 
 	public long getNetInBytes() {
-		return this.netInBytes;
+		return this.netInBytes.get();
 	}
 
 	public void addNetInBytes(long bytes) {
-		this.netInBytes += bytes;
+		this.netInBytes.add(bytes);
 	}
 
 	public long getNetOutBytes() {
-		return this.netOutBytes;
+		return this.netOutBytes.get();
 	}
 
 	public void addNetOutBytes(long bytes) {
-		this.netOutBytes += bytes;
+		this.netOutBytes.add(bytes);
+	}
+
+	public long getNetInPackets() {
+		return this.netInPackets.get();
+	}
+
+	public void addNetInPackets(long packets) {
+		this.netInPackets.add(packets);
+	}
+
+	public int getBackendsLength() {
+		return this.backends.size();
 	}
 
 	public void addFrontend(FrontendConnection c) {
@@ -198,6 +211,9 @@ public final class NIOProcessor {
 							- sqlTimeout) {
 				LOGGER.warn("found backend connection SQL timeout ,close it "
 						+ c);
+				if (c instanceof MySQLConnection) {
+					((MySQLConnection) c).getPool().onFailure("sql timeout");
+				}
 				c.close("sql timeout");
 			}
 
@@ -5,6 +5,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.opencloudb.util.TimeUtil;
@@ -16,6 +17,9 @@ public class NIOSocketWR extends SocketWR {
 	private final AbstractConnection con;
 	private final SocketChannel channel;
 	private final AtomicBoolean writing = new AtomicBoolean(false);
+	// queued buffers sent by one gathering write
+	private static final int MAX_GATHER = 64;
+	private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
 
 	public NIOSocketWR(AbstractConnection con) {
 		this.con = con;
@@ -86,34 +90,67 @@ public class NIOSocketWR extends SocketWR {
 				con.recycle(buffer);
 			}
 		}
-		while ((buffer = con.writeQueue.poll()) != null) {
-			if (buffer.limit() == 0) {
-				con.recycle(buffer);
+		for (;;) {
+			// the queued buffers stay in the queue until they are written,
+			// they are read through flipped duplicates
+			int count = 0;
+			for (ByteBuffer queued : con.writeQueue) {
+				if (queued.limit() == 0) {
+					break;
+				}
+				ByteBuffer dup = queued.duplicate();
+				dup.flip();
+				gather[count++] = dup;
+				if (count == MAX_GATHER) {
+					break;
+				}
+			}
+			if (count == 0) {
+				buffer = con.writeQueue.peek();
+				if (buffer == null) {
+					return true;
+				} else if (buffer.limit() != 0) {
+					// queued after the loop above
+					continue;
+				}
+				// quit
+				con.recycle(con.pollWriteQueue());
 				con.close("quit send");
 				return true;
 			}
 
-			buffer.flip();
-			while (buffer.hasRemaining()) {
-				written = channel.write(buffer);
-				if (written > 0) {
-					con.lastWriteTime = TimeUtil.currentTimeMillis();
-					con.netOutBytes += written;
-					con.processor.addNetOutBytes(written);
-					con.lastWriteTime = TimeUtil.currentTimeMillis();
-				} else {
-					break;
-				}
+			long n = channel.write(gather, 0, count);
+			if (n > 0) {
+				con.netOutBytes += n;
+				con.processor.addNetOutBytes(n);
+				con.lastWriteTime = TimeUtil.currentTimeMillis();
 			}
-			if (buffer.hasRemaining()) {
-				con.writeBuffer = buffer;
-				con.writeAttempts++;
-				return false;
-			} else {
+			for (int i = 0; i < count; i++) {
+				ByteBuffer dup = gather[i];
+				gather[i] = null;
+				if (dup.hasRemaining()) {
+					if (dup.position() > 0) {
+						// partly written, go on with it next time
+						buffer = con.pollWriteQueue();
+						if (buffer != null) {
+							buffer.flip();
+							buffer.position(dup.position());
+							con.writeBuffer = buffer;
+						}
+					}
+					Arrays.fill(gather, i + 1, count, null);
+					con.writeAttempts++;
+					return false;
+				}
+				buffer = con.pollWriteQueue();
+				if (buffer == null) {
+					// cleared by close
+					Arrays.fill(gather, i + 1, count, null);
+					return true;
+				}
 				con.recycle(buffer);
 			}
 		}
-		return true;
 	}
 
 	private void disableWrite() {
@@ -143,9 +180,12 @@ public class NIOSocketWR extends SocketWR {
 	}
 
 	public void disableRead() {
-
-		SelectionKey key = this.processKey;
-		key.interestOps(key.interestOps() & OP_NOT_READ);
+		try {
+			SelectionKey key = this.processKey;
+			key.interestOps(key.interestOps() & OP_NOT_READ);
+		} catch (Exception e) {
+			AbstractConnection.LOGGER.warn("disable read fail " + e);
+		}
 	}
 
 	public void enableRead() {
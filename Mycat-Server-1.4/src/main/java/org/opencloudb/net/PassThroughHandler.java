@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * a handler that can take packets straight from the read buffer of the
+ * connection, so forwarded packets are not copied to a byte[] first
+ */
+public interface PassThroughHandler extends NIOHandler {
+
+	/**
+	 * called in the read thread before the packet is copied
+	 * 
+	 * @param buffer
+	 *            read buffer, only valid during the call, its position and
+	 *            limit must not be changed
+	 * @param offset
+	 *            start of the packet (header included)
+	 * @param length
+	 *            packet length (header included)
+	 * @return true if the packet was handled, false to get it by
+	 *         {@link #handle(byte[])}
+	 */
+	boolean handle(ByteBuffer buffer, int offset, int length);
+
+}
@@ -70,6 +70,7 @@ public final class ManagerParseShow {
     public static final int DATASOURCE_SYNC = 36;
     public static final int DATASOURCE_SYNC_DETAIL = 37;
     public static final int DATASOURCE_CLUSTER = 38;
+    public static final int METRICS = 39;
 
     
     public static int parse(String stmt, int offset) {
@@ -117,6 +118,9 @@ public final class ManagerParseShow {
                 case 'H':
                 case 'h':
                     return show2HCheck(stmt, offset);
+                case 'M':
+                case 'm':
+                    return show2MCheck(stmt, offset);
                 case 'P':
                 case 'p':
                     return show2PCheck(stmt, offset);
@@ -902,6 +906,26 @@ public final class ManagerParseShow {
         return OTHER;
     }
 
+    // SHOW @@METRICS
+    static int show2MCheck(String stmt, int offset) {
+        if (stmt.length() > offset + "ETRICS".length()) {
+            char c1 = stmt.charAt(++offset);
+            char c2 = stmt.charAt(++offset);
+            char c3 = stmt.charAt(++offset);
+            char c4 = stmt.charAt(++offset);
+            char c5 = stmt.charAt(++offset);
+            char c6 = stmt.charAt(++offset);
+            if ((c1 == 'E' || c1 == 'e') && (c2 == 'T' || c2 == 't') && (c3 == 'R' || c3 == 'r')
+                    && (c4 == 'I' || c4 == 'i') && (c5 == 'C' || c5 == 'c') && (c6 == 'S' || c6 == 's')) {
+                if (stmt.length() > ++offset && stmt.charAt(offset) != ' ') {
+                    return OTHER;
+                }
+                return METRICS;
+            }
+        }
+        return OTHER;
+    }
+
     // SHOW @@PARSER
     static int show2PaCheck(String stmt, int offset) {
         if (stmt.length() > offset + "RSER".length()) {
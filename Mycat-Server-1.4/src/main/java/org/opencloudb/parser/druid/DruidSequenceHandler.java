@@ -1,29 +1,29 @@
 package org.opencloudb.parser.druid;
 
-import java.io.UnsupportedEncodingException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.opencloudb.config.model.SystemConfig;
+import org.opencloudb.sequence.handler.BatchSequenceHandler;
 import org.opencloudb.sequence.handler.IncrSequenceTimeHandler;
 import org.opencloudb.sequence.handler.IncrSequenceMySQLHandler;
 import org.opencloudb.sequence.handler.IncrSequencePropHandler;
 import org.opencloudb.sequence.handler.SequenceHandler;
-import org.opencloudb.util.StringUtil;
 
 /**
- * 使用Druid解析器实现对Sequence处理
+ * 把 next value for MYCATSEQ_xxx 替换为序列值。
+ * 逐字符扫描SQL, 跳过字符串和注释, 不做完整的语法解析;
+ * 同一序列出现多次(多行insert)时一次取回所需的值
  * @author 兵临城下
  * @date 2015/03/13
  */
 public class DruidSequenceHandler {
 	private final SequenceHandler sequenceHandler;
 
-	/** 获取MYCAT SEQ的匹配语句 */
-	private final static String MATCHED_FEATURE = "NEXT VALUE FOR MYCATSEQ_";
+	private static final String SEQ_PREFIX = "MYCATSEQ_";
 
-    private final static   Pattern pattern = Pattern.compile("(?:(\\s*next\\s+value\\s+for\\s*MYCATSEQ_(\\w+))(,|\\)|\\s)*)+", Pattern.CASE_INSENSITIVE);
-	
 	public DruidSequenceHandler(int seqHandlerType) {
 		switch(seqHandlerType){
 		case SystemConfig.SEQUENCEHANDLER_MYSQLDB:
@@ -40,42 +40,233 @@ public class DruidSequenceHandler {
 		}
 	}
 
+	public boolean hasSequence(String sql) {
+		return sql != null && !scan(sql, 1).isEmpty();
+	}
+
 	/**
-	 * 根据原sql获取可执行的sql
+	 * 取值不会阻塞当前线程, 可以在NIO线程上调用 tryGetExecuteSql.
+	 * 本地文件序列每次取值都要读写文件, 只能在业务线程上执行
+	 */
+	public boolean isNonBlocking() {
+		return sequenceHandler instanceof IncrSequenceMySQLHandler
+				|| sequenceHandler instanceof IncrSequenceTimeHandler;
+	}
+
+	/**
+	 * 根据原sql获取可执行的sql, 可能等待取号
 	 * @param sql
-	 * @return
-	 * @throws UnsupportedEncodingException
+	 * @return 不含序列语法时返回null
 	 */
-	public String getExecuteSql(String sql,String charset) throws UnsupportedEncodingException{
-		String executeSql = null;
-		if (null!=sql && !"".equals(sql)) {
-             //sql不能转大写，因为sql可能是insert语句会把values也给转换了
-			// 获取表名。
-            Matcher matcher = pattern.matcher(sql);
-              if(matcher.find())
-              {
-                  String tableName = matcher.group(2);
-                  long value = sequenceHandler.nextId(tableName.toUpperCase());
+	public String getExecuteSql(String sql) {
+		return getExecuteSql(sql, null);
+	}
 
-                  // 将MATCHED_FEATURE+表名替换成序列号。
-                  executeSql = sql.replace(matcher.group(1), " "+value);
-              }
+	/**
+	 * 不等待取号的 getExecuteSql, 调用前先用 hasSequence 判断.
+	 * 库表序列没有可用号段时返回 null, 取号结束后在取号的线程上执行 onFetched
+	 */
+	public String tryGetExecuteSql(String sql, Runnable onFetched) {
+		return getExecuteSql(sql, onFetched);
+	}
+
+	private String getExecuteSql(String sql, Runnable onFetched) {
+		if (sql == null || sql.isEmpty()) {
+			return null;
+		}
+		List<SeqToken> tokens = scan(sql, Integer.MAX_VALUE);
+		if (tokens.isEmpty()) {
+			return null;
+		}
 
+		Map<String, int[]> counts = new HashMap<String, int[]>();
+		for (SeqToken token : tokens) {
+			int[] count = counts.get(token.name);
+			if (count == null) {
+				counts.put(token.name, new int[] { 1 });
+			} else {
+				count[0]++;
+			}
 		}
-		return executeSql;
+		Map<String, long[]> values = new HashMap<String, long[]>(counts.size());
+		for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+			long[] ids = nextIds(entry.getKey(), entry.getValue()[0], onFetched);
+			if (ids == null) {
+				return null;
+			}
+			values.put(entry.getKey(), ids);
+		}
+
+		// 按出现顺序依次使用取回的值
+		StringBuilder sb = new StringBuilder(sql.length() + tokens.size() * 4);
+		int pos = 0;
+		for (SeqToken token : tokens) {
+			int[] used = counts.get(token.name);
+			long[] ids = values.get(token.name);
+			sb.append(sql, pos, token.start).append(ids[ids.length - used[0]--]);
+			pos = token.end;
+		}
+		sb.append(sql, pos, sql.length());
+		return sb.toString();
 	}
 
+	private long[] nextIds(String name, int count, Runnable onFetched) {
+		if (onFetched != null && sequenceHandler instanceof IncrSequenceMySQLHandler) {
+			return ((IncrSequenceMySQLHandler) sequenceHandler).tryNextIds(name,
+					count, onFetched);
+		}
+		if (count > 1 && sequenceHandler instanceof BatchSequenceHandler) {
+			return ((BatchSequenceHandler) sequenceHandler).nextIds(name, count);
+		}
+		long[] ids = new long[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = sequenceHandler.nextId(name);
+		}
+		return ids;
+	}
 
     //just for test
 	public String getTableName(String sql) {
-        Matcher matcher = pattern.matcher(sql);
-        if(matcher.find())
-        {
-          return  matcher.group(2);
-        }
-        return null;
+		List<SeqToken> tokens = scan(sql, 1);
+		return tokens.isEmpty() ? null : tokens.get(0).name;
 	}
 
+	/**
+	 * 序列在SQL中的位置 [start, end), name 为大写的序列名
+	 */
+	static final class SeqToken {
+		final int start;
+		final int end;
+		final String name;
+
+		SeqToken(int start, int end, String name) {
+			this.start = start;
+			this.end = end;
+			this.name = name;
+		}
+	}
 
+	static List<SeqToken> scan(String sql, int limit) {
+		List<SeqToken> tokens = new ArrayList<SeqToken>(2);
+		int len = sql.length();
+		int i = 0;
+		while (i < len && tokens.size() < limit) {
+			char c = sql.charAt(i);
+			switch (c) {
+			case '\'':
+			case '"':
+			case '`':
+				i = skipQuoted(sql, i, c);
+				break;
+			case '/':
+				if (i + 1 < len && sql.charAt(i + 1) == '*') {
+					int end = sql.indexOf("*/", i + 2);
+					i = end < 0 ? len : end + 2;
+				} else {
+					i++;
+				}
+				break;
+			case '#':
+				i = skipLine(sql, i);
+				break;
+			case '-':
+				if (i + 2 < len && sql.charAt(i + 1) == '-'
+						&& sql.charAt(i + 2) <= ' ') {
+					i = skipLine(sql, i);
+				} else {
+					i++;
+				}
+				break;
+			case 'n':
+			case 'N':
+				if (i == 0 || !isIdentifierChar(sql.charAt(i - 1))) {
+					int end = matchSequence(sql, i, tokens);
+					if (end > 0) {
+						i = end;
+						break;
+					}
+				}
+				i++;
+				break;
+			default:
+				i++;
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * 匹配 NEXT VALUE FOR MYCATSEQ_name
+	 *
+	 * @return 匹配结束的位置, 不匹配时返回 -1
+	 */
+	private static int matchSequence(String sql, int start, List<SeqToken> tokens) {
+		int i = matchKeyword(sql, start, "NEXT");
+		if (i < 0 || (i = skipWhitespace(sql, i, 1)) < 0) {
+			return -1;
+		}
+		i = matchKeyword(sql, i, "VALUE");
+		if (i < 0 || (i = skipWhitespace(sql, i, 1)) < 0) {
+			return -1;
+		}
+		i = matchKeyword(sql, i, "FOR");
+		if (i < 0 || (i = skipWhitespace(sql, i, 0)) < 0) {
+			return -1;
+		}
+		if (!sql.regionMatches(true, i, SEQ_PREFIX, 0, SEQ_PREFIX.length())) {
+			return -1;
+		}
+		int nameStart = i + SEQ_PREFIX.length();
+		int end = nameStart;
+		while (end < sql.length() && isIdentifierChar(sql.charAt(end))) {
+			end++;
+		}
+		if (end == nameStart) {
+			return -1;
+		}
+		tokens.add(new SeqToken(start, end, sql.substring(nameStart, end)
+				.toUpperCase()));
+		return end;
+	}
+
+	private static int matchKeyword(String sql, int i, String keyword) {
+		return sql.regionMatches(true, i, keyword, 0, keyword.length()) ? i
+				+ keyword.length() : -1;
+	}
+
+	private static int skipWhitespace(String sql, int i, int min) {
+		int start = i;
+		while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) {
+			i++;
+		}
+		return i - start >= min ? i : -1;
+	}
+
+	private static int skipQuoted(String sql, int i, char quote) {
+		int len = sql.length();
+		for (i++; i < len; i++) {
+			char c = sql.charAt(i);
+			if (c == '\\' && quote != '`') {
+				i++;
+			} else if (c == quote) {
+				// 连续两个引号为转义
+				if (i + 1 < len && sql.charAt(i + 1) == quote) {
+					i++;
+				} else {
+					return i + 1;
+				}
+			}
+		}
+		return len;
+	}
+
+	private static int skipLine(String sql, int i) {
+		int end = sql.indexOf('\n', i);
+		return end < 0 ? sql.length() : end + 1;
+	}
+
+	private static boolean isIdentifierChar(char c) {
+		return c == '_' || c == '$' || Character.isLetterOrDigit(c);
+	}
 
 }
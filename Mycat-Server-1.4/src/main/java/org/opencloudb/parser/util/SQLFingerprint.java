@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.parser.util;
+
+import java.util.Arrays;
+
+/**
+ * SQL 指纹: 只做词法扫描, 把数字和字符串常量替换成 ?, 连续空白合并成一个空格,
+ * 同一模板不同参数的SQL得到相同的 template.<br>
+ * 常量按出现顺序保存, 可以取原文(含引号)或去掉转义后的值.
+ * 
+ * <pre>
+ * select * from orders where id = 1 and name='a'
+ * =&gt; select * from orders where id = ? and name=?
+ * </pre>
+ * 
+ * @author mycat
+ */
+public final class SQLFingerprint {
+	private final String sql;
+	private final String template;
+	private final String[] values;
+	private final int[] starts;
+	private final int[] ends;
+	private final boolean[] strings;
+	private final int count;
+
+	private SQLFingerprint(String sql, String template, String[] values,
+			int[] starts, int[] ends, boolean[] strings, int count) {
+		this.sql = sql;
+		this.template = template;
+		this.values = values;
+		this.starts = starts;
+		this.ends = ends;
+		this.strings = strings;
+		this.count = count;
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	public String getTemplate() {
+		return template;
+	}
+
+	public int getLiteralCount() {
+		return count;
+	}
+
+	/**
+	 * @return 常量值, 字符串已去掉引号和转义
+	 */
+	public String getLiteral(int index) {
+		return values[index];
+	}
+
+	/**
+	 * @return 常量在原SQL中的文本
+	 */
+	public String getLiteralText(int index) {
+		return sql.substring(starts[index], ends[index]);
+	}
+
+	public int getLiteralStart(int index) {
+		return starts[index];
+	}
+
+	public int getLiteralEnd(int index) {
+		return ends[index];
+	}
+
+	public boolean isStringLiteral(int index) {
+		return strings[index];
+	}
+
+	public static SQLFingerprint parse(String sql) {
+		final int len = sql.length();
+		StringBuilder template = new StringBuilder(len);
+		String[] values = new String[8];
+		int[] starts = new int[8];
+		int[] ends = new int[8];
+		boolean[] strings = new boolean[8];
+		int count = 0;
+		int i = 0;
+		while (i < len) {
+			char c = sql.charAt(i);
+			int start = i;
+			String value = null;
+			boolean isString = false;
+			if (isWhitespace(c)) {
+				while (++i < len && isWhitespace(sql.charAt(i))) {
+				}
+				if (template.length() > 0) {
+					template.append(' ');
+				}
+				continue;
+			} else if (c == '\'' || c == '"') {
+				StringBuilder sb = new StringBuilder();
+				i = parseString(sql, i, c, sb);
+				value = sb.toString();
+				isString = true;
+			} else if (c == '`') {
+				i = skipTo(sql, i + 1, "`");
+				template.append(sql, start, i);
+				continue;
+			} else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+				i = skipTo(sql, i + 2, "*/");
+				template.append(sql, start, i);
+				continue;
+			} else if (c == '#' || (c == '-' && i + 2 < len
+					&& sql.charAt(i + 1) == '-' && isWhitespace(sql.charAt(i + 2)))) {
+				int pos = sql.indexOf('\n', i);
+				i = pos < 0 ? len : pos;
+				template.append(sql, start, i);
+				continue;
+			} else if (CharTypes.isDigit(c)) {
+				i = parseNumber(sql, i);
+				if (i < len && isIdentifierChar(sql.charAt(i))) {
+					// 1abc, 0x1F 之类按标识符处理
+					while (i < len && isIdentifierChar(sql.charAt(i))) {
+						i++;
+					}
+					template.append(sql, start, i);
+					continue;
+				}
+				value = sql.substring(start, i);
+			} else if (isIdentifierChar(c)) {
+				while (++i < len && isIdentifierChar(sql.charAt(i))) {
+				}
+				template.append(sql, start, i);
+				continue;
+			} else {
+				template.append(c);
+				i++;
+				continue;
+			}
+
+			if (count == values.length) {
+				int newLen = count << 1;
+				values = Arrays.copyOf(values, newLen);
+				starts = Arrays.copyOf(starts, newLen);
+				ends = Arrays.copyOf(ends, newLen);
+				strings = Arrays.copyOf(strings, newLen);
+			}
+			values[count] = value;
+			starts[count] = start;
+			ends[count] = i;
+			strings[count] = isString;
+			count++;
+			template.append('?');
+		}
+		int end = template.length();
+		while (end > 0 && template.charAt(end - 1) == ' ') {
+			end--;
+		}
+		template.setLength(end);
+		return new SQLFingerprint(sql, template.toString(), values, starts,
+				ends, strings, count);
+	}
+
+	/**
+	 * @return 字符串结束引号之后的位置
+	 */
+	private static int parseString(String sql, int offset, char quote,
+			StringBuilder sb) {
+		final int len = sql.length();
+		for (++offset; offset < len; ++offset) {
+			char c = sql.charAt(offset);
+			if (c == '\\' && offset + 1 < len) {
+				switch (c = sql.charAt(++offset)) {
+				case '0':
+					sb.append('\0');
+					break;
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'Z':
+					sb.append((char) 26);
+					break;
+				default:
+					sb.append(c);
+				}
+			} else if (c == quote) {
+				if (offset + 1 < len && sql.charAt(offset + 1) == quote) {
+					++offset;
+					sb.append(quote);
+				} else {
+					return offset + 1;
+				}
+			} else {
+				sb.append(c);
+			}
+		}
+		return len;
+	}
+
+	/**
+	 * 123, 1.5, 1e10, 1.5E-3
+	 */
+	private static int parseNumber(String sql, int offset) {
+		final int len = sql.length();
+		while (offset < len && CharTypes.isDigit(sql.charAt(offset))) {
+			offset++;
+		}
+		if (offset + 1 < len && sql.charAt(offset) == '.'
+				&& CharTypes.isDigit(sql.charAt(offset + 1))) {
+			offset++;
+			while (offset < len && CharTypes.isDigit(sql.charAt(offset))) {
+				offset++;
+			}
+		}
+		if (offset + 1 < len
+				&& (sql.charAt(offset) == 'e' || sql.charAt(offset) == 'E')) {
+			int exp = offset + 1;
+			if (exp + 1 < len
+					&& (sql.charAt(exp) == '+' || sql.charAt(exp) == '-')) {
+				exp++;
+			}
+			if (CharTypes.isDigit(sql.charAt(exp))) {
+				offset = exp;
+				while (offset < len && CharTypes.isDigit(sql.charAt(offset))) {
+					offset++;
+				}
+			}
+		}
+		return offset;
+	}
+
+	private static int skipTo(String sql, int offset, String end) {
+		int pos = sql.indexOf(end, offset);
+		return pos < 0 ? sql.length() : pos + end.length();
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c < 0x80 && CharTypes.isWhitespace(c);
+	}
+
+	private static boolean isIdentifierChar(char c) {
+		return c >= 0x80 || CharTypes.isIdentifierChar(c);
+	}
+
+}
@@ -123,6 +123,7 @@ public final class ShowHelp {
         helps.put("show @@datasource.cluster", "Report datasource galary cluster variables");
         helps.put("show @@processor", "Report processor status");
         helps.put("show @@command", "Report commands status");
+        helps.put("show @@metrics", "Report processor, datasource and buffer metrics as name/value rows");
         helps.put("show @@connection", "Report connection status");
         helps.put("show @@cache", "Report system cache usage");
         helps.put("show @@backend", "Report backend connection status");
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.response;
+
+import java.nio.ByteBuffer;
+
+import org.opencloudb.MycatServer;
+import org.opencloudb.backend.ConWaitQueue;
+import org.opencloudb.backend.PhysicalDBPool;
+import org.opencloudb.backend.PhysicalDatasource;
+import org.opencloudb.buffer.BufferPool;
+import org.opencloudb.config.Fields;
+import org.opencloudb.manager.ManagerConnection;
+import org.opencloudb.mysql.PacketUtil;
+import org.opencloudb.net.NIOProcessor;
+import org.opencloudb.net.mysql.EOFPacket;
+import org.opencloudb.net.mysql.FieldPacket;
+import org.opencloudb.net.mysql.ResultSetHeaderPacket;
+import org.opencloudb.net.mysql.RowDataPacket;
+import org.opencloudb.statistic.CommandCount;
+import org.opencloudb.util.LongUtil;
+import org.opencloudb.util.StringUtil;
+
+/**
+ * 以 名称/值 的形式导出处理器、数据源和缓冲池的计数, 便于监控系统采集。
+ * 所有值都来自增量维护的计数器, 不遍历连接
+ * 
+ * @author mycat
+ */
+public final class ShowMetrics {
+
+    private static final int FIELD_COUNT = 2;
+    private static final ResultSetHeaderPacket header = PacketUtil.getHeader(FIELD_COUNT);
+    private static final FieldPacket[] fields = new FieldPacket[FIELD_COUNT];
+    private static final EOFPacket eof = new EOFPacket();
+    static {
+        int i = 0;
+        byte packetId = 0;
+        header.packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("NAME", Fields.FIELD_TYPE_VAR_STRING);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("VALUE", Fields.FIELD_TYPE_LONGLONG);
+        fields[i++].packetId = ++packetId;
+
+        eof.packetId = ++packetId;
+    }
+
+    public static void execute(ManagerConnection c) {
+        ByteBuffer buffer = c.allocate();
+
+        // write header
+        buffer = header.write(buffer, c,true);
+
+        // write fields
+        for (FieldPacket field : fields) {
+            buffer = field.write(buffer, c,true);
+        }
+
+        // write eof
+        buffer = eof.write(buffer, c,true);
+
+        // write rows
+        Rows rows = new Rows(c, buffer, eof.packetId);
+        for (NIOProcessor p : MycatServer.getInstance().getProcessors()) {
+            String prefix = "processor." + p.getName() + ".";
+            rows.add(prefix + "net_in_bytes", p.getNetInBytes());
+            rows.add(prefix + "net_out_bytes", p.getNetOutBytes());
+            rows.add(prefix + "net_in_packets", p.getNetInPackets());
+            rows.add(prefix + "write_queue", p.getWriteQueueSize());
+            rows.add(prefix + "frontends", p.getForntedsLength());
+            rows.add(prefix + "backends", p.getBackendsLength());
+
+            CommandCount cc = p.getCommands();
+            rows.add(prefix + "command.init_db", cc.initDBCount());
+            rows.add(prefix + "command.query", cc.queryCount());
+            rows.add(prefix + "command.stmt_prepare", cc.stmtPrepareCount());
+            rows.add(prefix + "command.stmt_execute", cc.stmtExecuteCount());
+            rows.add(prefix + "command.stmt_close", cc.stmtCloseCount());
+            rows.add(prefix + "command.ping", cc.pingCount());
+            rows.add(prefix + "command.kill", cc.killCount());
+            rows.add(prefix + "command.quit", cc.quitCount());
+            rows.add(prefix + "command.heartbeat", cc.heartbeat());
+            rows.add(prefix + "command.other", cc.otherCount());
+        }
+
+        for (PhysicalDBPool pool : MycatServer.getInstance().getConfig().getDataHosts().values()) {
+            for (PhysicalDatasource ds : pool.getAllDataSources()) {
+                if (ds == null) {
+                    continue;
+                }
+                String prefix = "datasource." + pool.getHostName() + "." + ds.getName() + ".";
+                ConWaitQueue waitQueue = ds.getWaitQueue();
+                rows.add(prefix + "active", ds.getActiveCount());
+                rows.add(prefix + "idle", ds.getIdleCount());
+                rows.add(prefix + "creating", ds.getCreatingCount());
+                rows.add(prefix + "schema_hits", ds.getSchemaHits());
+                rows.add(prefix + "schema_switches", ds.getSchemaSwitches());
+                rows.add(prefix + "latency_us", ds.getLatency());
+                rows.add(prefix + "breaker_state", ds.getBreaker().getState());
+                rows.add(prefix + "breaker_opens", ds.getBreaker().getOpenCount());
+                rows.add(prefix + "breaker_rejects", ds.getBreaker().getRejectCount());
+                rows.add(prefix + "heartbeat_skips", ds.getHeartbeatSkips());
+                rows.add(prefix + "waiters", waitQueue.size());
+                rows.add(prefix + "acquire_waits", waitQueue.getWaitCount());
+                rows.add(prefix + "acquire_wait_time", waitQueue.getWaitTime());
+                rows.add(prefix + "acquire_max_wait_time", waitQueue.getMaxWaitTime());
+                rows.add(prefix + "acquire_timeouts", waitQueue.getTimeoutCount());
+            }
+        }
+
+        // 所有处理器共用一个缓冲池
+        BufferPool bufferPool = MycatServer.getInstance().getBufferPool();
+        rows.add("buffer.capacity", bufferPool.capacity());
+        rows.add("buffer.free", bufferPool.size());
+        rows.add("buffer.outstanding", bufferPool.getOutstandingCount());
+        rows.add("buffer.hits", bufferPool.getHitCount());
+        rows.add("buffer.misses", bufferPool.getMissCount());
+        rows.add("buffer.overflows", bufferPool.getOverflowCount());
+        rows.add("buffer.shared_opts", bufferPool.getSharedOptsCount());
+
+        // write last eof
+        EOFPacket lastEof = new EOFPacket();
+        lastEof.packetId = ++rows.packetId;
+        buffer = lastEof.write(rows.buffer, c,true);
+
+        // write buffer
+        c.write(buffer);
+    }
+
+    private static final class Rows {
+        private final ManagerConnection c;
+        private ByteBuffer buffer;
+        private byte packetId;
+
+        Rows(ManagerConnection c, ByteBuffer buffer, byte packetId) {
+            this.c = c;
+            this.buffer = buffer;
+            this.packetId = packetId;
+        }
+
+        void add(String name, long value) {
+            RowDataPacket row = new RowDataPacket(FIELD_COUNT);
+            row.add(StringUtil.encode(name, c.getCharset()));
+            row.add(LongUtil.toBytes(value));
+            row.packetId = ++packetId;
+            buffer = row.write(buffer, c,true);
+        }
+    }
+
+}
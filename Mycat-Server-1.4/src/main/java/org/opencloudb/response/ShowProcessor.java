@@ -46,7 +46,7 @@ import org.opencloudb.util.LongUtil;
  */
 public final class ShowProcessor {
 
-    private static final int FIELD_COUNT = 12;
+    private static final int FIELD_COUNT = 16;
     private static final ResultSetHeaderPacket header = PacketUtil.getHeader(FIELD_COUNT);
     private static final FieldPacket[] fields = new FieldPacket[FIELD_COUNT];
     private static final EOFPacket eof = new EOFPacket();
@@ -91,6 +91,18 @@ public final class ShowProcessor {
         fields[i] = PacketUtil.getField("BC_COUNT", Fields.FIELD_TYPE_LONG);
         fields[i++].packetId = ++packetId;
 
+        fields[i] = PacketUtil.getField("BU_HITS", Fields.FIELD_TYPE_LONGLONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("BU_MISSES", Fields.FIELD_TYPE_LONGLONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("BU_OVERFLOWS", Fields.FIELD_TYPE_LONGLONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("BU_OUTSTANDING", Fields.FIELD_TYPE_LONGLONG);
+        fields[i++].packetId = ++packetId;
+
         eof.packetId = ++packetId;
     }
 
@@ -142,8 +154,12 @@ public final class ShowProcessor {
         row.add(LongUtil.toBytes(bufferCapacity));
         row.add(LongUtil.toBytes(bufferUsagePercent));
         row.add(LongUtil.toBytes(bufferSharedOpts));
-        row.add(IntegerUtil.toBytes(processor.getFrontends().size()));
-        row.add(IntegerUtil.toBytes(processor.getBackends().size()));
+        row.add(IntegerUtil.toBytes(processor.getForntedsLength()));
+        row.add(IntegerUtil.toBytes(processor.getBackendsLength()));
+        row.add(LongUtil.toBytes(bufferPool.getHitCount()));
+        row.add(LongUtil.toBytes(bufferPool.getMissCount()));
+        row.add(LongUtil.toBytes(bufferPool.getOverflowCount()));
+        row.add(LongUtil.toBytes(bufferPool.getOutstandingCount()));
         return row;
     }
 
@@ -93,7 +93,7 @@ public final class ShowSQLHigh {
         c.write(buffer);
     }
 
-    private static RowDataPacket getRow(int i, String sql, int count, long avgTime,long maxTime,long minTime,long executTime,long lastTime, String charset) {
+    private static RowDataPacket getRow(int i, String sql, long count, long avgTime,long maxTime,long minTime,long executTime,long lastTime, String charset) {
         RowDataPacket row = new RowDataPacket(FIELD_COUNT);
         row.add( LongUtil.toBytes( i ) );
         row.add( StringUtil.encode(sql, charset) );
@@ -25,7 +25,7 @@ import org.opencloudb.util.StringUtil;
  * 
  */
 public class ShowSession {
-	private static final int FIELD_COUNT = 3;
+	private static final int FIELD_COUNT = 6;
 	private static final ResultSetHeaderPacket header = PacketUtil
 			.getHeader(FIELD_COUNT);
 	private static final FieldPacket[] fields = new FieldPacket[FIELD_COUNT];
@@ -43,6 +43,15 @@ public class ShowSession {
 
 		fields[i] = PacketUtil.getField("DN_LIST", Fields.FIELD_TYPE_VARCHAR);
 		fields[i++].packetId = ++packetId;
+
+		fields[i] = PacketUtil.getField("MODIFIED_COUNT", Fields.FIELD_TYPE_VARCHAR);
+		fields[i++].packetId = ++packetId;
+
+		fields[i] = PacketUtil.getField("MAX_HELD", Fields.FIELD_TYPE_VARCHAR);
+		fields[i++].packetId = ++packetId;
+
+		fields[i] = PacketUtil.getField("EARLY_RELEASED", Fields.FIELD_TYPE_VARCHAR);
+		fields[i++].packetId = ++packetId;
 		eof.packetId = ++packetId;
 	}
 
@@ -102,6 +111,9 @@ public class ShowSession {
 		row.add(StringUtil.encode(sc.getId() + "", charset));
 		row.add(StringUtil.encode(cncount + "", charset));
 		row.add(StringUtil.encode(sb.toString(), charset));
+		row.add(StringUtil.encode(ssesion.getModifiedTargetCount() + "", charset));
+		row.add(StringUtil.encode(ssesion.getMaxHeldCount() + "", charset));
+		row.add(StringUtil.encode(ssesion.getEarlyReleaseCount() + "", charset));
 		return row;
 	}
 }
@@ -0,0 +1,476 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.route;
+
+import java.sql.SQLNonTransientException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.opencloudb.config.model.SchemaConfig;
+import org.opencloudb.config.model.TableConfig;
+import org.opencloudb.parser.util.SQLFingerprint;
+import org.opencloudb.route.util.RouterUtil;
+import org.opencloudb.server.parser.ServerParse;
+
+/**
+ * 不建 AST 的快速路由, 只认下面几种单表单分片的语句:
+ * 
+ * <pre>
+ * SELECT ... FROM t [alias] WHERE col = ? [AND col = ?]...
+ * INSERT [INTO] t (c1, c2, ...) VALUES (v1, v2, ...)
+ * UPDATE t [alias] SET ... WHERE col = ? [AND col = ?]...
+ * DELETE FROM t WHERE col = ? [AND col = ?]...
+ * </pre>
+ * 
+ * 条件里必须有且只有一个分片列等值, 表必须是普通分片表(非全局表、非子表).
+ * 需要改写SQL的(如 select 要加 limit)、分片值不是简单常量的, 都返回 null 交给 druid 完整路由,
+ * 报错也都留给完整路由.
+ * 
+ * @author mycat
+ */
+public final class FastPathRouter {
+
+	private FastPathRouter() {
+	}
+
+	public static boolean isSupported(int sqlType) {
+		switch (sqlType) {
+		case ServerParse.SELECT:
+		case ServerParse.INSERT:
+		case ServerParse.UPDATE:
+		case ServerParse.DELETE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return 无法快速路由时返回 null, rrs 不会被修改
+	 */
+	public static RouteResultset route(SchemaConfig schema, int sqlType,
+			SQLFingerprint fingerprint, RouteResultset rrs)
+			throws SQLNonTransientException {
+		String template = fingerprint.getTemplate();
+		if (template.indexOf('@') >= 0 || template.indexOf('#') >= 0
+				|| template.contains("/*") || template.contains("--")) {
+			return null;
+		}
+		List<String> tokens = tokenize(template);
+		if (tokens == null) {
+			return null;
+		}
+		Parser parser = new Parser(tokens);
+		if (parser.literalTotal != fingerprint.getLiteralCount()) {
+			// 原SQL里有?占位符, 和常量对不上
+			return null;
+		}
+		Shape shape;
+		switch (sqlType) {
+		case ServerParse.SELECT:
+			shape = parser.parseSelect();
+			break;
+		case ServerParse.INSERT:
+			shape = parser.parseInsert();
+			break;
+		case ServerParse.UPDATE:
+			shape = parser.parseUpdate();
+			break;
+		case ServerParse.DELETE:
+			shape = parser.parseDelete();
+			break;
+		default:
+			return null;
+		}
+		if (shape == null) {
+			return null;
+		}
+
+		TableConfig tc = schema.getTables().get(shape.table);
+		if (tc == null || tc.isGlobalTable() || tc.getParentTC() != null
+				|| tc.getPartitionColumn() == null
+				|| tc.getDataNodes().size() < 2
+				|| RouterUtil.isNoSharding(schema, shape.table)) {
+			return null;
+		}
+		String partitionColumn = tc.getPartitionColumn();
+		int keyLiteral = -1;
+		boolean hasPrimaryKey = false;
+		for (int i = 0; i < shape.columns.size(); i++) {
+			String column = shape.columns.get(i);
+			if (column.equals(partitionColumn)) {
+				if (keyLiteral >= 0 || shape.literals.get(i) < 0) {
+					return null;
+				}
+				keyLiteral = shape.literals.get(i);
+			}
+			if (column.equals(tc.getPrimaryKey())) {
+				hasPrimaryKey = true;
+			}
+		}
+		if (keyLiteral < 0) {
+			return null;
+		}
+		for (String column : shape.setColumns) {
+			// 修改分片列, 交给完整路由报错
+			if (column.equals(partitionColumn)) {
+				return null;
+			}
+		}
+		if (sqlType == ServerParse.SELECT) {
+			// 与 DruidSelectParser.isNeedAddLimit 一致, 需要加limit的不走快速路由
+			if (schema.isNeedSupportMultiDBType()
+					|| (schema.getDefaultMaxLimit() != -1
+							&& tc.isNeedAddLimit() && !hasPrimaryKey)) {
+				return null;
+			}
+		}
+		String value = getKeyValue(fingerprint, keyLiteral);
+		if (value == null) {
+			return null;
+		}
+
+		Integer nodeIndex = tc.getRule().getRuleAlgorithm().calculate(value);
+		if (nodeIndex == null) {
+			String msg = "can't find any valid datanode :" + tc.getName()
+					+ " -> " + partitionColumn + " -> " + value;
+			throw new SQLNonTransientException(msg);
+		}
+		if (sqlType == ServerParse.SELECT) {
+			// 快速路由已经很便宜, 不再放入SQLRouteCache
+			rrs.setCacheAble(false);
+		}
+		rrs.setTables(Collections.singletonList(tc.getName()));
+		return RouterUtil.routeToSingleNode(rrs,
+				tc.getDataNodes().get(nodeIndex), fingerprint.getSql());
+	}
+
+	/**
+	 * 只接受简单整数和不带转义的字符串, 保证与druid解析出的值一样
+	 */
+	private static String getKeyValue(SQLFingerprint fingerprint, int index) {
+		String value = fingerprint.getLiteral(index);
+		if (fingerprint.isStringLiteral(index)) {
+			if (value.indexOf('\'') >= 0 || value.indexOf('"') >= 0
+					|| fingerprint.getLiteralText(index).indexOf('\\') >= 0) {
+				return null;
+			}
+			return value;
+		}
+		int len = value.length();
+		if (len > 18 || (len > 1 && value.charAt(0) == '0')) {
+			return null;
+		}
+		for (int i = 0; i < len; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return null;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * 把指纹模板切成词: 标识符(反引号保留)、?、单个符号
+	 */
+	private static List<String> tokenize(String template) {
+		List<String> tokens = new ArrayList<String>();
+		int len = template.length();
+		int i = 0;
+		while (i < len) {
+			char c = template.charAt(i);
+			if (c == ' ') {
+				i++;
+			} else if (c == '`') {
+				int end = template.indexOf('`', i + 1);
+				if (end < 0) {
+					return null;
+				}
+				tokens.add(template.substring(i, end + 1));
+				i = end + 1;
+			} else if (isWordChar(c)) {
+				int start = i;
+				while (++i < len && isWordChar(template.charAt(i))) {
+				}
+				tokens.add(template.substring(start, i));
+			} else {
+				tokens.add(String.valueOf(c));
+				i++;
+			}
+		}
+		return tokens;
+	}
+
+	private static boolean isWordChar(char c) {
+		return c >= 0x80 || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+				|| (c >= '0' && c <= '9') || c == '_' || c == '$';
+	}
+
+	private static final class Shape {
+		String table;
+		String alias;
+		// where 条件(或 insert 的列)及对应的常量序号, 不是常量时为 -1
+		final List<String> columns = new ArrayList<String>();
+		final List<Integer> literals = new ArrayList<Integer>();
+		final List<String> setColumns = new ArrayList<String>();
+	}
+
+	private static final class Parser {
+		private final List<String> tokens;
+		private final int literalTotal;
+		private int pos;
+		private int literal;
+
+		Parser(List<String> tokens) {
+			this.tokens = tokens;
+			int count = 0;
+			for (String token : tokens) {
+				if ("?".equals(token)) {
+					count++;
+				}
+			}
+			this.literalTotal = count;
+		}
+
+		Shape parseSelect() {
+			if (!accept("SELECT")) {
+				return null;
+			}
+			int depth = 0;
+			while (depth > 0 || !peek("FROM")) {
+				String token = next();
+				if (token == null || token.equalsIgnoreCase("SELECT")) {
+					return null;
+				} else if (token.equals("(")) {
+					depth++;
+				} else if (token.equals(")")) {
+					depth--;
+				}
+			}
+			pos++;
+			Shape shape = new Shape();
+			if (!parseTable(shape, true)) {
+				return null;
+			}
+			return accept("WHERE") && parseConditions(shape) ? shape : null;
+		}
+
+		Shape parseDelete() {
+			Shape shape = new Shape();
+			if (!accept("DELETE") || !accept("FROM")
+					|| !parseTable(shape, false)) {
+				return null;
+			}
+			return accept("WHERE") && parseConditions(shape) ? shape : null;
+		}
+
+		Shape parseUpdate() {
+			Shape shape = new Shape();
+			if (!accept("UPDATE") || !parseTable(shape, true)
+					|| !accept("SET")) {
+				return null;
+			}
+			int depth = 0;
+			boolean itemStart = true;
+			while (depth > 0 || !peek("WHERE")) {
+				if (itemStart) {
+					String column = parseColumn(shape);
+					if (column == null || !accept("=")) {
+						return null;
+					}
+					shape.setColumns.add(column);
+					itemStart = false;
+					continue;
+				}
+				String token = next();
+				if (token == null || token.equalsIgnoreCase("SELECT")) {
+					return null;
+				} else if (token.equals("(")) {
+					depth++;
+				} else if (token.equals(")")) {
+					depth--;
+				} else if (token.equals(",") && depth == 0) {
+					itemStart = true;
+				}
+			}
+			pos++;
+			return parseConditions(shape) ? shape : null;
+		}
+
+		Shape parseInsert() {
+			Shape shape = new Shape();
+			if (!accept("INSERT")) {
+				return null;
+			}
+			accept("INTO");
+			if (!parseTable(shape, false) || !accept("(")) {
+				return null;
+			}
+			do {
+				String column = parseColumn(shape);
+				if (column == null) {
+					return null;
+				}
+				shape.columns.add(column);
+			} while (accept(","));
+			if (!accept(")") || !(accept("VALUES") || accept("VALUE"))
+					|| !accept("(")) {
+				return null;
+			}
+			int index = 0;
+			do {
+				if (index == shape.columns.size()) {
+					return null;
+				}
+				if (accept("?")) {
+					shape.literals.add(literal++);
+				} else if (accept("-")) {
+					// 负数, druid 取到的值带符号, 不能作为分片值
+					if (!accept("?")) {
+						return null;
+					}
+					literal++;
+					shape.literals.add(-1);
+				} else {
+					// NULL, now() 之类
+					String word = next();
+					if (word == null || !isWord(word)) {
+						return null;
+					}
+					if (accept("(") && !accept(")")) {
+						return null;
+					}
+					shape.literals.add(-1);
+				}
+				index++;
+			} while (accept(","));
+			if (index != shape.columns.size() || !accept(")") || !isEnd()) {
+				return null;
+			}
+			return shape;
+		}
+
+		/**
+		 * t [[AS] alias]
+		 */
+		private boolean parseTable(Shape shape, boolean allowAlias) {
+			String table = next();
+			if (table == null || !isWord(table) || peek(".")) {
+				return false;
+			}
+			shape.table = unquote(table);
+			if (allowAlias) {
+				boolean as = accept("AS");
+				if (pos < tokens.size() && isWord(tokens.get(pos))
+						&& !peek("WHERE") && !peek("SET")) {
+					shape.alias = unquote(tokens.get(pos++));
+				} else if (as) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * col = ? [AND col = ?]... 直到结束
+		 */
+		private boolean parseConditions(Shape shape) {
+			do {
+				String column = parseColumn(shape);
+				if (column == null || !accept("=") || !accept("?")) {
+					return false;
+				}
+				shape.columns.add(column);
+				shape.literals.add(literal++);
+			} while (accept("AND"));
+			return isEnd();
+		}
+
+		/**
+		 * col 或 t.col, 前缀必须是本表的表名或别名
+		 */
+		private String parseColumn(Shape shape) {
+			String column = next();
+			if (column == null || !isWord(column)) {
+				return null;
+			}
+			if (accept(".")) {
+				String owner = unquote(column);
+				if (!owner.equals(shape.table)
+						&& (shape.alias == null || !owner.equals(shape.alias))) {
+					return null;
+				}
+				column = next();
+				if (column == null || !isWord(column)) {
+					return null;
+				}
+			}
+			return unquote(column);
+		}
+
+		private String next() {
+			if (pos >= tokens.size()) {
+				return null;
+			}
+			String token = tokens.get(pos++);
+			if ("?".equals(token)) {
+				literal++;
+			}
+			return token;
+		}
+
+		private boolean peek(String word) {
+			return pos < tokens.size() && tokens.get(pos).equalsIgnoreCase(word);
+		}
+
+		/**
+		 * 用于关键字和符号, ? 的计数由调用者负责
+		 */
+		private boolean accept(String word) {
+			if (peek(word)) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private boolean isEnd() {
+			return pos == tokens.size();
+		}
+
+		private static boolean isWord(String token) {
+			char c = token.charAt(0);
+			return c == '`' || (isWordChar(c) && !(c >= '0' && c <= '9'));
+		}
+
+		private static String unquote(String token) {
+			if (token.charAt(0) == '`') {
+				token = token.substring(1, token.length() - 1);
+			}
+			return token.toUpperCase(Locale.US);
+		}
+	}
+}
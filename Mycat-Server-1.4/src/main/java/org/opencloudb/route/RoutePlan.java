@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.route;
+
+import java.sql.SQLNonTransientException;
+import java.util.Collections;
+
+import org.opencloudb.config.model.SchemaConfig;
+import org.opencloudb.config.model.TableConfig;
+import org.opencloudb.parser.util.SQLFingerprint;
+
+/**
+ * 编译好的单节点路由计划: 分片列取模板中第 keyLiteral 个常量,
+ * 用表的分片函数算出节点, 下发语句按模板把常量填回去.
+ * 
+ * @author mycat
+ */
+final class RoutePlan {
+	private final SchemaConfig schema;
+	private final TableConfig table;
+	private final int keyLiteral;
+	// 下发语句与原语句不同时(如加了limit), 常量之间的文本和每个常量的来源
+	private final String[] parts;
+	private final int[] binds;
+	private final String[] constants;
+	private final int limitStart;
+	private final int limitSize;
+	private final int nodeLimitStart;
+	private final int nodeLimitSize;
+
+	RoutePlan(SchemaConfig schema, TableConfig table, int keyLiteral,
+			String[] parts, int[] binds, String[] constants,
+			RouteResultset rrs) {
+		this.schema = schema;
+		this.table = table;
+		this.keyLiteral = keyLiteral;
+		this.parts = parts;
+		this.binds = binds;
+		this.constants = constants;
+		this.limitStart = rrs.getLimitStart();
+		this.limitSize = rrs.getLimitSize();
+		RouteResultsetNode node = rrs.getNodes()[0];
+		this.nodeLimitStart = node.getLimitStart();
+		this.nodeLimitSize = node.getLimitSize();
+	}
+
+	SchemaConfig getSchema() {
+		return schema;
+	}
+
+	RouteResultset route(RouteResultset rrs, SQLFingerprint fingerprint)
+			throws SQLNonTransientException {
+		String value = fingerprint.getLiteral(keyLiteral);
+		Integer nodeIndex = table.getRule().getRuleAlgorithm().calculate(value);
+		if (nodeIndex == null) {
+			String msg = "can't find any valid datanode :" + table.getName()
+					+ " -> " + table.getPartitionColumn() + " -> " + value;
+			throw new SQLNonTransientException(msg);
+		}
+		RouteResultsetNode node = new RouteResultsetNode(table.getDataNodes()
+				.get(nodeIndex), rrs.getSqlType(), getNodeSql(fingerprint));
+		node.setLimitStart(nodeLimitStart);
+		node.setLimitSize(nodeLimitSize);
+		rrs.setLimitStart(limitStart);
+		rrs.setLimitSize(limitSize);
+		rrs.setNodes(new RouteResultsetNode[] { node });
+		rrs.setFinishedRoute(true);
+		rrs.setRoutePlanCached(true);
+		rrs.setTables(Collections.singletonList(table.getName()));
+		return rrs;
+	}
+
+	private String getNodeSql(SQLFingerprint fingerprint) {
+		if (parts == null) {
+			return fingerprint.getSql();
+		}
+		StringBuilder sb = new StringBuilder(fingerprint.getSql().length() + 16);
+		for (int i = 0; i < binds.length; i++) {
+			sb.append(parts[i]);
+			if (binds[i] < 0) {
+				sb.append(constants[i]);
+			} else {
+				sb.append(fingerprint.getLiteralText(binds[i]));
+			}
+		}
+		sb.append(parts[binds.length]);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.route;
+
+import java.sql.SQLNonTransientException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.opencloudb.config.model.SchemaConfig;
+import org.opencloudb.config.model.TableConfig;
+import org.opencloudb.mpp.ColumnRoutePair;
+import org.opencloudb.parser.druid.DruidShardingParseInfo;
+import org.opencloudb.parser.druid.RouteCalculateUnit;
+import org.opencloudb.parser.util.SQLFingerprint;
+import org.opencloudb.server.parser.ServerParse;
+
+/**
+ * 路由计划缓存, key 为 schema + SQL指纹模板(常量替换成?).<br>
+ * 单表、分片列等值条件、只路由到一个节点的 select 在第一次完整路由后编译成
+ * {@link RoutePlan}, 之后同模板的SQL只需词法扫描取出常量再调用分片函数,
+ * 不再经过 druid 解析.<br>
+ * 与 SQLRouteCache 不同, 这里按模板缓存, 不会被每个参数值各占一项.
+ * 
+ * @author mycat
+ */
+public class RoutePlanCache {
+	private static final Logger LOGGER = Logger.getLogger(RoutePlanCache.class);
+	public static final int DEFAULT_MAX_PLANS = 10000;
+
+	private final ConcurrentHashMap<String, RoutePlan> plans = new ConcurrentHashMap<String, RoutePlan>();
+	private final int maxPlans;
+
+	public RoutePlanCache() {
+		this(DEFAULT_MAX_PLANS);
+	}
+
+	public RoutePlanCache(int maxPlans) {
+		this.maxPlans = maxPlans;
+	}
+
+	public int size() {
+		return plans.size();
+	}
+
+	public void clear() {
+		plans.clear();
+	}
+
+	/**
+	 * @return 命中计划时返回路由结果, 否则返回null, 由调用者走完整路由
+	 */
+	public RouteResultset route(SchemaConfig schema,
+			SQLFingerprint fingerprint, RouteResultset rrs)
+			throws SQLNonTransientException {
+		if (plans.isEmpty()) {
+			return null;
+		}
+		String key = getKey(schema, fingerprint);
+		RoutePlan plan = plans.get(key);
+		if (plan == null) {
+			return null;
+		}
+		if (plan.getSchema() != schema) {
+			// 配置重新加载过, 旧计划作废
+			plans.remove(key, plan);
+			return null;
+		}
+		return plan.route(rrs, fingerprint);
+	}
+
+	/**
+	 * 完整路由之后调用, 符合条件的编译成计划缓存起来
+	 */
+	public void compile(SchemaConfig schema, String stmt,
+			DruidShardingParseInfo ctx, RouteResultset rrs) {
+		if (rrs.getSqlType() != ServerParse.SELECT || rrs.getNodes() == null
+				|| rrs.getNodes().length != 1
+				|| rrs.getCanRunInReadDB() != null
+				|| ctx.getTables().size() != 1
+				|| ctx.getRouteCalculateUnits().size() != 1
+				|| plans.size() >= maxPlans) {
+			return;
+		}
+		String tableName = ctx.getTables().get(0).toUpperCase(Locale.US);
+		TableConfig tc = schema.getTables().get(tableName);
+		if (tc == null || tc.isGlobalTable() || tc.getParentTC() != null
+				|| tc.getPartitionColumn() == null
+				|| tc.getDataNodes().size() < 2) {
+			return;
+		}
+		// 条件只能有分片列的一个等值
+		RouteCalculateUnit unit = ctx.getRouteCalculateUnits().get(0);
+		Map<String, Map<String, Set<ColumnRoutePair>>> tablesAndConditions = unit
+				.getTablesAndConditions();
+		if (tablesAndConditions.size() != 1) {
+			return;
+		}
+		Map<String, Set<ColumnRoutePair>> columns = tablesAndConditions
+				.values().iterator().next();
+		Set<ColumnRoutePair> pairs = columns.get(tc.getPartitionColumn());
+		if (columns.size() != 1 || pairs == null || pairs.size() != 1) {
+			return;
+		}
+		String keyValue = pairs.iterator().next().colValue;
+		if (keyValue == null) {
+			return;
+		}
+
+		SQLFingerprint fingerprint = SQLFingerprint.parse(stmt);
+		String template = fingerprint.getTemplate().toUpperCase(Locale.US);
+		if (template.indexOf("SELECT", 1) >= 0 || template.contains("LIMIT")
+				|| template.contains("UNION") || template.contains(" FOR ")
+				|| template.contains(" LOCK ")) {
+			// 子查询、limit 参数、加锁读 都不编译
+			return;
+		}
+		int keyLiteral = findKeyLiteral(fingerprint, keyValue);
+		if (keyLiteral < 0) {
+			return;
+		}
+
+		RouteResultsetNode node = rrs.getNodes()[0];
+		String nodeSql = node.getStatement();
+		RoutePlan plan;
+		if (nodeSql.equals(stmt)) {
+			plan = new RoutePlan(schema, tc, keyLiteral, null, null, null, rrs);
+		} else {
+			plan = bindNodeSql(schema, tc, keyLiteral, fingerprint, nodeSql,
+					rrs);
+			if (plan == null) {
+				return;
+			}
+		}
+
+		// 用当前SQL校验一遍, 结果必须和完整路由一致
+		try {
+			RouteResultset check = plan.route(new RouteResultset(stmt,
+					rrs.getSqlType()), fingerprint);
+			RouteResultsetNode checkNode = check.getNodes()[0];
+			if (!checkNode.getName().equals(node.getName())
+					|| !checkNode.getStatement().equals(nodeSql)) {
+				return;
+			}
+		} catch (Exception e) {
+			return;
+		}
+		plans.putIfAbsent(getKey(schema, fingerprint), plan);
+		rrs.setRoutePlanCached(true);
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("route plan compiled for table " + tableName + " : "
+					+ fingerprint.getTemplate());
+		}
+	}
+
+	/**
+	 * 分片值必须是唯一一个等于它的常量, 且紧跟在 = 之后
+	 */
+	private static int findKeyLiteral(SQLFingerprint fingerprint,
+			String keyValue) {
+		String sql = fingerprint.getSql();
+		int found = -1;
+		for (int i = 0; i < fingerprint.getLiteralCount(); i++) {
+			if (!keyValue.equals(fingerprint.getLiteral(i))) {
+				continue;
+			}
+			if (found >= 0) {
+				return -1;
+			}
+			int pos = fingerprint.getLiteralStart(i) - 1;
+			while (pos >= 0 && Character.isWhitespace(sql.charAt(pos))) {
+				pos--;
+			}
+			if (pos < 1 || sql.charAt(pos) != '='
+					|| "<>!:".indexOf(sql.charAt(pos - 1)) >= 0) {
+				return -1;
+			}
+			found = i;
+		}
+		return found;
+	}
+
+	/**
+	 * 下发语句被改写过时, 按顺序把下发语句中的常量对应到原语句的常量,
+	 * 原语句的每个常量都要对应上, 多出来的(如加上的limit)当作固定文本
+	 */
+	private static RoutePlan bindNodeSql(SchemaConfig schema, TableConfig tc,
+			int keyLiteral, SQLFingerprint fingerprint, String nodeSql,
+			RouteResultset rrs) {
+		SQLFingerprint node = SQLFingerprint.parse(nodeSql);
+		int count = node.getLiteralCount();
+		String[] parts = new String[count + 1];
+		int[] binds = new int[count];
+		String[] constants = new String[count];
+		int next = 0;
+		int last = 0;
+		for (int i = 0; i < count; i++) {
+			parts[i] = nodeSql.substring(last, node.getLiteralStart(i));
+			last = node.getLiteralEnd(i);
+			if (next < fingerprint.getLiteralCount()
+					&& node.isStringLiteral(i) == fingerprint.isStringLiteral(next)
+					&& node.getLiteral(i).equals(fingerprint.getLiteral(next))) {
+				binds[i] = next++;
+			} else {
+				binds[i] = -1;
+				constants[i] = node.getLiteralText(i);
+			}
+		}
+		parts[count] = nodeSql.substring(last);
+		if (next != fingerprint.getLiteralCount()) {
+			return null;
+		}
+		return new RoutePlan(schema, tc, keyLiteral, parts, binds, constants,
+				rrs);
+	}
+
+	private static String getKey(SchemaConfig schema, SQLFingerprint fingerprint) {
+		return schema.getName() + ':' + fingerprint.getTemplate();
+	}
+}
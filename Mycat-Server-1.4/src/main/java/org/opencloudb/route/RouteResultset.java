@@ -33,6 +33,7 @@ import org.opencloudb.util.FormatUtil;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -68,6 +69,13 @@ public final class RouteResultset implements Serializable {
     //是否可以在从库运行,此属性主要供RouteResultsetNode获取
     private Boolean canRunInReadDB;
 
+    //是否来自或已编译进路由计划缓存,这类结果不再放入SQLRouteCache
+    private boolean routePlanCached = false;
+
+    //路由阶段已得到的表名和参数化SQL, 供SQL统计直接使用, 避免再次解析
+    private List<String> tables;
+    private String sqlTemplate;
+
     public boolean isLoadData()
     {
         return isLoadData;
@@ -78,6 +86,30 @@ public final class RouteResultset implements Serializable {
         this.isLoadData = isLoadData;
     }
 
+    public boolean isRoutePlanCached() {
+        return routePlanCached;
+    }
+
+    public void setRoutePlanCached(boolean routePlanCached) {
+        this.routePlanCached = routePlanCached;
+    }
+
+    public List<String> getTables() {
+        return tables;
+    }
+
+    public void setTables(List<String> tables) {
+        this.tables = tables;
+    }
+
+    public String getSqlTemplate() {
+        return sqlTemplate;
+    }
+
+    public void setSqlTemplate(String sqlTemplate) {
+        this.sqlTemplate = sqlTemplate;
+    }
+
     public boolean isFinishedRoute() {
         return isFinishedRoute;
     }
@@ -117,7 +117,8 @@ public class RouteService {
 					charset, sc, tableId2DataNodeCache);
 		}
 
-		if (rrs!=null && sqlType == ServerParse.SELECT && rrs.isCacheAble()) {
+		if (rrs!=null && sqlType == ServerParse.SELECT && rrs.isCacheAble()
+				&& !rrs.isRoutePlanCached()) {
 			sqlRouteCache.putIfAbsent(cacheKey, rrs);
 		}
 		return rrs;
@@ -6,6 +6,9 @@ import org.opencloudb.cache.LayerCachePool;
 import org.opencloudb.config.model.SchemaConfig;
 import org.opencloudb.config.model.SystemConfig;
 import org.opencloudb.mpp.LoadData;
+import org.opencloudb.parser.util.SQLFingerprint;
+import org.opencloudb.route.FastPathRouter;
+import org.opencloudb.route.RoutePlanCache;
 import org.opencloudb.route.RouteResultset;
 import org.opencloudb.route.RouteStrategy;
 import org.opencloudb.route.util.RouterUtil;
@@ -19,6 +22,11 @@ public abstract class AbstractRouteStrategy implements RouteStrategy {
 	
 	private static final Logger LOGGER = Logger.getLogger(AbstractRouteStrategy.class);
 
+	/**
+	 * 单节点select的路由计划, 命中时跳过AST解析
+	 */
+	protected final RoutePlanCache routePlanCache = new RoutePlanCache();
+
 	@Override
 	public RouteResultset route(SystemConfig sysConfig, SchemaConfig schema,int sqlType, String origSQL,
 			String charset, ServerConnection sc, LayerCachePool cachePool) throws SQLNonTransientException {
@@ -71,6 +79,19 @@ public abstract class AbstractRouteStrategy implements RouteStrategy {
 		if (schema.isNoSharding() && ServerParse.SHOW != sqlType) {
 			rrs = RouterUtil.routeToSingleNode(rrs, schema.getDataNode(), stmt);
 		} else {
+			if (FastPathRouter.isSupported(sqlType)) {
+				// 指纹供快速路由、路由计划缓存和SQL统计共用, 不受快速路由开关影响
+				SQLFingerprint fingerprint = SQLFingerprint.parse(stmt);
+				rrs.setSqlTemplate(fingerprint.getTemplate());
+				RouteResultset routed = sysConfig.getFastPathRoute() == 1 ? FastPathRouter
+						.route(schema, sqlType, fingerprint, rrs) : null;
+				if (routed == null && ServerParse.SELECT == sqlType) {
+					routed = routePlanCache.route(schema, fingerprint, rrs);
+				}
+				if (routed != null) {
+					return routed;
+				}
+			}
 			RouteResultset returnedSet = routeSystemInfo(schema, sqlType, stmt, rrs);
 			if (returnedSet == null) {
 				rrs = routeNormalSqlWithAST(schema, stmt, rrs, charset, cachePool);
@@ -80,6 +101,10 @@ public abstract class AbstractRouteStrategy implements RouteStrategy {
 		return rrs;
 	}
 
+	public RoutePlanCache getRoutePlanCache() {
+		return routePlanCache;
+	}
+
 	/**
 	 * 路由之前必要的处理
 	 */
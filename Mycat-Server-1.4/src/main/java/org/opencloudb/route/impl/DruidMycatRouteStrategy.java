@@ -62,11 +62,13 @@ public class DruidMycatRouteStrategy extends AbstractRouteStrategy {
 
 		DruidParser druidParser = DruidParserFactory.create(schema, statement, visitor);
 		druidParser.parser(schema, rrs, statement, stmt,cachePool,visitor);
+		rrs.setTables(druidParser.getCtx().getTables());
 
 		/**
 		 * DruidParser 解析过程中已完成了路由的直接返回
 		 */
 		if ( rrs.isFinishedRoute() ) {
+			routePlanCache.compile(schema, stmt, druidParser.getCtx(), rrs);
 			return rrs;
 		}
 		
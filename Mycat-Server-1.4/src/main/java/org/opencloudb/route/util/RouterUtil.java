@@ -18,11 +18,11 @@ import org.opencloudb.config.model.rule.RuleConfig;
 import org.opencloudb.mpp.ColumnRoutePair;
 import org.opencloudb.mpp.LoadData;
 import org.opencloudb.mysql.nio.handler.FetchStoreNodeOfChildTableHandler;
+import org.opencloudb.parser.druid.DruidSequenceHandler;
 import org.opencloudb.parser.druid.DruidShardingParseInfo;
 import org.opencloudb.parser.druid.RouteCalculateUnit;
 import org.opencloudb.route.RouteResultset;
 import org.opencloudb.route.RouteResultsetNode;
-import org.opencloudb.route.SessionSQLPair;
 import org.opencloudb.route.function.AbstractPartitionAlgorithm;
 import org.opencloudb.server.ServerConnection;
 import org.opencloudb.server.parser.ServerParse;
@@ -440,14 +440,79 @@ public class RouterUtil {
 		// check if origSQL is with global sequence
 		// @micmiu it is just a simple judgement
 		if (origSQL.indexOf(" MYCATSEQ_") != -1) {
-			processSQL(sc,schema,origSQL,sqlType);
-			return true;
+			return processSQL(sc,schema,origSQL,sqlType);
 		}
 		return false;
 	}
 
-	public static void processSQL(ServerConnection sc,SchemaConfig schema,String sql,int sqlType){
-		MycatServer.getInstance().getSequnceProcessor().addNewSql(new SessionSQLPair(sc.getSession2(), schema, sql, sqlType));
+	/**
+	 * 把序列替换为实际数值, 再按替换后的SQL路由执行. 不阻塞NIO线程:
+	 * 值可以立即取到时在当前线程执行, 否则(本地文件序列, 库表序列等待取号)交给业务线程池
+	 *
+	 * @return false 不含序列语法(如只出现在字符串中), 按原SQL继续路由
+	 */
+	public static boolean processSQL(final ServerConnection sc, final SchemaConfig schema,
+			final String sql, final int sqlType) {
+		String executeSql;
+		try {
+			final DruidSequenceHandler sequenceHandler = new DruidSequenceHandler(MycatServer
+					.getInstance().getConfig().getSystem().getSequnceHandlerType());
+			if (!sequenceHandler.hasSequence(sql)) {
+				return false;
+			}
+			if (!sequenceHandler.isNonBlocking()) {
+				processSQLLater(sc, schema, sql, sqlType, sequenceHandler);
+				return true;
+			}
+			executeSql = sequenceHandler.tryGetExecuteSql(sql, new Runnable() {
+				@Override
+				public void run() {
+					processSQLLater(sc, schema, sql, sqlType, sequenceHandler);
+				}
+			});
+		} catch (Exception e) {
+			LOGGER.error("RouterUtil.processSQL(sequence)", e);
+			sc.writeErrMessage(ErrorCode.ER_YES, "mycat sequnce err." + e);
+			return true;
+		}
+		if (executeSql != null) {
+			sc.routeEndExecuteSQL(executeSql, sqlType, schema);
+		}
+		return true;
+	}
+
+	/**
+	 * 在业务线程池中替换序列(可以等待取号)后路由执行
+	 */
+	private static void processSQLLater(final ServerConnection sc, final SchemaConfig schema,
+			final String sql, final int sqlType, final DruidSequenceHandler sequenceHandler) {
+		ListenableFuture<String> listenableFuture;
+		try {
+			listenableFuture = MycatServer.getInstance().getListeningExecutorService()
+					.submit(new Callable<String>() {
+						@Override
+						public String call() throws Exception {
+							return sequenceHandler.getExecuteSql(sql);
+						}
+					});
+		} catch (Exception e) {
+			LOGGER.error("RouterUtil.processSQL(sequence)", e);
+			sc.writeErrMessage(ErrorCode.ER_YES, "mycat sequnce err." + e);
+			return;
+		}
+
+		Futures.addCallback(listenableFuture, new FutureCallback<String>() {
+			@Override
+			public void onSuccess(String executeSql) {
+				sc.routeEndExecuteSQL(executeSql, sqlType, schema);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				LOGGER.error("RouterUtil.processSQL(sequence)", t);
+				sc.writeErrMessage(ErrorCode.ER_YES, "mycat sequnce err." + t);
+			}
+		}, MycatServer.getInstance().getListeningExecutorService());
 	}
 
 	public static boolean processInsert(SchemaConfig schema, int sqlType,
@@ -53,8 +53,11 @@ public abstract class IncrSequenceHandler implements SequenceHandler {
 
 	public abstract Boolean fetchNextPeriod(String prefixName);
 
+	/**
+	 * 读改写同一个存储, 需要串行; 每次取值都要读写文件, 只在业务线程池中调用(见 RouterUtil.processSQL)
+	 */
 	@Override
-	public long nextId(String prefixName) {
+	public synchronized long nextId(String prefixName) {
 		Map<String, String> paraMap = this.getParaValMap(prefixName);
 		if (null == paraMap) {
 			throw new RuntimeException("fetch Param Values error.");
@@ -2,11 +2,13 @@ package org.opencloudb.sequence.handler;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -15,6 +17,7 @@ import org.opencloudb.MycatConfig;
 import org.opencloudb.MycatServer;
 import org.opencloudb.backend.BackendConnection;
 import org.opencloudb.backend.PhysicalDBNode;
+import org.opencloudb.config.model.SystemConfig;
 import org.opencloudb.config.util.ConfigException;
 import org.opencloudb.mysql.nio.handler.ResponseHandler;
 import org.opencloudb.net.mysql.ErrorPacket;
@@ -22,7 +25,7 @@ import org.opencloudb.net.mysql.RowDataPacket;
 import org.opencloudb.route.RouteResultsetNode;
 import org.opencloudb.server.parser.ServerParse;
 
-public class IncrSequenceMySQLHandler implements SequenceHandler {
+public class IncrSequenceMySQLHandler implements BatchSequenceHandler {
 
 	protected static final Logger LOGGER = Logger
 			.getLogger(IncrSequenceMySQLHandler.class);
@@ -30,7 +33,8 @@ public class IncrSequenceMySQLHandler implements SequenceHandler {
 	private static final String SEQUENCE_DB_PROPS = "sequence_db_conf.properties";
 	protected static final String errSeqResult = "-999999999,null";
 	protected static Map<String, String> latestErrors = new ConcurrentHashMap<String, String>();
-	private final FetchMySQLSequnceHandler mysqlSeqFetcher = new FetchMySQLSequnceHandler();
+	// 没有可用号段时同步等待取号的最长时间
+	private static final long FETCH_TIMEOUT = 10 * 1000L;
 
 	private static class IncrSequenceMySQLHandlerHolder {
 		private static final IncrSequenceMySQLHandler instance = new IncrSequenceMySQLHandler();
@@ -100,59 +104,173 @@ public class IncrSequenceMySQLHandler implements SequenceHandler {
 	 */
 	private ConcurrentHashMap<String, SequenceVal> seqValueMap = new ConcurrentHashMap<String, SequenceVal>();
 
+	/**
+	 * 号段内取号是一次原子自增; 用到 sequencePrefetchRatio 时异步预取下一批号段,
+	 * 只有预取没有及时返回时才同步等待, 不能在NIO线程上调用
+	 */
 	@Override
 	public long nextId(String seqName) {
+		SequenceVal seqVal = getSequenceVal(seqName);
+		SystemConfig system = MycatServer.getInstance().getConfig().getSystem();
+		long deadline = System.currentTimeMillis() + FETCH_TIMEOUT;
+		for (;;) {
+			Segment seg = seqVal.getCurrent();
+			if (seg != null) {
+				long val = seg.next.getAndIncrement();
+				if (val < seg.max) {
+					checkPrefetch(seqVal, seg, val, 1, system);
+					return val;
+				}
+			}
+			nextSegment(seqVal, seg, system, deadline, null);
+		}
+	}
+
+	@Override
+	public long[] nextIds(String seqName, int count) {
+		return nextIds(seqName, count, null);
+	}
+
+	/**
+	 * 不等待取号的 nextIds, 可以在NIO线程上调用. 没有可用号段时发起取号并返回 null,
+	 * 取号结束(成功或失败)后在取号的线程上执行 onFetched, 本次已取出的值不再使用
+	 */
+	public long[] tryNextIds(String seqName, int count, Runnable onFetched) {
+		return nextIds(seqName, count, onFetched);
+	}
+
+	private long[] nextIds(String seqName, int count, Runnable onFetched) {
+		SequenceVal seqVal = getSequenceVal(seqName);
+		SystemConfig system = MycatServer.getInstance().getConfig().getSystem();
+		long deadline = System.currentTimeMillis() + FETCH_TIMEOUT;
+		long[] ids = new long[count];
+		int filled = 0;
+		while (filled < count) {
+			Segment seg = seqVal.getCurrent();
+			if (seg != null) {
+				long val = seg.take(count - filled);
+				if (val >= 0) {
+					int n = (int) Math.min(count - filled, seg.max - val);
+					for (int i = 0; i < n; i++) {
+						ids[filled++] = val + i;
+					}
+					checkPrefetch(seqVal, seg, val, n, system);
+					continue;
+				}
+			}
+			if (!nextSegment(seqVal, seg, system, deadline, onFetched)) {
+				return null;
+			}
+		}
+		return ids;
+	}
+
+	private SequenceVal getSequenceVal(String seqName) {
 		SequenceVal seqVal = seqValueMap.get(seqName);
 		if (seqVal == null) {
 			throw new ConfigException("can't find definition for sequence :"
 					+ seqName);
 		}
-		if (!seqVal.isSuccessFetched()) {
-			return getSeqValueFromDB(seqVal);
-		} else {
-			return getNextValidSeqVal(seqVal);
-		}
-
+		return seqVal;
 	}
 
-	private Long getNextValidSeqVal(SequenceVal seqVal) {
-		Long nexVal = seqVal.nextValue();
-		if (seqVal.isNexValValid(nexVal)) {
-			return nexVal;
-		} else {
-			seqVal.fetching.compareAndSet(true, false);
-			return getSeqValueFromDB(seqVal);
+	/**
+	 * 取到 [val, val + n) 的调用者如果跨过了预取点, 负责触发预取
+	 */
+	private void checkPrefetch(SequenceVal seqVal, Segment seg, long val,
+			int n, SystemConfig system) {
+		long prefetchAt = seg.prefetchAt(system.getSequencePrefetchRatio());
+		if (prefetchAt >= val && prefetchAt < val + n
+				&& seqVal.getReadyCount() == 0) {
+			fetch(seqVal, system.getSequenceMaxSegments());
 		}
 	}
 
-	private long getSeqValueFromDB(SequenceVal seqVal) {
-		if (LOGGER.isDebugEnabled()) {
-			LOGGER.debug("get next segement of sequence from db for sequnce:"
-					+ seqVal.seqName + " curVal " + seqVal.curVal);
+	/**
+	 * 当前号段已用完, 切换到预取的号段, 没有时取号. onFetched 为null时同步等待取号结束
+	 *
+	 * @return false 已登记 onFetched, 取号结束后执行
+	 */
+	private boolean nextSegment(SequenceVal seqVal, Segment exhausted,
+			SystemConfig system, long deadline, Runnable onFetched) {
+		if (seqVal.switchSegment(exhausted)) {
+			return true;
 		}
-		if (seqVal.fetching.compareAndSet(false, true)) {
-			seqVal.dbretVal = null;
-			seqVal.dbfinished = false;
-			seqVal.newValueSetted.set(false);
-			mysqlSeqFetcher.execute(seqVal);
+		fetch(seqVal, system.getSequenceMaxSegments());
+		boolean fetched;
+		if (onFetched == null) {
+			fetched = seqVal.waitFetch(exhausted, deadline);
+		} else if (seqVal.addWaiter(onFetched)) {
+			return false;
+		} else {
+			// 取号已经结束
+			fetched = seqVal.hasSegment(exhausted);
 		}
-		Long[] values = seqVal.waitFinish();
-		if (values == null) {
-
+		if (!fetched) {
 			throw new RuntimeException("can't fetch sequnce in db,sequnce :"
 					+ seqVal.seqName + " detail:"
-					+ mysqlSeqFetcher.getLastestError(seqVal.seqName));
-		} else {
-			if (seqVal.newValueSetted.compareAndSet(false, true)) {
-				seqVal.setCurValue(values[0]);
-				seqVal.maxSegValue = values[1];
-				return values[0];
-			} else {
-				return seqVal.nextValue();
+					+ latestErrors.get(seqVal.seqName));
+		}
+		return true;
+	}
+
+	private void fetch(SequenceVal seqVal, int maxSegments) {
+		if (seqVal.fetching.compareAndSet(false, true)) {
+			int count = seqVal.nextFetchCount(System.currentTimeMillis(),
+					maxSegments);
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("get next " + count
+						+ " segements of sequence from db for sequnce:"
+						+ seqVal.seqName);
 			}
+			new FetchMySQLSequnceHandler(seqVal, count).execute();
+		}
+	}
+}
+
+/**
+ * 一个号段 [start, max), next 为下一个可用值
+ */
+class Segment {
+	final long start;
+	final long max;
+	final AtomicLong next;
+
+	Segment(long start, long max) {
+		this.start = start;
+		this.max = max;
+		this.next = new AtomicLong(start);
+	}
 
+	long prefetchAt(double ratio) {
+		return start + (long) ((max - start) * ratio);
+	}
+
+	/**
+	 * 从号段中取最多 count 个连续值
+	 *
+	 * @return 第一个值, 号段已用完时返回 -1
+	 */
+	long take(int count) {
+		for (;;) {
+			long val = next.get();
+			if (val >= max) {
+				return -1;
+			}
+			if (next.compareAndSet(val, val + Math.min(count, max - val))) {
+				return val;
+			}
 		}
+	}
 
+	/**
+	 * mycat_seq_nextval 返回 "当前值,步长"
+	 */
+	static Segment parse(String value) {
+		String[] items = value.split(",");
+		long curVal = Long.parseLong(items[0].trim());
+		int span = Integer.parseInt(items[1].trim());
+		return new Segment(curVal, curVal + span);
 	}
 }
 
@@ -160,26 +278,45 @@ class FetchMySQLSequnceHandler implements ResponseHandler {
 	private static final Logger LOGGER = Logger
 			.getLogger(FetchMySQLSequnceHandler.class);
 
-	public void execute(SequenceVal seqVal) {
+	private final SequenceVal seqVal;
+	private final int count;
+	private final String sql;
+	private final List<Segment> segments;
+	private volatile String error;
+
+	FetchMySQLSequnceHandler(SequenceVal seqVal, int count) {
+		this.seqVal = seqVal;
+		this.count = count;
+		this.sql = seqVal.buildSql(count);
+		this.segments = new ArrayList<Segment>(count);
+	}
+
+	public void execute() {
 		MycatConfig conf = MycatServer.getInstance().getConfig();
 		PhysicalDBNode mysqlDN = conf.getDataNodes().get(seqVal.dataNode);
 		try {
 			if (LOGGER.isDebugEnabled()) {
 				LOGGER.debug("execute in datanode " + seqVal.dataNode
-						+ " for fetch sequnce sql " + seqVal.sql);
+						+ " for fetch sequnce sql " + sql);
 			}
 			// 修正获取seq的逻辑，在读写分离的情况下只能走写节点。修改Select模式为Update模式。
 			mysqlDN.getConnection(mysqlDN.getDatabase(), true,
 					new RouteResultsetNode(seqVal.dataNode, ServerParse.UPDATE,
-							seqVal.sql), this, seqVal);
+							sql), this, seqVal);
 		} catch (Exception e) {
 			LOGGER.warn("get connection err " + e);
+			finish(e.toString());
 		}
 
 	}
 
-	public String getLastestError(String seqName) {
-		return IncrSequenceMySQLHandler.latestErrors.get(seqName);
+	private void finish(String err) {
+		if (err != null) {
+			IncrSequenceMySQLHandler.latestErrors.put(seqVal.seqName, err);
+			seqVal.fetchFinished(null);
+		} else {
+			seqVal.fetchFinished(segments);
+		}
 	}
 
 	@Override
@@ -187,7 +324,7 @@ class FetchMySQLSequnceHandler implements ResponseHandler {
 
 		conn.setResponseHandler(this);
 		try {
-			conn.query(((SequenceVal) conn.getAttachment()).sql);
+			conn.query(sql);
 		} catch (Exception e) {
 			executeException(conn, e);
 		}
@@ -195,65 +332,58 @@ class FetchMySQLSequnceHandler implements ResponseHandler {
 
 	@Override
 	public void connectionError(Throwable e, BackendConnection conn) {
-		((SequenceVal) conn.getAttachment()).dbfinished = true;
 		LOGGER.warn("connectionError " + e);
-
+		finish(e.toString());
 	}
 
 	@Override
 	public void errorResponse(byte[] data, BackendConnection conn) {
-		SequenceVal seqVal = ((SequenceVal) conn.getAttachment());
-		seqVal.dbfinished = true;
-
 		ErrorPacket err = new ErrorPacket();
 		err.read(data);
 		String errMsg = new String(err.message);
 		LOGGER.warn("errorResponse " + err.errno + " " + errMsg);
-		IncrSequenceMySQLHandler.latestErrors.put(seqVal.seqName, errMsg);
 		conn.release();
-
+		finish(errMsg);
 	}
 
 	@Override
 	public void okResponse(byte[] ok, BackendConnection conn) {
 		boolean executeResponse = conn.syncAndExcute();
 		if (executeResponse) {
-			((SequenceVal) conn.getAttachment()).dbfinished = true;
 			conn.release();
+			finish("unexpected ok response");
 		}
 
 	}
 
 	@Override
 	public void rowResponse(byte[] row, BackendConnection conn) {
-		RowDataPacket rowDataPkg = new RowDataPacket(1);
+		RowDataPacket rowDataPkg = new RowDataPacket(count);
 		rowDataPkg.read(row);
-		byte[] columnData = rowDataPkg.fieldValues.get(0);
-		String columnVal = new String(columnData);
-		SequenceVal seqVal = (SequenceVal) conn.getAttachment();
-		if (IncrSequenceMySQLHandler.errSeqResult.equals(columnVal)) {
-			seqVal.dbretVal = IncrSequenceMySQLHandler.errSeqResult;
-			LOGGER.warn(" sequnce sql returned err value ,sequence:"
-					+ seqVal.seqName + " " + columnVal + " sql:" + seqVal.sql);
-		} else {
-			seqVal.dbretVal = columnVal;
+		for (byte[] columnData : rowDataPkg.fieldValues) {
+			String columnVal = columnData == null ? null : new String(columnData);
+			if (columnVal == null
+					|| IncrSequenceMySQLHandler.errSeqResult.equals(columnVal)) {
+				error = "sequnce not found in db table";
+				LOGGER.warn(" sequnce sql returned err value ,sequence:"
+						+ seqVal.seqName + " " + columnVal + " sql:" + sql);
+			} else {
+				segments.add(Segment.parse(columnVal));
+			}
 		}
 	}
 
 	@Override
 	public void rowEofResponse(byte[] eof, BackendConnection conn) {
-		((SequenceVal) conn.getAttachment()).dbfinished = true;
 		conn.release();
+		finish(segments.isEmpty() && error == null ? "no sequence returned" : error);
 	}
 
 	private void executeException(BackendConnection c, Throwable e) {
-		SequenceVal seqVal = ((SequenceVal) c.getAttachment());
-		seqVal.dbfinished = true;
 		String errMgs=e.toString();
-		IncrSequenceMySQLHandler.latestErrors.put(seqVal.seqName, errMgs);
 		LOGGER.warn("executeException   " + errMgs);
 		c.close("exception:" +errMgs);
-
+		finish(errMgs);
 	}
 
 	@Override
@@ -275,72 +405,158 @@ class FetchMySQLSequnceHandler implements ResponseHandler {
 
 }
 
+/**
+ * 双缓冲: current 为正在消费的号段, ready 为已预取的号段
+ */
 class SequenceVal {
-	public AtomicBoolean newValueSetted = new AtomicBoolean(false);
-	public AtomicLong curVal = new AtomicLong(0);
-	public volatile String dbretVal = null;
-	public volatile boolean dbfinished;
-	public AtomicBoolean fetching = new AtomicBoolean(false);
-	public volatile long maxSegValue;
-	public volatile boolean successFetched;
+	// 上一批号段在该时间内用完时加倍每次取回的号段数, 空闲超过 SHRINK_TIME 时减半
+	static final long GROW_TIME = 1000L;
+	static final long SHRINK_TIME = 60 * 1000L;
+
+	public final AtomicBoolean fetching = new AtomicBoolean(false);
 	public volatile String dataNode;
 	public final String seqName;
-	public final String sql;
+	private volatile Segment current;
+	private final ConcurrentLinkedQueue<Segment> ready = new ConcurrentLinkedQueue<Segment>();
+	// 不等待取号的调用者登记的回调, 取号结束后执行
+	private final List<Runnable> waiters = new ArrayList<Runnable>(2);
+	private volatile int fetchCount = 1;
+	private long lastFetchTime;
 
 	public SequenceVal(String seqName, String dataNode) {
 		this.seqName = seqName;
 		this.dataNode = dataNode;
-		sql = "SELECT mycat_seq_nextval('" + seqName + "')";
 	}
 
-	public boolean isNexValValid(Long nexVal) {
-		if (nexVal < this.maxSegValue) {
-			return true;
-		} else {
-			return false;
+	Segment getCurrent() {
+		return current;
+	}
+
+	int getReadyCount() {
+		return ready.size();
+	}
+
+	int getFetchCount() {
+		return fetchCount;
+	}
+
+	/**
+	 * 一条SQL取多个号段, 一次往返
+	 */
+	String buildSql(int count) {
+		StringBuilder sb = new StringBuilder("SELECT ");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append("mycat_seq_nextval('").append(seqName).append("')");
 		}
+		return sb.toString();
 	}
 
-	FetchMySQLSequnceHandler seqHandler;
+	/**
+	 * 根据两次取号的间隔调整本次取回的号段数
+	 */
+	synchronized int nextFetchCount(long now, int maxSegments) {
+		int count = fetchCount;
+		if (lastFetchTime > 0) {
+			long elapsed = now - lastFetchTime;
+			if (elapsed < GROW_TIME) {
+				count = Math.min(Math.max(1, maxSegments), count * 2);
+			} else if (elapsed > SHRINK_TIME) {
+				count = Math.max(1, count / 2);
+			}
+		}
+		fetchCount = count;
+		lastFetchTime = now;
+		return count;
+	}
 
-	public void setCurValue(long newValue) {
-		curVal.set(newValue);
-		successFetched = true;
+	/**
+	 * 当前号段用完时切换到预取的号段
+	 *
+	 * @return false 没有可用的号段
+	 */
+	synchronized boolean switchSegment(Segment exhausted) {
+		if (current != exhausted) {
+			// 已被其他线程切换
+			return true;
+		}
+		Segment next = ready.poll();
+		if (next == null) {
+			return false;
+		}
+		current = next;
+		return true;
 	}
 
-	public Long[] waitFinish() {
-		long start = System.currentTimeMillis();
-		long end = start + 10 * 1000;
-		while (System.currentTimeMillis() < end) {
-			if (dbretVal == IncrSequenceMySQLHandler.errSeqResult) {
-				throw new java.lang.RuntimeException(
-						"sequnce not found in db table ");
-			} else if (dbretVal != null) {
-				String[] items = dbretVal.split(",");
-				Long curVal = Long.valueOf(items[0]);
-				int span = Integer.valueOf(items[1]);
-				return new Long[] { curVal, curVal + span };
-			} else {
-				try {
-					Thread.sleep(100);
-				} catch (InterruptedException e) {
-					IncrSequenceMySQLHandler.LOGGER
-							.warn("wait db fetch sequnce err " + e);
-				}
+	/**
+	 * 取号结束, segments 为null表示失败
+	 */
+	void fetchFinished(List<Segment> segments) {
+		List<Runnable> fetched;
+		synchronized (this) {
+			if (segments != null) {
+				ready.addAll(segments);
+			}
+			fetching.set(false);
+			notifyAll();
+			if (waiters.isEmpty()) {
+				return;
+			}
+			fetched = new ArrayList<Runnable>(waiters);
+			waiters.clear();
+		}
+		for (Runnable waiter : fetched) {
+			try {
+				waiter.run();
+			} catch (Exception e) {
+				IncrSequenceMySQLHandler.LOGGER.warn(
+						"sequence fetched callback err " + e, e);
 			}
 		}
-		return null;
 	}
 
-	public boolean isSuccessFetched() {
-		return successFetched;
+	/**
+	 * 登记取号结束后的回调, 不等待
+	 *
+	 * @return false 取号已经结束, 不会执行 waiter
+	 */
+	synchronized boolean addWaiter(Runnable waiter) {
+		if (!fetching.get()) {
+			return false;
+		}
+		waiters.add(waiter);
+		return true;
 	}
 
-	public long nextValue() {
-		if (successFetched == false) {
-			throw new java.lang.RuntimeException(
-					"sequnce fetched failed  from db ");
+	/**
+	 * @return 有取回的号段, 或当前号段已不是 exhausted
+	 */
+	synchronized boolean hasSegment(Segment exhausted) {
+		return !ready.isEmpty() || current != exhausted;
+	}
+
+	/**
+	 * 等待正在进行的取号结束
+	 *
+	 * @return false 超时, 或取号失败且没有可用号段
+	 */
+	synchronized boolean waitFetch(Segment exhausted, long deadline) {
+		while (fetching.get() && ready.isEmpty()) {
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0) {
+				return false;
+			}
+			try {
+				wait(left);
+			} catch (InterruptedException e) {
+				IncrSequenceMySQLHandler.LOGGER
+						.warn("wait db fetch sequnce err " + e);
+				return false;
+			}
 		}
-		return curVal.incrementAndGet();
+		// 取回的号段可能已被其他线程切换为当前号段
+		return hasSegment(exhausted);
 	}
 }
@@ -31,6 +31,8 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 import org.opencloudb.MycatConfig;
@@ -39,6 +41,7 @@ import org.opencloudb.backend.BackendConnection;
 import org.opencloudb.backend.PhysicalDBNode;
 import org.opencloudb.config.ErrorCode;
 import org.opencloudb.config.model.SystemConfig;
+import org.opencloudb.mysql.nio.MySQLConnection;
 import org.opencloudb.mysql.nio.handler.CommitNodeHandler;
 import org.opencloudb.mysql.nio.handler.KillConnectionHandler;
 import org.opencloudb.mysql.nio.handler.MultiNodeCoordinator;
@@ -69,6 +72,11 @@ public class NonBlockingSession implements Session {
 	private final MultiNodeCoordinator multiNodeCoordinator;
 	private final CommitNodeHandler commitHandler;
 	private volatile String xaTXID;
+	// 前端写队列满时暂停的合并结果输出, 写队列可用或前端关闭后在业务线程池中继续
+	private final AtomicReference<Runnable> writeQueueWaiter = new AtomicReference<Runnable>();
+	// 会话持有后端连接数的峰值, 事务中语句结束后提前释放的连接数
+	private volatile int maxHeldCount;
+	private final AtomicLong earlyReleaseCount = new AtomicLong();
 
 	public NonBlockingSession(ServerConnection source) {
 		this.source = source;
@@ -100,6 +108,27 @@ public class NonBlockingSession implements Session {
 		return this.target;
 	}
 
+	/**
+	 * 持有的连接中执行过修改语句(需要提交)的个数
+	 */
+	public int getModifiedTargetCount() {
+		int count = 0;
+		for (BackendConnection conn : target.values()) {
+			if (!isReadOnly(conn)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public int getMaxHeldCount() {
+		return maxHeldCount;
+	}
+
+	public long getEarlyReleaseCount() {
+		return earlyReleaseCount.get();
+	}
+
 	public BackendConnection removeTarget(RouteResultsetNode key) {
 		return target.remove(key);
 	}
@@ -148,6 +177,7 @@ public class NonBlockingSession implements Session {
 	}
 
 	public void commit() {
+		releaseReadOnlyTargets();
 		final int initCount = target.size();
 		if (initCount <= 0) {
 			ByteBuffer buffer = source.allocate();
@@ -155,6 +185,7 @@ public class NonBlockingSession implements Session {
 			source.write(buffer);
 			return;
 		} else if (initCount == 1) {
+			// 只有一个节点有修改, 一阶段提交
 			BackendConnection con = target.elements().nextElement();
 			commitHandler.commit(con);
 
@@ -169,6 +200,7 @@ public class NonBlockingSession implements Session {
 	}
 
 	public void rollback() {
+		releaseReadOnlyTargets();
 		final int initCount = target.size();
 		if (initCount <= 0) {
 			if (LOGGER.isDebugEnabled()) {
@@ -183,11 +215,75 @@ public class NonBlockingSession implements Session {
 		rollbackHandler.rollback();
 	}
 
+	/**
+	 * 只读参与者(未执行过修改语句或连接的是从库)按自动提交执行, 没有开启事务,
+	 * 提交/回滚时直接释放回连接池, 只对有修改的节点发送COMMIT/ROLLBACK
+	 */
+	private void releaseReadOnlyTargets() {
+		boolean debug = LOGGER.isDebugEnabled();
+		for (Entry<RouteResultsetNode, BackendConnection> entry : target
+				.entrySet()) {
+			if (isReadOnly(entry.getValue())) {
+				releaseConnection(entry.getKey(), debug, false);
+			}
+		}
+	}
+
+	/**
+	 * 未执行过修改语句或连接的是从库, 按自动提交执行, 不在事务中
+	 */
+	private static boolean isReadOnly(BackendConnection conn) {
+		return conn.isFromSlaveDB() || !conn.isModifiedSQLExecuted();
+	}
+
 	@Override
 	public void cancel(FrontendConnection sponsor) {
 
 	}
 
+	/**
+	 * pause reading rows from the backend while the client reads slower than
+	 * the rows come, reading goes on in {@link #writeQueueAvailable()}
+	 */
+	public void checkWriteQueue(BackendConnection conn) {
+		if (source.isWriteQueueFull() && conn instanceof MySQLConnection) {
+			((MySQLConnection) conn).pauseRead(MySQLConnection.READ_PAUSE_WRITE_QUEUE);
+			source.waitWriteQueueAvailable();
+		}
+	}
+
+	/**
+	 * the merge output stops while the client reads slower than the rows are
+	 * written, the task goes on in the business executor once the write
+	 * queue drains or the client is closed
+	 */
+	public void waitWriteQueue(Runnable task) {
+		writeQueueWaiter.set(task);
+		source.waitWriteQueueAvailable();
+		if (source.isClosed()) {
+			resumeWriteQueueWaiter();
+		}
+	}
+
+	private void resumeWriteQueueWaiter() {
+		Runnable task = writeQueueWaiter.getAndSet(null);
+		if (task != null) {
+			MycatServer.getInstance().getBusinessExecutor().execute(task);
+		}
+	}
+
+	/**
+	 * the write queue of the client is below the low water mark
+	 */
+	public void writeQueueAvailable() {
+		for (BackendConnection conn : target.values()) {
+			if (conn instanceof MySQLConnection) {
+				((MySQLConnection) conn).writeQueueAvailable();
+			}
+		}
+		resumeWriteQueueWaiter();
+	}
+
 	/**
 	 * {@link ServerConnection#isClosed()} must be true before invoking this
 	 */
@@ -197,6 +293,8 @@ public class NonBlockingSession implements Session {
 		}
 		target.clear();
 		clearHandlesResources();
+		// the waiting merge output releases its files
+		resumeWriteQueueWaiter();
 	}
 
 	public void closeAndClearResources(String reason) {
@@ -212,10 +310,14 @@ public class NonBlockingSession implements Session {
 		RouteResultsetNode node = (RouteResultsetNode) conn.getAttachment();
 
 		if (node != null) {
-			if (this.source.isAutocommit() || conn.isFromSlaveDB()
-					|| !conn.isModifiedSQLExecuted()) {
-				releaseConnection((RouteResultsetNode) conn.getAttachment(),
-						LOGGER.isDebugEnabled(), needRollback);
+			if (this.source.isAutocommit()) {
+				releaseConnection(node, LOGGER.isDebugEnabled(), needRollback);
+			} else if (isReadOnly(conn)) {
+				// 事务中只读的连接在语句结束时释放, 不占用到提交
+				if (target.get(node) == conn) {
+					earlyReleaseCount.incrementAndGet();
+				}
+				releaseConnection(node, LOGGER.isDebugEnabled(), needRollback);
 			}
 		}
 	}
@@ -278,7 +380,12 @@ public class NonBlockingSession implements Session {
 			BackendConnection conn) {
 		// System.out.println("bind connection "+conn+
 		// " to key "+key.getName()+" on sesion "+this);
-		return target.put(key, conn);
+		BackendConnection old = target.put(key, conn);
+		int held = target.size();
+		if (held > maxHeldCount) {
+			maxHeldCount = held;
+		}
+		return old;
 	}
 
 	public boolean tryExistsCon(final BackendConnection conn,
@@ -257,6 +257,11 @@ public class ServerConnection extends FrontendConnection {
 		});
 	}
 
+	@Override
+	protected void writeQueueAvailable() {
+		session.writeQueueAvailable();
+	}
+
 	@Override
 	public void close(String reason) {
 		super.close(reason);
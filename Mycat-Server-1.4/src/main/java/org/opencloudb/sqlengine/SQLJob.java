@@ -63,7 +63,7 @@ public class SQLJob implements ResponseHandler, Runnable {
 				PhysicalDBNode dn = conf.getDataNodes().get(node.getName());
 				dn.getConnection(dn.getDatabase(), true, node, this, node);
 			} else {
-				ds.getConnection(dataNodeOrDatabase, true, this, null);
+				ds.getProbeConnection(dataNodeOrDatabase, true, this, null);
 			}
 		} catch (Exception e) {
 			LOGGER.info("can't get connection for sql ,error:" + e);
@@ -1,151 +1,203 @@
 package org.opencloudb.stat;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.opencloudb.parser.util.SQLFingerprint;
 import org.opencloudb.server.parser.ServerParse;
 
-import com.alibaba.druid.sql.visitor.ParameterizedOutputVisitorUtils;
-
 /**
- * 高频SQL 
- * 
+ * 高频SQL
+ *
+ * 使用 Space-Saving 算法统计 top-K, 内存固定为 CAPACITY_SIZE 条,
+ * 按SQL哈希分段加锁, 单次更新 O(log K), 不再整表排序淘汰。
+ * 新进入的SQL继承被淘汰SQL的计数(FREQUENCY 为上界, 误差见 getError),
+ * 执行时间统计从进入时开始精确累计。
+ *
  * @author zhuam
  *
  */
 public class HighFrequencySqlAnalyzer implements QueryResultListener {
-	
-	private static final int CAPACITY_SIZE = 100;
-	private static final int DELETE_SIZE = 10;
-	
-	private LinkedHashMap<String, SqlFrequency> sqlFrequencyMap = new LinkedHashMap<String, SqlFrequency>();	
-	private ReentrantReadWriteLock lock  = new ReentrantReadWriteLock();
-	
+
+	private static final int CAPACITY_SIZE = 128;
+	private static final int STRIPE_SIZE = 8;
+
+	private final Stripe[] stripes;
+
 	private SQLParser sqlParser = new SQLParser();
-	
+
     private final static HighFrequencySqlAnalyzer instance  = new HighFrequencySqlAnalyzer();
-    
-    private HighFrequencySqlAnalyzer() {}
-    
+
+    private HighFrequencySqlAnalyzer() {
+    	this(CAPACITY_SIZE, STRIPE_SIZE);
+    }
+
+    HighFrequencySqlAnalyzer(int capacity, int stripeSize) {
+    	int stripeCapacity = Math.max(1, capacity / stripeSize);
+    	this.stripes = new Stripe[stripeSize];
+    	for (int i = 0; i < stripeSize; i++) {
+    		this.stripes[i] = new Stripe(stripeCapacity);
+    	}
+    }
+
     public static HighFrequencySqlAnalyzer getInstance() {
         return instance;
-    }  
+    }
 
 	@Override
 	public void onQuery(QueryResult query) {
-		
-		int sqlType = query.getSqlType();
-		String sql = query.getSql();		
-		String newSql = this.sqlParser.mergeSql(sql);
-		long executeTime = query.getEndTime() - query.getStartTime();
-		this.lock.writeLock().lock();
-        try {
-        	
-        	switch(sqlType) {
-        	case ServerParse.SELECT:		
-        	case ServerParse.UPDATE:			
-        	case ServerParse.INSERT:		
-        	case ServerParse.DELETE:
-        	case ServerParse.REPLACE:  
-        		
-	        	if ( this.sqlFrequencyMap.size() >= CAPACITY_SIZE ) {
-	        		
-	        		// 删除频率次数排名靠后的SQL
-	        		List<Map.Entry<String, SqlFrequency>> list = this.sortFrequency( sqlFrequencyMap, true );
-	        		for (int i = 0; i < DELETE_SIZE; i++) {
-	        			
-	        			Entry<String, SqlFrequency> entry = list.get(i);
-	        			String key = entry.getKey();
-	        			this.sqlFrequencyMap.remove( key );
-	        		}
-	        	}
-	        	
-	        	SqlFrequency frequency = this.sqlFrequencyMap.get( newSql );
-	            if ( frequency == null) {
-	            	frequency = new SqlFrequency();
-	            	frequency.setSql( newSql );
-	            } 
-	            frequency.setLastTime( query.getEndTime() );
-	            frequency.incCount();
-	            frequency.setExecuteTime(executeTime);
-	            this.sqlFrequencyMap.put(newSql, frequency);
-	            
-        	}
-            
-        } finally {
-        	this.lock.writeLock().unlock();
-        }
+
+		switch(query.getSqlType()) {
+    	case ServerParse.SELECT:
+    	case ServerParse.UPDATE:
+    	case ServerParse.INSERT:
+    	case ServerParse.DELETE:
+    	case ServerParse.REPLACE:
+
+			//优先使用路由阶段已生成的参数化SQL
+			String newSql = query.getSqlTemplate();
+			if ( newSql == null ) {
+				newSql = this.sqlParser.mergeSql( query.getSql() );
+			}
+			long executeTime = query.getEndTime() - query.getStartTime();
+			getStripe(newSql).offer(newSql, executeTime, query.getEndTime());
+		}
+	}
+
+	private Stripe getStripe(String sql) {
+		int h = sql.hashCode();
+		h ^= (h >>> 16);
+		return stripes[(h & 0x7fffffff) % stripes.length];
 	}
 
 	/**
-	 * 获取 SQL 访问频率
+	 * 获取 SQL 访问频率, 按次数降序
 	 */
 	public List<Map.Entry<String, SqlFrequency>> getSqlFrequency() {
-		
-		List<Map.Entry<String, SqlFrequency>> list = null;
-		
-        lock.readLock().lock();
-        try {
-        	list = this.sortFrequency( sqlFrequencyMap, false );
-        } finally {
-            lock.readLock().unlock();
-        }
-        return list;
-	}	
-	
-	/**
-	 * 排序
-	 */
-	private List<Map.Entry<String, SqlFrequency>> sortFrequency(HashMap<String, SqlFrequency> map,
-			final boolean bAsc) {
 
-		List<Map.Entry<String, SqlFrequency>> list = new ArrayList<Map.Entry<String, SqlFrequency>>(map.entrySet());
+		List<Map.Entry<String, SqlFrequency>> list = new ArrayList<Map.Entry<String, SqlFrequency>>();
+		for (Stripe stripe : stripes) {
+			stripe.snapshot(list);
+		}
 
 		Collections.sort(list, new Comparator<Map.Entry<String, SqlFrequency>>() {
 			public int compare(Map.Entry<String, SqlFrequency> o1, Map.Entry<String, SqlFrequency> o2) {
+				return Long.compare(o2.getValue().getCount(), o1.getValue().getCount()); // 降序
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * 一段 Space-Saving 统计: HashMap 定位 + 按计数的小顶堆找最小项
+	 */
+	static final class Stripe {
+
+		private final HashMap<String, SqlFrequency> map;
+		private final SqlFrequency[] heap;
+		private int size;
+
+		Stripe(int capacity) {
+			this.map = new HashMap<String, SqlFrequency>(capacity * 2);
+			this.heap = new SqlFrequency[capacity];
+		}
 
-				if (!bAsc) {
-					return o2.getValue().getCount() - o1.getValue().getCount(); // 降序
+		synchronized void offer(String sql, long executeTime, long lastTime) {
+			SqlFrequency frequency = map.get(sql);
+			if (frequency == null) {
+				if (size < heap.length) {
+					frequency = new SqlFrequency(sql, 0);
+					frequency.heapIndex = size;
+					heap[size++] = frequency;
 				} else {
-					return o1.getValue().getCount() - o2.getValue().getCount(); // 升序
+					// 替换计数最小的SQL, 新SQL继承其计数作为误差
+					SqlFrequency min = heap[0];
+					map.remove(min.getSql());
+					frequency = new SqlFrequency(sql, min.getCount());
+					frequency.heapIndex = 0;
+					heap[0] = frequency;
 				}
+				map.put(sql, frequency);
 			}
-		});
+			frequency.incCount();
+			frequency.setLastTime(lastTime);
+			frequency.setExecuteTime(executeTime);
+			siftDown(frequency.heapIndex);
+		}
 
-		return list;
+		synchronized void snapshot(List<Map.Entry<String, SqlFrequency>> list) {
+			for (int i = 0; i < size; i++) {
+				SqlFrequency copy = heap[i].copy();
+				list.add(new AbstractMap.SimpleImmutableEntry<String, SqlFrequency>(copy.getSql(), copy));
+			}
+		}
 
+		/**
+		 * 计数只增不减, 只需下沉
+		 */
+		private void siftDown(int i) {
+			SqlFrequency x = heap[i];
+			int half = size >>> 1;
+			while (i < half) {
+				int child = (i << 1) + 1;
+				int right = child + 1;
+				if (right < size && heap[right].getCount() < heap[child].getCount()) {
+					child = right;
+				}
+				if (x.getCount() <= heap[child].getCount()) {
+					break;
+				}
+				heap[i] = heap[child];
+				heap[i].heapIndex = i;
+				i = child;
+			}
+			heap[i] = x;
+			x.heapIndex = i;
+		}
 	}
-	
-	public class SqlFrequency {
-		
-		private String sql;
-		private int count = 0;
+
+	public static class SqlFrequency {
+
+		private final String sql;
+		private final long error;
+		private long count = 0;
 		private long lastTime = 0;
 		private long executeTime=0;
 		private long maxTime=0;
-		private long avgTime=0;
 		private long minTime=0;
-		
+		//进入统计后的精确执行次数和总耗时
+		private long execCount = 0;
+		private long totalTime = 0;
+
+		int heapIndex;
+
+		SqlFrequency(String sql, long error) {
+			this.sql = sql;
+			this.error = error;
+			this.count = error;
+		}
+
 		public String getSql() {
 			return sql;
 		}
 
-		public void setSql(String sql) {
-			this.sql = sql;
+		/**
+		 * 次数上界, 真实次数在 [count - error, count] 之间
+		 */
+		public long getCount() {
+			return count;
 		}
 
-		public int getCount() {
-			return count;
+		public long getError() {
+			return error;
 		}
 
-		public void incCount() {
+		void incCount() {
 			this.count++;
 		}
 
@@ -153,7 +205,7 @@ public class HighFrequencySqlAnalyzer implements QueryResultListener {
 			return lastTime;
 		}
 
-		public void setLastTime(long lastTime) {
+		void setLastTime(long lastTime) {
 			this.lastTime = lastTime;
 		}
 		public long getExecuteTime() {
@@ -166,41 +218,41 @@ public class HighFrequencySqlAnalyzer implements QueryResultListener {
 			return minTime;
 		}
 		public long getAvgTime() {
-			return avgTime;
-		}		
-		public void setExecuteTime(long execTime) {
-			if (execTime> this.maxTime){
-				this.maxTime = execTime;			  
+			return execCount == 0 ? 0 : totalTime / execCount;
+		}
+		void setExecuteTime(long execTime) {
+			if (execTime > this.maxTime) {
+				this.maxTime = execTime;
 			}
-			if (this.minTime==0){
+			if (this.execCount == 0 || execTime < this.minTime) {
 				this.minTime = execTime;
 			}
-			if (execTime>0) {
-			  if (execTime < this.minTime){
-				this.minTime = execTime;			  
-			  }	
-			  if (this.executeTime+execTime>0){
-			    this.avgTime=(this.executeTime+execTime)/2;
-			  }
-			}
-			this.executeTime = execTime;	
-		   //System.out.println(" exec:"+execTime +" max:"+maxTime+" min:"+minTime+ " avg:"+avgTime);	
-		}			
+			this.execCount++;
+			this.totalTime += execTime;
+			this.executeTime = execTime;
+		}
+
+		SqlFrequency copy() {
+			SqlFrequency copy = new SqlFrequency(sql, error);
+			copy.count = count;
+			copy.lastTime = lastTime;
+			copy.executeTime = executeTime;
+			copy.maxTime = maxTime;
+			copy.minTime = minTime;
+			copy.execCount = execCount;
+			copy.totalTime = totalTime;
+			return copy;
+		}
 	}
-	
-	
+
+
 	class SQLParser {
-		
-		public String fixSql(String sql) {
-			if ( sql != null)
-				return sql.replace("\n", " ");
-			return sql;
-	    }
-		
+
+		/**
+		 * 与路由阶段使用同样的参数化规则, 常量替换为 ?
+		 */
 		public String mergeSql(String sql) {
-			
-			String newSql = ParameterizedOutputVisitorUtils.parameterize(sql, "mysql");
-			return fixSql( newSql );
+			return SQLFingerprint.parse(sql).getTemplate();
 	    }
 	}
 
@@ -1,5 +1,7 @@
 package org.opencloudb.stat;
 
+import java.util.List;
+
 /**
  * SQL 执行结果
  * 
@@ -14,6 +16,10 @@ public class QueryResult {
 	private long startTime;
 	private long endTime;
 	
+	//路由阶段已得到的表名和参数化SQL, 可能为空
+	private List<String> tables;
+	private String sqlTemplate;
+	
 	public QueryResult(String user, int sqlType, String sql, long startTime) {
 		super();
 		this.user = user;
@@ -22,6 +28,13 @@ public class QueryResult {
 		this.startTime = startTime;
 	}
 
+	public QueryResult(String user, int sqlType, String sql, long startTime,
+			List<String> tables, String sqlTemplate) {
+		this(user, sqlType, sql, startTime);
+		this.tables = tables;
+		this.sqlTemplate = sqlTemplate;
+	}
+
 	public String getUser() {
 		return user;
 	}
@@ -34,6 +47,14 @@ public class QueryResult {
 		return sql;
 	}
 
+	public List<String> getTables() {
+		return tables;
+	}
+
+	public String getSqlTemplate() {
+		return sqlTemplate;
+	}
+
 	public long getStartTime() {
 		return startTime;
 	}
@@ -62,7 +62,11 @@ public class TableStatAnalyzer implements QueryResultListener {
     		String masterTable = null;
     		List<String> relaTables = new ArrayList<String>();
     		
-    		List<String> tables = sqlParser.parseTableNames(sql);
+    		//优先使用路由阶段已解析出的表名
+    		List<String> tables = query.getTables();
+    		if ( tables == null ) {
+    			tables = sqlParser.parseTableNames(sql);
+    		}
     		for(int i = 0; i < tables.size(); i++) {
     			String table = tables.get(i);
     			if ( i == 0 ) {
@@ -155,7 +159,7 @@ public class TableStatAnalyzer implements QueryResultListener {
 		}		
 		
 		/**
-		 * 去掉库名、去掉``
+		 * 去掉库名、去掉``, 并与路由阶段一样转为大写
 		 * @param tableName
 		 * @return
 		 */
@@ -166,6 +170,7 @@ public class TableStatAnalyzer implements QueryResultListener {
 				if ( dotIdx > 0 ) {
 					tableName = tableName.substring(1 + dotIdx).trim();
 				}
+				tableName = tableName.toUpperCase();
 			}
 			return tableName;
 		}
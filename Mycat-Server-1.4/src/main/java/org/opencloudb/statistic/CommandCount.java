@@ -23,100 +23,107 @@
  */
 package org.opencloudb.statistic;
 
+import org.opencloudb.util.StripedCounter;
+
 /**
+ * 命令计数, 前端reactor线程和业务线程都会更新, 使用分段计数器
+ * 
  * @author mycat
  */
 public class CommandCount {
 
-    private long initDB;
-    private long query;
-    private long stmtPrepare;
-    private long stmtExecute;
-    private long stmtClose;
-    private long ping;
-    private long kill;
-    private long quit;
-    private long heartbeat;
-    private long other;
+    // 每个处理器一组, 分段不宜过多
+    private static final int STRIPES = 4;
+
+    private final StripedCounter initDB = new StripedCounter(STRIPES);
+    private final StripedCounter query = new StripedCounter(STRIPES);
+    private final StripedCounter stmtPrepare = new StripedCounter(STRIPES);
+    private final StripedCounter stmtExecute = new StripedCounter(STRIPES);
+    private final StripedCounter stmtClose = new StripedCounter(STRIPES);
+    private final StripedCounter ping = new StripedCounter(STRIPES);
+    private final StripedCounter kill = new StripedCounter(STRIPES);
+    private final StripedCounter quit = new StripedCounter(STRIPES);
+    private final StripedCounter heartbeat = new StripedCounter(STRIPES);
+    private final StripedCounter other = new StripedCounter(STRIPES);
 
     public void doInitDB() {
-        ++initDB;
+        initDB.increment();
     }
 
     public long initDBCount() {
-        return initDB;
+        return initDB.get();
     }
 
     public void doQuery() {
-        ++query;
+        query.increment();
     }
 
     public long queryCount() {
-        return query;
+        return query.get();
     }
 
     public void doStmtPrepare() {
-        ++stmtPrepare;
+        stmtPrepare.increment();
     }
 
     public long stmtPrepareCount() {
-        return stmtPrepare;
+        return stmtPrepare.get();
     }
 
     public void doStmtExecute() {
-        ++stmtExecute;
+        stmtExecute.increment();
     }
 
     public long stmtExecuteCount() {
-        return stmtExecute;
+        return stmtExecute.get();
     }
 
     public void doStmtClose() {
-        ++stmtClose;
+        stmtClose.increment();
     }
 
     public long stmtCloseCount() {
-        return stmtClose;
+        return stmtClose.get();
     }
 
     public void doPing() {
-        ++ping;
+        ping.increment();
     }
 
     public long pingCount() {
-        return ping;
+        return ping.get();
     }
 
     public void doKill() {
-        ++kill;
+        kill.increment();
     }
 
     public long killCount() {
-        return kill;
+        return kill.get();
     }
 
     public void doQuit() {
-        ++quit;
+        quit.increment();
     }
 
     public long quitCount() {
-        return quit;
+        return quit.get();
     }
 
     public void doOther() {
-        ++other;
+        other.increment();
     }
 
     public long heartbeat() {
-        return heartbeat;
+        return heartbeat.get();
     }
 
     public void doHeartbeat() {
-        ++heartbeat;
+        heartbeat.increment();
     }
 
     public long otherCount() {
-        return other;
+        return other.get();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * counter updated by many threads, every thread adds to one of several
+ * cells (each in its own cache line) chosen by thread id, the value is the
+ * sum of the cells. reading is slower than updating
+ */
+public final class StripedCounter {
+	// longs per cell, 128 bytes apart so cells don't share a cache line
+	private static final int PAD = 16;
+	private static final int DEFAULT_STRIPES = Runtime.getRuntime()
+			.availableProcessors() * 2;
+
+	private final AtomicLongArray cells;
+	private final int mask;
+
+	public StripedCounter() {
+		this(DEFAULT_STRIPES);
+	}
+
+	public StripedCounter(int stripes) {
+		int n = 1;
+		while (n < stripes) {
+			n <<= 1;
+		}
+		this.mask = n - 1;
+		this.cells = new AtomicLongArray(n * PAD);
+	}
+
+	public void add(long x) {
+		int index = ((int) Thread.currentThread().getId() & mask) * PAD;
+		cells.addAndGet(index, x);
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public void decrement() {
+		add(-1);
+	}
+
+	public long get() {
+		long sum = 0;
+		for (int i = 0; i < cells.length(); i += PAD) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+
+	public void reset() {
+		for (int i = 0; i < cells.length(); i += PAD) {
+			cells.set(i, 0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(get());
+	}
+}
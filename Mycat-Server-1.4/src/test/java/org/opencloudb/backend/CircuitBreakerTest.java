@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.backend;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencloudb.config.ErrorCode;
+
+/**
+ * @author mycat
+ */
+public class CircuitBreakerTest {
+
+	@Test
+	public void testOpenAfterConsecutiveFailures() {
+		CircuitBreaker breaker = new CircuitBreaker();
+		Assert.assertFalse(breaker.onFailure(100, 3, 1000));
+		Assert.assertFalse(breaker.onFailure(100, 3, 1000));
+		// 成功后重新计数
+		breaker.onSuccess();
+		Assert.assertEquals(0, breaker.getFailures());
+		Assert.assertFalse(breaker.onFailure(100, 3, 1000));
+		Assert.assertFalse(breaker.onFailure(100, 3, 1000));
+		Assert.assertTrue(breaker.onFailure(100, 3, 1000));
+		Assert.assertEquals(CircuitBreaker.OPEN, breaker.getState());
+		Assert.assertEquals(1, breaker.getOpenCount());
+
+		Assert.assertFalse(breaker.isAvailable(500));
+		Assert.assertFalse(breaker.allowRequest(500, 1000));
+		// 熔断前发出的请求成功不恢复
+		Assert.assertFalse(breaker.onSuccess());
+		Assert.assertEquals(CircuitBreaker.OPEN, breaker.getState());
+		Assert.assertEquals(1, breaker.getRejectCount());
+		// 已熔断时的失败不延长熔断时间
+		Assert.assertFalse(breaker.onFailure(900, 3, 1000));
+		Assert.assertTrue(breaker.isAvailable(1100));
+	}
+
+	@Test
+	public void testHalfOpenProbe() {
+		CircuitBreaker breaker = new CircuitBreaker();
+		Assert.assertTrue(breaker.onFailure(0, 1, 1000));
+
+		// 到期后只放行一个探测请求
+		Assert.assertTrue(breaker.allowRequest(1000, 1000));
+		Assert.assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+		Assert.assertFalse(breaker.allowRequest(1000, 1000));
+		Assert.assertFalse(breaker.isAvailable(1500));
+
+		// 探测失败重新熔断
+		Assert.assertTrue(breaker.onFailure(1500, 1, 1000));
+		Assert.assertEquals(CircuitBreaker.OPEN, breaker.getState());
+		Assert.assertFalse(breaker.allowRequest(2000, 1000));
+
+		// 探测成功恢复
+		Assert.assertTrue(breaker.allowRequest(2500, 1000));
+		Assert.assertTrue(breaker.onSuccess());
+		Assert.assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+		Assert.assertTrue(breaker.allowRequest(2500, 1000));
+	}
+
+	@Test
+	public void testProbeTimeout() {
+		CircuitBreaker breaker = new CircuitBreaker();
+		breaker.onFailure(0, 1, 1000);
+		Assert.assertTrue(breaker.allowRequest(1000, 1000));
+		// 探测请求没有结果, 超时后再放行一个
+		Assert.assertFalse(breaker.allowRequest(1999, 1000));
+		Assert.assertTrue(breaker.allowRequest(2000, 1000));
+	}
+
+	@Test
+	public void testServerError() {
+		Assert.assertTrue(CircuitBreaker.isServerError(ErrorCode.ER_CON_COUNT_ERROR));
+		Assert.assertTrue(CircuitBreaker.isServerError(ErrorCode.ER_SERVER_SHUTDOWN));
+		Assert.assertFalse(CircuitBreaker.isServerError(ErrorCode.ER_PARSE_ERROR));
+		Assert.assertFalse(CircuitBreaker.isServerError(ErrorCode.ER_DUP_ENTRY));
+	}
+}
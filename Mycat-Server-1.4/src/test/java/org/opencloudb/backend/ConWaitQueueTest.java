@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.backend;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author mycat
+ */
+public class ConWaitQueueTest {
+
+	@Test
+	public void testFifo() {
+		ConWaitQueue queue = new ConWaitQueue();
+		Assert.assertTrue(queue.offer(null, "a", "db1", 100, 1000, 2));
+		Assert.assertTrue(queue.offer(null, "b", "db2", 110, 1000, 2));
+		Assert.assertFalse(queue.offer(null, "c", "db1", 120, 1000, 2));
+		Assert.assertEquals(2, queue.size());
+
+		ConWaitQueue.Waiter waiter = queue.poll(150);
+		Assert.assertEquals("a", waiter.getAttachment());
+		Assert.assertEquals("db1", waiter.getSchema());
+		waiter = queue.poll(200);
+		Assert.assertEquals("b", waiter.getAttachment());
+		Assert.assertNull(queue.poll(200));
+
+		Assert.assertEquals(0, queue.size());
+		Assert.assertEquals(2, queue.getWaitCount());
+		Assert.assertEquals(50 + 90, queue.getWaitTime());
+		Assert.assertEquals(90, queue.getMaxWaitTime());
+		Assert.assertEquals(0, queue.getTimeoutCount());
+	}
+
+	@Test
+	public void testTimeout() {
+		ConWaitQueue queue = new ConWaitQueue();
+		queue.offer(null, "a", "db1", 100, 1000, 10);
+		queue.offer(null, "b", "db1", 200, 1000, 10);
+		queue.offer(null, "c", "db1", 300, 1000, 10);
+
+		Assert.assertNull(queue.pollTimeouts(1000));
+		List<ConWaitQueue.Waiter> timeouts = queue.pollTimeouts(1250);
+		Assert.assertEquals(2, timeouts.size());
+		Assert.assertEquals("a", timeouts.get(0).getAttachment());
+		Assert.assertEquals("b", timeouts.get(1).getAttachment());
+		Assert.assertEquals(1, queue.size());
+		Assert.assertEquals(2, queue.getTimeoutCount());
+
+		// 超时的等待者不会再被取走
+		Assert.assertEquals("c", queue.poll(1260).getAttachment());
+		Assert.assertNull(queue.poll(1260));
+		Assert.assertEquals(0, queue.size());
+	}
+}
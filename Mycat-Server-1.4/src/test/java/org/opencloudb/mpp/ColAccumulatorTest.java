@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.mpp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ColAccumulatorTest {
+
+	private static String merge(int mergeType, int colType, String... values) {
+		MergeCol col = new MergeCol(new ColMeta(0, colType), mergeType);
+		ColAccumulator acc = ColAccumulator.create(col, values[0] == null ? null
+				: values[0].getBytes());
+		for (int i = 1; i < values.length; i++) {
+			acc.merge(values[i] == null ? null : values[i].getBytes());
+		}
+		byte[] result = acc.getResult();
+		return result == null ? null : new String(result);
+	}
+
+	@Test
+	public void testCountAndLongSum() {
+		Assert.assertEquals("10", merge(MergeCol.MERGE_COUNT,
+				ColMeta.COL_TYPE_LONGLONG, "1", "2", "3", "4"));
+		Assert.assertEquals("-5", merge(MergeCol.MERGE_SUM,
+				ColMeta.COL_TYPE_LONG, "-10", "+2", "3"));
+		// sum overflow of long goes on exactly
+		Assert.assertEquals("9223372036854775808", merge(MergeCol.MERGE_SUM,
+				ColMeta.COL_TYPE_LONGLONG, "9223372036854775807", "1"));
+	}
+
+	@Test
+	public void testUnsignedBigint() {
+		String maxUnsigned = "18446744073709551615";
+		Assert.assertEquals(maxUnsigned, merge(MergeCol.MERGE_MAX,
+				ColMeta.COL_TYPE_LONGLONG, "1", maxUnsigned, "2"));
+		Assert.assertEquals("1", merge(MergeCol.MERGE_MIN,
+				ColMeta.COL_TYPE_LONGLONG, maxUnsigned, "1", "2"));
+		Assert.assertEquals("18446744073709551617", merge(MergeCol.MERGE_SUM,
+				ColMeta.COL_TYPE_LONGLONG, "1", maxUnsigned, "1"));
+		Assert.assertEquals("36893488147419103230", merge(MergeCol.MERGE_SUM,
+				ColMeta.COL_TYPE_LONGLONG, maxUnsigned, maxUnsigned));
+	}
+
+	@Test
+	public void testDecimalSumIsExact() {
+		Assert.assertEquals("0.30", merge(MergeCol.MERGE_SUM,
+				ColMeta.COL_TYPE_NEWDECIMAL, "0.10", "0.20"));
+		Assert.assertEquals("12345678901234567890.02", merge(
+				MergeCol.MERGE_SUM, ColMeta.COL_TYPE_NEWDECIMAL,
+				"12345678901234567890.01", "0.01"));
+	}
+
+	@Test
+	public void testMinMax() {
+		Assert.assertEquals("100", merge(MergeCol.MERGE_MAX,
+				ColMeta.COL_TYPE_LONG, "9", "100", "-200"));
+		Assert.assertEquals("-200", merge(MergeCol.MERGE_MIN,
+				ColMeta.COL_TYPE_LONG, "9", "100", "-200"));
+		Assert.assertEquals("-1.50", merge(MergeCol.MERGE_MIN,
+				ColMeta.COL_TYPE_NEWDECIMAL, "2.00", "-1.50", "0.1"));
+		Assert.assertEquals("2.5", merge(MergeCol.MERGE_MAX,
+				ColMeta.COL_TYPE_DOUBLE, "2.5", "-1.5"));
+		Assert.assertEquals("2015-10-02", merge(MergeCol.MERGE_MAX,
+				ColMeta.COL_TYPE_DATE, "2015-01-01", "2015-10-02",
+				"2014-12-31"));
+	}
+
+	@Test
+	public void testNullValues() {
+		Assert.assertEquals("3", merge(MergeCol.MERGE_SUM,
+				ColMeta.COL_TYPE_LONG, null, "1", null, "2"));
+		Assert.assertNull(merge(MergeCol.MERGE_SUM, ColMeta.COL_TYPE_LONG,
+				null, null));
+		// a single row is returned as is
+		Assert.assertEquals("1.000", merge(MergeCol.MERGE_SUM,
+				ColMeta.COL_TYPE_DOUBLE, "1.000"));
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.mpp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.opencloudb.net.mysql.RowDataPacket;
+import org.opencloudb.util.LongUtil;
+
+/**
+ * compare the hash grouper with the old linear scan grouper, run with
+ * [rows] [groups] [linearRows], default 1000000 rows of 100000 groups. the
+ * linear scan is O(rows * groups), so it only runs the first linearRows rows
+ * and the full time is estimated from that.
+ */
+public class RowDataPacketGrouperPerfMain {
+
+	private static List<RowDataPacket> genRows(int rows, int groups) {
+		Random rd = new Random(7);
+		List<RowDataPacket> list = new ArrayList<RowDataPacket>(rows);
+		for (int i = 0; i < rows; i++) {
+			RowDataPacket row = new RowDataPacket(2);
+			row.add(("user" + rd.nextInt(groups)).getBytes());
+			row.add(LongUtil.toBytes(rd.nextInt(100)));
+			list.add(row);
+		}
+		return list;
+	}
+
+	/**
+	 * group lookup of the old RowDataPacketGrouper.addRow
+	 */
+	private static int linearGroup(List<RowDataPacket> rows, int count) {
+		List<RowDataPacket> result = new ArrayList<RowDataPacket>();
+		for (int n = 0; n < count; n++) {
+			RowDataPacket newRow = rows.get(n);
+			boolean found = false;
+			for (RowDataPacket row : result) {
+				if (Arrays.equals(newRow.fieldValues.get(0),
+						row.fieldValues.get(0))) {
+					long total = Long.parseLong(new String(row.fieldValues
+							.get(1)))
+							+ Long.parseLong(new String(newRow.fieldValues
+									.get(1)));
+					row.fieldValues.set(1, LongUtil.toBytes(total));
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				result.add(newRow);
+			}
+		}
+		return result.size();
+	}
+
+	private static int hashGroup(List<RowDataPacket> rows) {
+		ColMeta count = new ColMeta(1, ColMeta.COL_TYPE_LONGLONG);
+		RowDataPacketGrouper grouper = new RowDataPacketGrouper(
+				new int[] { 0 }, new MergeCol[] { new MergeCol(count,
+						MergeCol.MERGE_COUNT) }, null);
+		for (RowDataPacket row : rows) {
+			grouper.addRow(row);
+		}
+		return grouper.getResult().size();
+	}
+
+	public static void main(String[] args) {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int groups = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int linearRows = args.length > 2 ? Integer.parseInt(args[2]) : 50000;
+		linearRows = Math.min(linearRows, rows);
+
+		for (int i = 0; i < 3; i++) {
+			hashGroup(genRows(rows / 10, groups / 10));
+		}
+		List<RowDataPacket> data = genRows(rows, groups);
+		long t1 = System.currentTimeMillis();
+		int size = hashGroup(data);
+		long t2 = System.currentTimeMillis();
+		System.out.println("hash grouper: " + rows + " rows, " + size
+				+ " groups, " + (t2 - t1) + " ms");
+
+		data = genRows(rows, groups);
+		t1 = System.currentTimeMillis();
+		size = linearGroup(data, linearRows);
+		t2 = System.currentTimeMillis();
+		// the group list keeps growing, so rows after the sample cost at
+		// least as much as the last ones
+		long estimate = (t2 - t1) * rows / Math.max(1, linearRows);
+		System.out.println("linear grouper: " + linearRows + " rows, " + size
+				+ " groups, " + (t2 - t1) + " ms, full " + rows
+				+ " rows at least " + estimate + " ms");
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.mpp;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencloudb.net.mysql.RowDataPacket;
+
+public class RowDataPacketGrouperTest {
+
+	private static RowDataPacket row(String... values) {
+		RowDataPacket row = new RowDataPacket(values.length);
+		for (String v : values) {
+			row.add(v == null ? null : v.getBytes());
+		}
+		return row;
+	}
+
+	@Test
+	public void testGroupAndMerge() {
+		ColMeta count = new ColMeta(1, ColMeta.COL_TYPE_LONGLONG);
+		ColMeta max = new ColMeta(2, ColMeta.COL_TYPE_LONG);
+		MergeCol[] mergeCols = { new MergeCol(count, MergeCol.MERGE_COUNT),
+				new MergeCol(max, MergeCol.MERGE_MAX) };
+		RowDataPacketGrouper grouper = new RowDataPacketGrouper(
+				new int[] { 0 }, mergeCols, null);
+		grouper.addRow(row("a", "2", "10"));
+		grouper.addRow(row("b", "1", "5"));
+		grouper.addRow(row("a", "3", "7"));
+		grouper.addRow(row(null, "4", "1"));
+		grouper.addRow(row(null, "1", "9"));
+		Assert.assertEquals(3, grouper.getGroupCount());
+
+		List<RowDataPacket> result = grouper.getResult();
+		Assert.assertEquals(3, result.size());
+		// first seen order is kept
+		Assert.assertEquals("a", new String(result.get(0).fieldValues.get(0)));
+		Assert.assertEquals("5", new String(result.get(0).fieldValues.get(1)));
+		Assert.assertEquals("10", new String(result.get(0).fieldValues.get(2)));
+		Assert.assertEquals("b", new String(result.get(1).fieldValues.get(0)));
+		Assert.assertEquals("1", new String(result.get(1).fieldValues.get(1)));
+		Assert.assertNull(result.get(2).fieldValues.get(0));
+		Assert.assertEquals("5", new String(result.get(2).fieldValues.get(1)));
+		Assert.assertEquals("9", new String(result.get(2).fieldValues.get(2)));
+	}
+
+	@Test
+	public void testNoGroupColumn() {
+		ColMeta count = new ColMeta(0, ColMeta.COL_TYPE_LONGLONG);
+		RowDataPacketGrouper grouper = new RowDataPacketGrouper(null,
+				new MergeCol[] { new MergeCol(count, MergeCol.MERGE_COUNT) },
+				null);
+		for (int i = 0; i < 10; i++) {
+			grouper.addRow(row(String.valueOf(i)));
+		}
+		List<RowDataPacket> result = grouper.getResult();
+		Assert.assertEquals(1, result.size());
+		Assert.assertEquals("45", new String(result.get(0).fieldValues.get(0)));
+	}
+
+	@Test
+	public void testMultiGroupColumns() {
+		ColMeta sum = new ColMeta(2, ColMeta.COL_TYPE_LONG);
+		RowDataPacketGrouper grouper = new RowDataPacketGrouper(new int[] { 0,
+				1 }, new MergeCol[] { new MergeCol(sum, MergeCol.MERGE_SUM) },
+				null);
+		grouper.addRow(row("a", "b", "1"));
+		grouper.addRow(row("ab", "", "2"));
+		grouper.addRow(row("a", "b", "3"));
+		List<RowDataPacket> result = grouper.getResult();
+		Assert.assertEquals(2, result.size());
+		Assert.assertEquals("4", new String(result.get(0).fieldValues.get(2)));
+		Assert.assertEquals("2", new String(result.get(1).fieldValues.get(2)));
+	}
+
+	@Test
+	public void testHaving() {
+		ColMeta count = new ColMeta(1, ColMeta.COL_TYPE_LONGLONG);
+		HavingCols having = new HavingCols("COUNT", "3", ">");
+		having.setColMeta(count);
+		RowDataPacketGrouper grouper = new RowDataPacketGrouper(
+				new int[] { 0 }, new MergeCol[] { new MergeCol(count,
+						MergeCol.MERGE_COUNT) }, having);
+		grouper.addRow(row("a", "2"));
+		grouper.addRow(row("b", "1"));
+		grouper.addRow(row("a", "3"));
+		grouper.addRow(row("c", "4"));
+		List<RowDataPacket> result = grouper.getResult();
+		Assert.assertEquals(2, result.size());
+		Assert.assertEquals("a", new String(result.get(0).fieldValues.get(0)));
+		Assert.assertEquals("c", new String(result.get(1).fieldValues.get(0)));
+	}
+
+	@Test
+	public void testAvg() {
+		ColMeta sum = new ColMeta(1, ColMeta.COL_TYPE_NEWDECIMAL);
+		ColMeta count = new ColMeta(2, ColMeta.COL_TYPE_LONGLONG);
+		ColMeta avg = new ColMeta(1, 2, ColMeta.COL_TYPE_NEWDECIMAL);
+		MergeCol[] mergeCols = { new MergeCol(sum, MergeCol.MERGE_SUM),
+				new MergeCol(count, MergeCol.MERGE_COUNT),
+				new MergeCol(avg, MergeCol.MERGE_AVG) };
+		RowDataPacketGrouper grouper = new RowDataPacketGrouper(
+				new int[] { 0 }, mergeCols, null);
+		grouper.addRow(row("a", "0.10", "1"));
+		grouper.addRow(row("a", "0.20", "2"));
+		grouper.addRow(row("b", "1", "3"));
+		List<RowDataPacket> result = grouper.getResult();
+		Assert.assertEquals(2, result.size());
+		Assert.assertEquals(2, result.get(0).fieldCount);
+		Assert.assertEquals("0.100000", new String(result.get(0).fieldValues.get(1)));
+		Assert.assertEquals("0.3333", new String(result.get(1).fieldValues.get(1)));
+	}
+
+	@Test
+	public void testSpill() {
+		ColMeta sum = new ColMeta(1, ColMeta.COL_TYPE_LONG);
+		ColMeta max = new ColMeta(2, ColMeta.COL_TYPE_LONG);
+		MergeCol[] mergeCols = { new MergeCol(sum, MergeCol.MERGE_SUM),
+				new MergeCol(max, MergeCol.MERGE_MAX) };
+		RowDataPacketGrouper grouper = new RowDataPacketGrouper(
+				new int[] { 0 }, mergeCols, null);
+		// about 20 groups per run
+		grouper.setMemoryBudget(2000);
+		Map<String, long[]> expected = new HashMap<String, long[]>();
+		Random rd = new Random(1);
+		for (int i = 0; i < 5000; i++) {
+			String key = "k" + rd.nextInt(300);
+			int v = rd.nextInt(1000);
+			grouper.addRow(row(key, String.valueOf(v), String.valueOf(v)));
+			long[] e = expected.get(key);
+			if (e == null) {
+				expected.put(key, new long[] { v, v });
+			} else {
+				e[0] += v;
+				e[1] = Math.max(e[1], v);
+			}
+		}
+		Iterator<RowDataPacket> it = grouper.getResultIterator();
+		Set<String> seen = new HashSet<String>();
+		while (it.hasNext()) {
+			RowDataPacket row = it.next();
+			String key = new String(row.fieldValues.get(0));
+			Assert.assertTrue("duplicate group " + key, seen.add(key));
+			long[] e = expected.get(key);
+			Assert.assertEquals(String.valueOf(e[0]),
+					new String(row.fieldValues.get(1)));
+			Assert.assertEquals(String.valueOf(e[1]),
+					new String(row.fieldValues.get(2)));
+		}
+		Assert.assertEquals(expected.size(), seen.size());
+		grouper.close();
+	}
+
+	@Test
+	public void testSpillAvgHaving() {
+		ColMeta sum = new ColMeta(1, ColMeta.COL_TYPE_LONGLONG);
+		ColMeta count = new ColMeta(2, ColMeta.COL_TYPE_LONGLONG);
+		ColMeta avg = new ColMeta(1, 2, ColMeta.COL_TYPE_LONGLONG);
+		MergeCol[] mergeCols = { new MergeCol(sum, MergeCol.MERGE_SUM),
+				new MergeCol(count, MergeCol.MERGE_COUNT),
+				new MergeCol(avg, MergeCol.MERGE_AVG) };
+		HavingCols having = new HavingCols("AVG", "2.0000", ">");
+		having.setColMeta(sum);
+		RowDataPacketGrouper grouper = new RowDataPacketGrouper(
+				new int[] { 0 }, mergeCols, having);
+		// every new group is spilled
+		grouper.setMemoryBudget(1);
+		grouper.addRow(row("a", "1", "1"));
+		grouper.addRow(row("b", "9", "3"));
+		grouper.addRow(row("a", "5", "1"));
+		grouper.addRow(row("c", "1", "1"));
+		Iterator<RowDataPacket> it = grouper.getResultIterator();
+		RowDataPacket row = it.next();
+		Assert.assertEquals(2, row.fieldCount);
+		Assert.assertEquals("a", new String(row.fieldValues.get(0)));
+		Assert.assertEquals("3.0000", new String(row.fieldValues.get(1)));
+		row = it.next();
+		Assert.assertEquals("b", new String(row.fieldValues.get(0)));
+		Assert.assertFalse(it.hasNext());
+		grouper.close();
+	}
+}
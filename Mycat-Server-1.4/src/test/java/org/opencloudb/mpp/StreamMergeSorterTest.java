@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.mpp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencloudb.net.mysql.RowDataPacket;
+
+public class StreamMergeSorterTest {
+
+	private static RowDataPacket row(int id, String name) {
+		RowDataPacket row = new RowDataPacket(2);
+		row.add(String.valueOf(id).getBytes());
+		row.add(name.getBytes());
+		return row;
+	}
+
+	private static int id(RowDataPacket row) {
+		return Integer.parseInt(new String(row.fieldValues.get(0)));
+	}
+
+	private static OrderCol[] orderById(int orderType) {
+		return new OrderCol[] { new OrderCol(new ColMeta(0,
+				ColMeta.COL_TYPE_LONG), orderType) };
+	}
+
+	@Test
+	public void testWaitForAllNodes() {
+		StreamMergeSorter sorter = new StreamMergeSorter(
+				orderById(OrderCol.COL_ORDER_TYPE_ASC), new String[] { "dn1",
+						"dn2" });
+		sorter.addRow("dn1", row(1, "a"));
+		sorter.addRow("dn1", row(3, "a"));
+		// dn2 has not returned anything yet
+		Assert.assertNull(sorter.next());
+		sorter.addRow("dn2", row(2, "b"));
+		Assert.assertEquals(1, id(sorter.next()));
+		Assert.assertEquals("dn1", sorter.getLastNode());
+		Assert.assertEquals(2, id(sorter.next()));
+		Assert.assertEquals("dn2", sorter.getLastNode());
+		// dn2 may still return a row smaller than 3
+		Assert.assertNull(sorter.next());
+		sorter.nodeEnd("dn2");
+		Assert.assertEquals(3, id(sorter.next()));
+		Assert.assertNull(sorter.next());
+		Assert.assertFalse(sorter.isFinished());
+		sorter.nodeEnd("dn1");
+		Assert.assertTrue(sorter.isFinished());
+	}
+
+	@Test
+	public void testRandomInterleave() {
+		int nodes = 8;
+		String[] names = new String[nodes];
+		List<List<Integer>> data = new ArrayList<List<Integer>>();
+		Random rd = new Random(3);
+		int total = 0;
+		for (int i = 0; i < nodes; i++) {
+			names[i] = "dn" + i;
+			List<Integer> ids = new ArrayList<Integer>();
+			int v = 100000;
+			for (int j = rd.nextInt(200); j > 0; j--) {
+				v -= rd.nextInt(50);
+				ids.add(v);
+			}
+			total += ids.size();
+			data.add(ids);
+		}
+		StreamMergeSorter sorter = new StreamMergeSorter(
+				orderById(OrderCol.COL_ORDER_TYPE_DESC), names);
+		int[] pos = new int[nodes];
+		List<Integer> output = new ArrayList<Integer>();
+		int ended = 0;
+		while (ended < nodes) {
+			int n = rd.nextInt(nodes);
+			if (pos[n] < 0) {
+				continue;
+			}
+			if (pos[n] == data.get(n).size()) {
+				sorter.nodeEnd(names[n]);
+				pos[n] = -1;
+				ended++;
+			} else {
+				sorter.addRow(names[n], row(data.get(n).get(pos[n]++), "x"));
+			}
+			RowDataPacket row;
+			while ((row = sorter.next()) != null) {
+				output.add(id(row));
+			}
+		}
+		Assert.assertTrue(sorter.isFinished());
+		Assert.assertEquals(total, output.size());
+		for (int i = 1; i < output.size(); i++) {
+			Assert.assertTrue(output.get(i - 1) >= output.get(i));
+		}
+	}
+}
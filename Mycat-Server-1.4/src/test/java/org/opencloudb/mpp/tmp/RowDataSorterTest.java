@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.mpp.tmp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencloudb.mpp.ColMeta;
+import org.opencloudb.mpp.OrderCol;
+import org.opencloudb.net.mysql.RowDataPacket;
+
+public class RowDataSorterTest {
+
+	private static RowDataPacket row(String value, String name) {
+		RowDataPacket row = new RowDataPacket(2);
+		row.add(value == null ? null : value.getBytes());
+		row.add(name.getBytes());
+		return row;
+	}
+
+	private static String value(RowDataPacket row) {
+		byte[] v = row.fieldValues.get(0);
+		return v == null ? null : new String(v);
+	}
+
+	@Test
+	public void testTopN() {
+		OrderCol[] orderCols = { new OrderCol(new ColMeta(0,
+				ColMeta.COL_TYPE_LONG), OrderCol.COL_ORDER_TYPE_ASC) };
+		RowDataSorter sorter = new RowDataSorter(orderCols);
+		sorter.setLimit(2, 3);
+		List<Integer> all = new ArrayList<Integer>();
+		Random rd = new Random(1);
+		for (int i = 0; i < 1000; i++) {
+			int v = rd.nextInt(100000);
+			all.add(v);
+			sorter.addRow(row(String.valueOf(v), "n"));
+		}
+		Collections.sort(all);
+		List<RowDataPacket> result = sorter.getSortedResult();
+		Assert.assertEquals(5, result.size());
+		for (int i = 0; i < 5; i++) {
+			Assert.assertEquals(String.valueOf(all.get(i)), value(result.get(i)));
+		}
+	}
+
+	@Test
+	public void testDiscard() {
+		OrderCol[] orderCols = { new OrderCol(new ColMeta(0,
+				ColMeta.COL_TYPE_LONG), OrderCol.COL_ORDER_TYPE_DESC) };
+		RowDataSorter sorter = new RowDataSorter(orderCols);
+		sorter.setLimit(0, 2);
+		Assert.assertTrue(sorter.addRow(row("10", "dn1")));
+		Assert.assertTrue(sorter.addRow(row("9", "dn1")));
+		// dn1 returns desc order, nothing after 8 can be in the top 2
+		Assert.assertFalse(sorter.addRow(row("8", "dn1")));
+		Assert.assertTrue(sorter.addRow(row("20", "dn2")));
+		Assert.assertFalse(sorter.addRow(row("10", "dn2")));
+		List<RowDataPacket> result = sorter.getSortedResult();
+		Assert.assertEquals("20", value(result.get(0)));
+		Assert.assertEquals("10", value(result.get(1)));
+	}
+
+	@Test
+	public void testNoLimitTypedOrder() {
+		OrderCol[] orderCols = {
+				new OrderCol(new ColMeta(0, ColMeta.COL_TYPE_NEWDECIMAL),
+						OrderCol.COL_ORDER_TYPE_ASC),
+				new OrderCol(new ColMeta(1, ColMeta.COL_TYPE_VAR_STRING),
+						OrderCol.COL_ORDER_TYPE_DESC) };
+		RowDataSorter sorter = new RowDataSorter(orderCols);
+		sorter.setLimit(0, -1);
+		sorter.addRow(row("10", "a"));
+		sorter.addRow(row("1.5", "a"));
+		sorter.addRow(row(null, "a"));
+		sorter.addRow(row("-2.25", "a"));
+		sorter.addRow(row("1.50", "b"));
+		List<RowDataPacket> result = sorter.getSortedResult();
+		Assert.assertEquals(5, result.size());
+		Assert.assertNull(value(result.get(0)));
+		Assert.assertEquals("-2.25", value(result.get(1)));
+		Assert.assertEquals("1.50", value(result.get(2)));
+		Assert.assertEquals("1.5", value(result.get(3)));
+		Assert.assertEquals("10", value(result.get(4)));
+	}
+
+	@Test
+	public void testSpill() {
+		OrderCol[] orderCols = { new OrderCol(new ColMeta(0,
+				ColMeta.COL_TYPE_LONG), OrderCol.COL_ORDER_TYPE_DESC) };
+		RowDataSorter sorter = new RowDataSorter(orderCols);
+		sorter.setLimit(0, -1);
+		// a few hundred rows per run
+		sorter.setMemoryBudget(20000);
+		List<Integer> all = new ArrayList<Integer>();
+		Random rd = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			int v = rd.nextInt(100000);
+			all.add(v);
+			sorter.addRow(row(String.valueOf(v), "n" + i));
+		}
+		Collections.sort(all, Collections.reverseOrder());
+		Iterator<RowDataPacket> it = sorter.getSortedIterator();
+		for (int i = 0; i < all.size(); i++) {
+			Assert.assertEquals(String.valueOf(all.get(i)), value(it.next()));
+		}
+		Assert.assertFalse(it.hasNext());
+		sorter.close();
+	}
+
+	@Test
+	public void testTopNOverBudget() {
+		OrderCol[] orderCols = { new OrderCol(new ColMeta(0,
+				ColMeta.COL_TYPE_LONG), OrderCol.COL_ORDER_TYPE_ASC) };
+		RowDataSorter sorter = new RowDataSorter(orderCols);
+		sorter.setLimit(0, 500);
+		sorter.setMemoryBudget(5000);
+		for (int i = 1000; i > 0; i--) {
+			// no row is discarded once the heap is spilled
+			Assert.assertTrue(sorter.addRow(row(String.valueOf(i), "n")));
+		}
+		Iterator<RowDataPacket> it = sorter.getSortedIterator();
+		for (int i = 1; i <= 500; i++) {
+			Assert.assertEquals(String.valueOf(i), value(it.next()));
+		}
+		sorter.close();
+	}
+
+	@Test
+	public void testSpillMultiPass() {
+		OrderCol[] orderCols = { new OrderCol(new ColMeta(0,
+				ColMeta.COL_TYPE_LONG), OrderCol.COL_ORDER_TYPE_ASC) };
+		RowDataSorter sorter = new RowDataSorter(orderCols);
+		sorter.setLimit(0, -1);
+		// a run every few rows, more runs than RowRunFile.MAX_FAN_IN
+		sorter.setMemoryBudget(1000);
+		List<Integer> all = new ArrayList<Integer>();
+		Random rd = new Random(2);
+		try {
+			for (int i = 0; i < 2000; i++) {
+				int v = rd.nextInt(100000);
+				all.add(v);
+				sorter.addRow(row(String.valueOf(v), "n"));
+			}
+			Collections.sort(all);
+			Iterator<RowDataPacket> it = sorter.getSortedIterator();
+			for (Integer v : all) {
+				Assert.assertTrue(it.hasNext());
+				Assert.assertEquals(String.valueOf(v), value(it.next()));
+			}
+			Assert.assertFalse(it.hasNext());
+		} finally {
+			sorter.close();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * compare one write per 4K buffer with gathering writes of 64 buffers, as
+ * NIOSocketWR.write0 does, over a loopback socket
+ * 
+ * args: buffers (default 200000)
+ */
+public class GatheringWritePerfMain {
+
+	private static final int CHUNK = 4096;
+	private static final int GATHER = 64;
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		ByteBuffer[] buffers = new ByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			buffers[i] = ByteBuffer.allocateDirect(CHUNK);
+		}
+		for (int round = 0; round < 3; round++) {
+			System.out.println("single write: " + run(buffers, 1) + " ms");
+			System.out.println("gathering write: " + run(buffers, GATHER)
+					+ " ms");
+		}
+	}
+
+	private static long run(ByteBuffer[] buffers, int gather)
+			throws Exception {
+		final ServerSocketChannel server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress("127.0.0.1", 0));
+		final long total = (long) buffers.length * CHUNK;
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try (SocketChannel in = server.accept()) {
+					ByteBuffer dst = ByteBuffer.allocateDirect(256 * 1024);
+					long read = 0;
+					while (read < total) {
+						dst.clear();
+						int n = in.read(dst);
+						if (n < 0) {
+							break;
+						}
+						read += n;
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		reader.start();
+		SocketChannel out = SocketChannel.open(server.getLocalAddress());
+		for (ByteBuffer buffer : buffers) {
+			buffer.clear();
+		}
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < buffers.length; i += gather) {
+			int len = Math.min(gather, buffers.length - i);
+			if (len == 1) {
+				while (buffers[i].hasRemaining()) {
+					out.write(buffers[i]);
+				}
+			} else {
+				while (buffers[i + len - 1].hasRemaining()) {
+					out.write(buffers, i, len);
+				}
+			}
+		}
+		reader.join();
+		long time = System.currentTimeMillis() - start;
+		out.close();
+		server.close();
+		return time;
+	}
+}
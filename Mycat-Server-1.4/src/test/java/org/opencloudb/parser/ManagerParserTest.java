@@ -144,6 +144,13 @@ public class ManagerParserTest {
         Assert.assertEquals(ManagerParseShow.PROCESSOR, ManagerParseShow.parse("show @@PROCESSOR", 5));
     }
 
+    @Test
+    public void testShowMetrics() {
+        Assert.assertEquals(ManagerParseShow.METRICS, ManagerParseShow.parse("show @@metrics", 5));
+        Assert.assertEquals(ManagerParseShow.METRICS, ManagerParseShow.parse("SHOW @@METRICS", 5));
+        Assert.assertEquals(ManagerParseShow.OTHER, ManagerParseShow.parse("show @@metricsx", 5));
+    }
+
     @Test
     public void testShowRouter() {
         Assert.assertEquals(ManagerParseShow.ROUTER, ManagerParseShow.parse("show @@router", 5));
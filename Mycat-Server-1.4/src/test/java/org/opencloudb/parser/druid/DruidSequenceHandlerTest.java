@@ -5,6 +5,7 @@ import static junit.framework.Assert.*;
 import org.junit.Test;
 import org.opencloudb.config.model.SystemConfig;
 
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,6 +45,33 @@ public class DruidSequenceHandlerTest {
 		assertEquals(tableName, "XXXX");
 	}
 
+	@Test
+	public void testScan() {
+		String sql = "insert into test(id,name) values(next value for MYCATSEQ_TEST,'next value for MYCATSEQ_A'),"
+				+ "(NEXT  VALUE\tFOR mycatseq_test ,\"x\") /* next value for MYCATSEQ_B */";
+		List<DruidSequenceHandler.SeqToken> tokens = DruidSequenceHandler.scan(sql, Integer.MAX_VALUE);
+		assertEquals(2, tokens.size());
+		assertEquals("TEST", tokens.get(0).name);
+		assertEquals("next value for MYCATSEQ_TEST",
+				sql.substring(tokens.get(0).start, tokens.get(0).end));
+		assertEquals("TEST", tokens.get(1).name);
+		assertEquals("NEXT  VALUE\tFOR mycatseq_test",
+				sql.substring(tokens.get(1).start, tokens.get(1).end));
+
+		assertTrue(DruidSequenceHandler.scan("insert into t(id) values('it''s next value for MYCATSEQ_A')",
+				Integer.MAX_VALUE).isEmpty());
+		assertTrue(DruidSequenceHandler.scan("select connext value for MYCATSEQ_A", Integer.MAX_VALUE).isEmpty());
+	}
+
+	@Test
+	public void testHasSequence() {
+		DruidSequenceHandler handler = new DruidSequenceHandler(SystemConfig.SEQUENCEHANDLER_LOCALFILE);
+		assertTrue(handler.hasSequence("insert into test(id) values(next value for MYCATSEQ_TEST)"));
+		assertFalse(handler.hasSequence("insert into test(name) values(' MYCATSEQ_TEST')"));
+		// 本地文件序列要读写文件, 不能在NIO线程上取值
+		assertFalse(handler.isNonBlocking());
+	}
+
     public static void main(String[] args)
     {
         String patten="(?:(\\s*next\\s+value\\s+for\\s*MYCATSEQ_(\\w+))(,|\\)|\\s)*)+";
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.parser.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author mycat
+ */
+public class SQLFingerprintTest {
+
+	@Test
+	public void testTemplate() {
+		SQLFingerprint fp = SQLFingerprint
+				.parse("select * from  orders\n where id = 12 and name='a''b' and price>1.5e3 ");
+		Assert.assertEquals(
+				"select * from orders where id = ? and name=? and price>?",
+				fp.getTemplate());
+		Assert.assertEquals(3, fp.getLiteralCount());
+		Assert.assertEquals("12", fp.getLiteral(0));
+		Assert.assertEquals("a'b", fp.getLiteral(1));
+		Assert.assertEquals("'a''b'", fp.getLiteralText(1));
+		Assert.assertTrue(fp.isStringLiteral(1));
+		Assert.assertEquals("1.5e3", fp.getLiteral(2));
+		Assert.assertFalse(fp.isStringLiteral(2));
+
+		Assert.assertEquals(
+				SQLFingerprint.parse("select * from orders where id=2").getTemplate(),
+				SQLFingerprint.parse("select * from orders where id=3").getTemplate());
+	}
+
+	@Test
+	public void testNotLiteral() {
+		SQLFingerprint fp = SQLFingerprint
+				.parse("select t1.c2, `col 3` from t1 /* 1 */ where x = 0x1F -- 2\n and y=\"it\\'s\"");
+		Assert.assertEquals(
+				"select t1.c2, `col 3` from t1 /* 1 */ where x = 0x1F -- 2 and y=?",
+				fp.getTemplate());
+		Assert.assertEquals(1, fp.getLiteralCount());
+		Assert.assertEquals("it's", fp.getLiteral(0));
+	}
+}
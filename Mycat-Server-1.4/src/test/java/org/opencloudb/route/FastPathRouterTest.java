@@ -0,0 +1,113 @@
+package org.opencloudb.route;
+
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.opencloudb.SimpleCachePool;
+import org.opencloudb.cache.LayerCachePool;
+import org.opencloudb.config.loader.SchemaLoader;
+import org.opencloudb.config.loader.xml.XMLSchemaLoader;
+import org.opencloudb.config.model.SchemaConfig;
+import org.opencloudb.config.model.SystemConfig;
+import org.opencloudb.parser.util.SQLFingerprint;
+import org.opencloudb.route.factory.RouteStrategyFactory;
+import org.opencloudb.server.parser.ServerParse;
+
+public class FastPathRouterTest extends TestCase {
+    protected Map<String, SchemaConfig> schemaMap;
+    protected LayerCachePool cachePool = new SimpleCachePool();
+    protected RouteStrategy routeStrategy = RouteStrategyFactory.getRouteStrategy("druidparser");
+
+    public FastPathRouterTest() {
+        String schemaFile = "/route/schema.xml";
+        String ruleFile = "/route/rule.xml";
+        SchemaLoader schemaLoader = new XMLSchemaLoader(schemaFile, ruleFile);
+        schemaMap = schemaLoader.getSchemas();
+    }
+
+    private RouteResultset fastRoute(SchemaConfig schema, int sqlType, String sql) throws Exception {
+        return FastPathRouter.route(schema, sqlType, SQLFingerprint.parse(sql),
+                new RouteResultset(sql, sqlType));
+    }
+
+    /**
+     * 快速路由的结果必须和druid完整路由一致
+     */
+    private void assertSameRoute(SchemaConfig schema, int sqlType, String sql) throws Exception {
+        RouteResultset fast = fastRoute(schema, sqlType, sql);
+        Assert.assertNotNull(sql, fast);
+        // sqlType 为 -1 时不走快速路由
+        RouteResultset full = routeStrategy.route(new SystemConfig(), schema, -1, sql, null,
+                null, cachePool);
+        Assert.assertEquals(1, fast.getNodes().length);
+        Assert.assertEquals(full.getNodes().length, fast.getNodes().length);
+        Assert.assertEquals(full.getNodes()[0].getName(), fast.getNodes()[0].getName());
+        Assert.assertEquals(full.getNodes()[0].getStatement(), fast.getNodes()[0].getStatement());
+        Assert.assertEquals(full.getLimitSize(), fast.getLimitSize());
+    }
+
+    public void testSameAsFullRoute() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        assertSameRoute(schema, ServerParse.SELECT, "select * from offer where member_id='abc'");
+        assertSameRoute(schema, ServerParse.SELECT,
+                "select a.offer_id, count(*) from offer a where a.member_id = 'abc' and a.gmt=5");
+        assertSameRoute(schema, ServerParse.SELECT,
+                "SELECT `offer_id` FROM `offer_detail` WHERE `offer_id` = 123");
+        assertSameRoute(schema, ServerParse.INSERT,
+                "insert into offer_detail (offer_id, gmt) values (123,now())");
+        assertSameRoute(schema, ServerParse.INSERT,
+                "insert into offer(group_id,offer_id,member_id)values(234,123,'abc')");
+        assertSameRoute(schema, ServerParse.UPDATE,
+                "update offer set gmt=now(), group_id=group_id+1 where member_id='abc'");
+        assertSameRoute(schema, ServerParse.DELETE, "delete from offer_detail where offer_id=123");
+    }
+
+    /**
+     * 路由结果带上表名和参数化SQL, 供SQL统计使用
+     */
+    public void testStatInfo() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        String sql = "select * from offer where member_id='abc'";
+        RouteResultset rrs = routeStrategy.route(new SystemConfig(), schema, ServerParse.SELECT,
+                sql, null, null, cachePool);
+        Assert.assertEquals("[OFFER]", rrs.getTables().toString());
+        Assert.assertEquals("select * from offer where member_id=?", rrs.getSqlTemplate());
+
+        sql = "select * from offer a, offer_detail b where a.member_id='abc'";
+        rrs = routeStrategy.route(new SystemConfig(), schema, ServerParse.SELECT, sql, null,
+                null, cachePool);
+        Assert.assertEquals(2, rrs.getTables().size());
+        Assert.assertEquals("select * from offer a, offer_detail b where a.member_id=?",
+                rrs.getSqlTemplate());
+    }
+
+    public void testFallback() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        String[] selects = { "select * from offer where member_id in ('abc','def')",
+                "select * from offer where member_id='abc' or member_id='def'",
+                "select * from offer where member_id='abc' limit 10",
+                "select * from offer where member_id='abc' for update",
+                "select * from offer where member_id='abc' and member_id='def'",
+                "select * from offer where group_id=1",
+                "select * from offer a, offer_detail b where a.member_id='abc'",
+                "select * from offer where member_id=(select 'abc')",
+                "select * from independent where member='abc'" };
+        for (String sql : selects) {
+            Assert.assertNull(sql, fastRoute(schema, ServerParse.SELECT, sql));
+        }
+        // 修改分片列, 批量insert 交给完整路由
+        Assert.assertNull(fastRoute(schema, ServerParse.UPDATE,
+                "update offer set member_id='x' where member_id='abc'"));
+        Assert.assertNull(fastRoute(schema, ServerParse.INSERT,
+                "insert into offer_detail (offer_id, gmt) values (123,now()),(124,now())"));
+        Assert.assertNull(fastRoute(schema, ServerParse.INSERT,
+                "insert into offer_detail (offer_id, gmt) values (-123,now())"));
+
+        // TESTDB 配置了 sqlMaxLimit, 没有主键条件的 select 需要加 limit
+        schema = schemaMap.get("TESTDB");
+        Assert.assertNull(fastRoute(schema, ServerParse.SELECT,
+                "select * from travelrecord where id=1"));
+    }
+}
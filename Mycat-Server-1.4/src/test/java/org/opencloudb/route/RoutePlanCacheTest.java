@@ -0,0 +1,105 @@
+package org.opencloudb.route;
+
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.opencloudb.SimpleCachePool;
+import org.opencloudb.cache.LayerCachePool;
+import org.opencloudb.config.loader.SchemaLoader;
+import org.opencloudb.config.loader.xml.XMLSchemaLoader;
+import org.opencloudb.config.model.SchemaConfig;
+import org.opencloudb.config.model.SystemConfig;
+import org.opencloudb.route.factory.RouteStrategyFactory;
+import org.opencloudb.route.impl.AbstractRouteStrategy;
+import org.opencloudb.server.parser.ServerParse;
+
+public class RoutePlanCacheTest extends TestCase {
+    protected Map<String, SchemaConfig> schemaMap;
+    protected LayerCachePool cachePool = new SimpleCachePool();
+    protected AbstractRouteStrategy routeStrategy = (AbstractRouteStrategy) RouteStrategyFactory
+            .getRouteStrategy("druidparser");
+
+    public RoutePlanCacheTest() {
+        String schemaFile = "/route/schema.xml";
+        String ruleFile = "/route/rule.xml";
+        SchemaLoader schemaLoader = new XMLSchemaLoader(schemaFile, ruleFile);
+        schemaMap = schemaLoader.getSchemas();
+    }
+
+    public void testPointSelect() throws Exception {
+        SchemaConfig schema = schemaMap.get("TESTDB");
+        routeStrategy.getRoutePlanCache().clear();
+
+        // 第一次完整路由, 编译出计划(下发语句加了 limit 100)
+        String sql = "select * from travelrecord where id=1";
+        RouteResultset rrs = routeStrategy.route(new SystemConfig(), schema,
+                ServerParse.SELECT, sql, null, null, cachePool);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("dn1", rrs.getNodes()[0].getName());
+        Assert.assertTrue(rrs.isRoutePlanCached());
+        Assert.assertEquals(1, routeStrategy.getRoutePlanCache().size());
+
+        String[] sqls = { "select * from travelrecord where id=2000001",
+                "select * from travelrecord where id=4000001",
+                "select * from travelrecord where id=12" };
+        for (String planSql : sqls) {
+            RouteResultset planned = routeStrategy.route(new SystemConfig(),
+                    schema, ServerParse.SELECT, planSql, null, null, cachePool);
+            // sqlType 不是 SELECT 时不使用计划, 作为对照
+            RouteResultset full = routeStrategy.route(new SystemConfig(),
+                    schema, -1, planSql, null, null, cachePool);
+            Assert.assertTrue(planned.isRoutePlanCached());
+            Assert.assertEquals(1, planned.getNodes().length);
+            Assert.assertEquals(full.getNodes()[0].getName(),
+                    planned.getNodes()[0].getName());
+            Assert.assertEquals(full.getNodes()[0].getStatement(),
+                    planned.getNodes()[0].getStatement());
+            Assert.assertEquals(full.getLimitSize(), planned.getLimitSize());
+        }
+        Assert.assertEquals(1, routeStrategy.getRoutePlanCache().size());
+    }
+
+    public void testFastPathDisabled() throws Exception {
+        SchemaConfig schema = schemaMap.get("TESTDB");
+        routeStrategy.getRoutePlanCache().clear();
+        SystemConfig sysConfig = new SystemConfig();
+        sysConfig.setFastPathRoute(0);
+
+        // 关闭快速路由时仍然使用路由计划缓存
+        routeStrategy.route(sysConfig, schema, ServerParse.SELECT,
+                "select * from travelrecord where id=1", null, null, cachePool);
+        Assert.assertEquals(1, routeStrategy.getRoutePlanCache().size());
+        RouteResultset planned = routeStrategy.route(sysConfig, schema,
+                ServerParse.SELECT, "select * from travelrecord where id=2000001",
+                null, null, cachePool);
+        Assert.assertTrue(planned.isRoutePlanCached());
+        Assert.assertEquals("dn2", planned.getNodes()[0].getName());
+        Assert.assertNotNull(planned.getSqlTemplate());
+
+        // 统计用的模板不依赖快速路由
+        RouteResultset update = routeStrategy.route(sysConfig, schema,
+                ServerParse.UPDATE, "update travelrecord set days=1 where id=1",
+                null, null, cachePool);
+        Assert.assertEquals("update travelrecord set days=? where id=?",
+                update.getSqlTemplate());
+    }
+
+    public void testNotCompiled() throws Exception {
+        SchemaConfig schema = schemaMap.get("TESTDB");
+        routeStrategy.getRoutePlanCache().clear();
+
+        // 多节点、limit 参数、非分片列条件 都不编译
+        String[] sqls = { "select * from travelrecord where id in (1,2000001)",
+                "select * from travelrecord where id=1 limit 10",
+                "select * from travelrecord where name='a'",
+                "select * from travelrecord where id=1 and days=1" };
+        for (String sql : sqls) {
+            RouteResultset rrs = routeStrategy.route(new SystemConfig(), schema,
+                    ServerParse.SELECT, sql, null, null, cachePool);
+            Assert.assertFalse(rrs.isRoutePlanCached());
+        }
+        Assert.assertEquals(0, routeStrategy.getRoutePlanCache().size());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.route.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.opencloudb.SimpleCachePool;
+import org.opencloudb.cache.LayerCachePool;
+import org.opencloudb.config.loader.SchemaLoader;
+import org.opencloudb.config.loader.xml.XMLSchemaLoader;
+import org.opencloudb.config.model.SchemaConfig;
+import org.opencloudb.config.model.SystemConfig;
+import org.opencloudb.route.RouteStrategy;
+import org.opencloudb.route.factory.RouteStrategyFactory;
+import org.opencloudb.server.parser.ServerParse;
+
+/**
+ * 快速路由开关(fastPathRoute)打开和关闭时的路由性能对比.
+ * 语句取自 DruidMysqlRouteStrategyTest, sqlType 按 ServerParse 真实解析,
+ * 路由报错的语句(测试里的异常用例)在开始前剔除.
+ * 
+ * @author mycat
+ */
+public class FastPathRouteSpace {
+    private static int total = 200000;
+    private static final String[][] CORPUS = {
+            { "cndb", "inSErt into offer_detail (`offer_id`, gmt) values (123,now())" },
+            { "cndb", "inSErt into offer_detail ( gmt) values (now())" },
+            { "cndb", "inSErt into offer_detail (offer_id, gmt) values (123,now())" },
+            { "cndb", "insert into offer(group_id,offer_id,member_id)values(234,123,'abc')" },
+            { "TESTDB", "select * from company where company.name like 'aaa'" },
+            { "TESTDB", "insert into company (id,name,level) values(111,'company1',3)" },
+            { "TESTDB", "update company set name=name+aaa" },
+            { "TESTDB", "delete from company where id = 1" },
+            { "TESTDB", "select * from  company A where a.sharding_id=10001 union select * from  company B where B.sharding_id =10010" },
+            { "TESTDB", "select * from company,area where area.company_id=company.id " },
+            { "TESTDB", "select * from company,customer ,orders where customer.company_id=company.id and orders.customer_id=customer.id and company.name like 'aaa' limit 10" },
+            { "TESTDB", "select * from employee where id=88" },
+            { "TESTDB", "select * from employee where id=89" },
+            { "TESTDB", "update employee  set name='aaa' where id=88" },
+            { "TESTDB", "delete from  employee  where id=88" },
+            { "cndb", "select * from independent where member='abc'" },
+            { "cndb", "select * from cndb.independent A  where a.member='abc'" },
+            { "TESTDB", "insert into orders (id,name,customer_id) values(1,'testonly',1)" },
+            { "TESTDB", "insert into orders (id,name,customer_id) values(1,'testonly',2000001)" },
+            { "TESTDB", "update orders set id=1 ,name='aaa' , customer_id=2000001" },
+            { "TESTDB", "update orders set id=1 ,name='aaa' where customer_id=2000001" },
+            { "TESTDB", "update orders set id=1 ,name='aaa' where customer_id=-1" },
+            { "TESTDB", "select * from orders  where customer_id=2000001" },
+            { "TESTDB", "delete from orders  where customer_id=2000001" },
+            { "TESTDB", "select name as order_name from  orders order by order_name limit 10,5" },
+            { "cndb", "select * from cndb.offer where (offer_id, group_id ) In (123,234)" },
+            { "cndb", "SELECT * FROM offer WHERE FALSE OR offer_id = 123 AND member_id = 123 OR member_id = 123 AND member_id = 234 OR member_id = 123 AND member_id = 345 OR member_id = 123 AND member_id = 456 OR offer_id = 234 AND group_id = 123 OR offer_id = 234 AND group_id = 234 OR offer_id = 234 AND group_id = 345 OR offer_id = 234 AND group_id = 456 OR offer_id = 345 AND group_id = 123 OR offer_id = 345 AND group_id = 234 OR offer_id = 345 AND group_id = 345 OR offer_id = 345 AND group_id = 456 OR offer_id = 456 AND group_id = 123 OR offer_id = 456 AND group_id = 234 OR offer_id = 456 AND group_id = 345 OR offer_id = 456 AND group_id = 456" },
+            { "TESTDB", "select * from orders" },
+            { "TESTDB", "select * from goods" },
+            { "TESTDB", "select * from goods limit 2 ,3" },
+            { "TESTDB", "select * from notpartionTable limit 2 ,3" },
+            { "TESTDB", "select * from orders limit 2,3" },
+            { "TESTDB", "select * from customer where id=10000 limit 2,3" },
+            { "cndb", " desc offer" },
+            { "cndb", "desc cndb.offer" },
+            { "cndb", "desc cndb.offer col1" },
+            { "cndb", "SHOW FULL COLUMNS FROM  offer  IN db_name WHERE true" },
+            { "cndb", "SHOW FULL COLUMNS FROM  db.offer  IN db_name WHERE true" },
+            { "cndb", "SHOW FULL TABLES FROM `TESTDB` WHERE Table_type != 'VIEW'" },
+            { "cndb", "SHOW INDEX  IN offer FROM  db_name" },
+            { "cndb", "SHOW TABLES from db_name like 'solo'" },
+            { "cndb", "SHOW TABLES in db_name " },
+            { "cndb", "SHOW TABLeS " },
+            { "config", "select * from offer where offer_id=1" },
+            { "config", "select * from offer where col11111=1" },
+            { "config", "select * from offer " },
+            { "ignoreSchemaTest", "select * from offer where offer_id=1" },
+            { "ignoreSchemaTest", "select * from ignoreSchemaTest.offer1 where ignoreSchemaTest.offer1.offer_id=1" },
+            { "ignoreSchemaTest", "select * from ignoreSchemaTest2.offer where ignoreSchemaTest2.offer.offer_id=1" },
+            { "ignoreSchemaTest", "select * from ignoreSchemaTest2.offer a,offer b  where ignoreSchemaTest2.offer.offer_id=1" },
+            { "dubbo2", "SHOW TABLES from db_name like 'solo'" },
+            { "dubbo", "SHOW TABLES from db_name like 'solo'" },
+            { "dubbo", "desc cndb.offer" },
+            { "cndb", "SHOW fulL TaBLES from db_name like 'solo'" },
+            { "TESTDB", "select * from globalsn" },
+            { "TESTDB", "select 1" },
+            { "TESTDB", "select 1 union select 2" },
+            { "TESTDB", "insert into orders (id,name,customer_id) values(1,'testonly',1),(2,'testonly',2000001)" },
+            { "TESTDB", "insert into employee (id,name,customer_id) select id,name,customer_id from customer" },
+            { "TESTDB", "insert into employee (id,name,sharding_id) values(1,'testonly',10000),(2,'testonly',10010)" },
+            { "TESTDB", "insert into employee (id,name,sharding_id) values(1,'testonly',10000) on duplicate key update name='nihao'" },
+            { "TESTDB", "select id, name, count(name) from employee group by name;" },
+            { "TESTDB", "select id, name, count(name) as c from employee group by name;" },
+            { "TESTDB", "select id, name, count(name) c from employee group by name;" },
+            { "TESTDB", "select * from customer where id between 1 and 5;" },
+            { "TESTDB", "select * from customer where id between 1 and 2000001;" },
+            { "TESTDB", "select * from customer where id between 2000001 and 3000001;" },
+            { "TESTDB", "delete from customer where id between 2000001 and 3000001;" },
+            { "TESTDB", "update customer set name='newName' where id between 2000001 and 3000001;" },
+            { "TESTDB", "select * from customer where sharding_id=10000 or 1=1;" },
+            { "TESTDB", "select * from customer where sharding_id = 10000 or sharding_id = 10010" },
+            { "TESTDB", "select * from customer where sharding_id = 10000 or user_id = 'wangwu'" },
+            { "TESTDB", "select * from orders where customer_id in(1,2000001);" },
+            { "TESTDB", "update company a set name = '' where a.id = 1;" },
+            { "TESTDB", "update travelrecord a set name = '' where a.id = 1;" },
+            { "TESTDB", "select * from travelrecord A where a.id = 1;" } };
+
+    private final List<SchemaConfig> schemas = new ArrayList<SchemaConfig>();
+    private final List<String> sqls = new ArrayList<String>();
+    private final List<Integer> types = new ArrayList<Integer>();
+    protected LayerCachePool cachePool = new SimpleCachePool();
+    private RouteStrategy routeStrategy = RouteStrategyFactory.getRouteStrategy();
+    private SystemConfig fastConfig = new SystemConfig();
+    private SystemConfig fullConfig = new SystemConfig();
+
+    public FastPathRouteSpace() {
+        String schemaFile = "/route/schema.xml";
+        String ruleFile = "/route/rule.xml";
+        SchemaLoader schemaLoader = new XMLSchemaLoader(schemaFile, ruleFile);
+        Map<String, SchemaConfig> schemaMap = schemaLoader.getSchemas();
+        fullConfig.setFastPathRoute(0);
+        for (String[] entry : CORPUS) {
+            SchemaConfig schema = schemaMap.get(entry[0]);
+            int sqlType = ServerParse.parse(entry[1]) & 0xff;
+            try {
+                routeStrategy.route(fastConfig, schema, sqlType, entry[1], null, null, cachePool);
+                routeStrategy.route(fullConfig, schema, sqlType, entry[1], null, null, cachePool);
+            } catch (Exception e) {
+                continue;
+            }
+            schemas.add(schema);
+            sqls.add(entry[1]);
+            types.add(sqlType);
+        }
+    }
+
+    public long run(boolean fast) throws Exception {
+        SystemConfig sysConfig = fast ? fastConfig : fullConfig;
+        int size = sqls.size();
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            int n = i % size;
+            routeStrategy.route(sysConfig, schemas.get(n), types.get(n), sqls.get(n), null, null, cachePool);
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    public static void main(String[] args) throws Exception {
+        FastPathRouteSpace test = new FastPathRouteSpace();
+        System.out.println(test.sqls.size() + " of " + CORPUS.length + " statements routed");
+        // warm up
+        test.run(false);
+        test.run(true);
+        for (int i = 0; i < 3; i++) {
+            long full = test.run(false);
+            long fast = test.run(true);
+            System.out.println("full route take " + full + " ms, avg " + (full + 0.0) / total
+                    + "; fast path take " + fast + " ms, avg " + (fast + 0.0) / total);
+        }
+    }
+}
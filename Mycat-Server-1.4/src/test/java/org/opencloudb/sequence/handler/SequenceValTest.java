@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.sequence.handler;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SequenceValTest {
+
+	@Test
+	public void testSegment() {
+		Segment seg = Segment.parse("100,10");
+		Assert.assertEquals(100, seg.start);
+		Assert.assertEquals(110, seg.max);
+		Assert.assertEquals(105, seg.prefetchAt(0.5));
+		Assert.assertEquals(100, seg.next.getAndIncrement());
+	}
+
+	@Test
+	public void testTake() {
+		Segment seg = new Segment(100, 110);
+		Assert.assertEquals(100, seg.take(4));
+		Assert.assertEquals(104, seg.take(10));
+		// 剩余值已全部取走
+		Assert.assertEquals(-1, seg.take(1));
+	}
+
+	@Test
+	public void testBuildSql() {
+		SequenceVal seqVal = new SequenceVal("GLOBAL", "dn1");
+		Assert.assertEquals("SELECT mycat_seq_nextval('GLOBAL')",
+				seqVal.buildSql(1));
+		Assert.assertEquals(
+				"SELECT mycat_seq_nextval('GLOBAL'),mycat_seq_nextval('GLOBAL')",
+				seqVal.buildSql(2));
+	}
+
+	@Test
+	public void testSwitchSegment() {
+		SequenceVal seqVal = new SequenceVal("GLOBAL", "dn1");
+		Assert.assertFalse(seqVal.switchSegment(null));
+
+		Assert.assertTrue(seqVal.fetching.compareAndSet(false, true));
+		seqVal.fetchFinished(Arrays.asList(new Segment(0, 10), new Segment(
+				20, 30)));
+		Assert.assertFalse(seqVal.fetching.get());
+		Assert.assertEquals(2, seqVal.getReadyCount());
+
+		Assert.assertTrue(seqVal.switchSegment(null));
+		Segment first = seqVal.getCurrent();
+		Assert.assertEquals(0, first.start);
+		// 其他线程已切换过, 不再取下一个号段
+		Assert.assertTrue(seqVal.switchSegment(null));
+		Assert.assertSame(first, seqVal.getCurrent());
+
+		Assert.assertTrue(seqVal.switchSegment(first));
+		Assert.assertEquals(20, seqVal.getCurrent().start);
+		Assert.assertFalse(seqVal.switchSegment(seqVal.getCurrent()));
+	}
+
+	@Test
+	public void testWaitFetchFailed() {
+		SequenceVal seqVal = new SequenceVal("GLOBAL", "dn1");
+		seqVal.fetching.set(true);
+		seqVal.fetchFinished(null);
+		Assert.assertFalse(seqVal.waitFetch(null,
+				System.currentTimeMillis() + 1000));
+	}
+
+	@Test
+	public void testWaiter() {
+		SequenceVal seqVal = new SequenceVal("GLOBAL", "dn1");
+		final int[] called = new int[1];
+		Runnable waiter = new Runnable() {
+			public void run() {
+				called[0]++;
+			}
+		};
+		// 没有在取号, 不登记
+		Assert.assertFalse(seqVal.addWaiter(waiter));
+		Assert.assertFalse(seqVal.hasSegment(null));
+
+		seqVal.fetching.set(true);
+		Assert.assertTrue(seqVal.addWaiter(waiter));
+		seqVal.fetchFinished(Arrays.asList(new Segment(0, 10)));
+		Assert.assertEquals(1, called[0]);
+		Assert.assertTrue(seqVal.hasSegment(null));
+
+		// 回调只执行一次, 取号失败时也执行
+		seqVal.fetching.set(true);
+		Assert.assertTrue(seqVal.addWaiter(waiter));
+		seqVal.fetchFinished(null);
+		seqVal.fetchFinished(null);
+		Assert.assertEquals(2, called[0]);
+	}
+
+	@Test
+	public void testFetchCount() {
+		SequenceVal seqVal = new SequenceVal("GLOBAL", "dn1");
+		long now = 100000L;
+		Assert.assertEquals(1, seqVal.nextFetchCount(now, 4));
+		Assert.assertEquals(2, seqVal.nextFetchCount(now + 100, 4));
+		Assert.assertEquals(4, seqVal.nextFetchCount(now + 200, 4));
+		Assert.assertEquals(4, seqVal.nextFetchCount(now + 300, 4));
+		Assert.assertEquals(4, seqVal.nextFetchCount(now + 5000, 4));
+		Assert.assertEquals(2,
+				seqVal.nextFetchCount(now + 5000 + SequenceVal.SHRINK_TIME + 1, 4));
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2013, OpenCloudDB/MyCAT and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software;Designed and Developed mainly by many Chinese 
+ * opensource volunteers. you can redistribute it and/or modify it under the 
+ * terms of the GNU General Public License version 2 only, as published by the
+ * Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ * 
+ * Any questions about this component can be directed to it's project Web address 
+ * https://code.google.com/p/opencloudb/.
+ *
+ */
+package org.opencloudb.stat;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencloudb.server.parser.ServerParse;
+import org.opencloudb.stat.HighFrequencySqlAnalyzer.SqlFrequency;
+
+/**
+ * @author mycat
+ */
+public class HighFrequencySqlAnalyzerTest {
+
+	private static void query(HighFrequencySqlAnalyzer analyzer, String sql, long time) {
+		QueryResult query = new QueryResult("test", ServerParse.SELECT, sql, 100);
+		query.setEndTime(100 + time);
+		analyzer.onQuery(query);
+	}
+
+	@Test
+	public void testLatency() {
+		HighFrequencySqlAnalyzer analyzer = new HighFrequencySqlAnalyzer(16, 4);
+		query(analyzer, "select * from t where id=1", 10);
+		query(analyzer, "select * from t where id=2", 20);
+		query(analyzer, "select * from t where id=3", 60);
+		query(analyzer, "select 1", 5);
+
+		List<Map.Entry<String, SqlFrequency>> list = analyzer.getSqlFrequency();
+		Assert.assertEquals(2, list.size());
+		SqlFrequency top = list.get(0).getValue();
+		Assert.assertEquals("select * from t where id=?", top.getSql());
+		Assert.assertEquals(3, top.getCount());
+		Assert.assertEquals(0, top.getError());
+		Assert.assertEquals(30, top.getAvgTime());
+		Assert.assertEquals(60, top.getMaxTime());
+		Assert.assertEquals(10, top.getMinTime());
+		Assert.assertEquals(60, top.getExecuteTime());
+		Assert.assertEquals(160, top.getLastTime());
+	}
+
+	@Test
+	public void testHeavyHittersSurvive() {
+		HighFrequencySqlAnalyzer analyzer = new HighFrequencySqlAnalyzer(8, 1);
+		for (int i = 0; i < 10000; i++) {
+			query(analyzer, "select * from hot" + (i % 3) + " where id=" + i, 1);
+			query(analyzer, "select * from cold" + i, 1);
+		}
+
+		List<Map.Entry<String, SqlFrequency>> list = analyzer.getSqlFrequency();
+		Assert.assertEquals(8, list.size());
+		for (int i = 0; i < 3; i++) {
+			SqlFrequency frequency = list.get(i).getValue();
+			Assert.assertTrue(frequency.getSql(), frequency.getSql().startsWith("select * from hot"));
+			Assert.assertTrue(frequency.getCount() - frequency.getError() <= 3334);
+			Assert.assertTrue(frequency.getCount() >= 3333);
+		}
+		long total = 0;
+		for (Map.Entry<String, SqlFrequency> entry : list) {
+			total += entry.getValue().getCount();
+		}
+		Assert.assertEquals(20000, total);
+	}
+}